@@ -1,5 +1,9 @@
 package net.metja.todolist;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
 import javax.sql.DataSource;
 
 import org.slf4j.Logger;
@@ -7,13 +11,20 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.context.annotation.Primary;
 import org.springframework.security.web.authentication.rememberme.JdbcTokenRepositoryImpl;
 import org.springframework.security.web.authentication.rememberme.PersistentTokenRepository;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.sqlite.SQLiteConfig;
+
 import net.metja.todolist.configuration.ConfigUtil;
+import net.metja.todolist.database.ArchiveManager;
+import net.metja.todolist.database.ReplicaDataSource;
 import net.metja.todolist.notification.EmailNotificationClient;
 import net.metja.todolist.notification.NotificationClient;
 import net.metja.todolist.notification.NotificationManager;
@@ -28,7 +39,31 @@ public class TodoList {
 
     @Value("${DB_URL:jdbc:sqlite:db/todolist.db}")
     private String databaseUrl;
-    private SingleConnectionDataSource dataSource;
+    @Value("${DB_POOL_MIN_IDLE:1}")
+    private int poolMinIdle;
+    @Value("${DB_POOL_MAX_SIZE:10}")
+    private int poolMaxSize;
+    @Value("${DB_POOL_CONNECTION_TIMEOUT:30000}")
+    private long poolConnectionTimeout;
+    @Value("${DB_POOL_LEAK_DETECTION_THRESHOLD:60000}")
+    private long poolLeakDetectionThreshold;
+    @Value("${DB_SQLITE_WAL:false}")
+    private boolean sqliteWal;
+    @Value("${DB_SQLITE_SYNCHRONOUS:NORMAL}")
+    private String sqliteSynchronous;
+    @Value("${DB_SQLITE_MMAP_SIZE:268435456}")
+    private long sqliteMmapSize;
+    @Value("${DB_SQLITE_CACHE_SIZE:-16000}")
+    private int sqliteCacheSize;
+    @Value("${DB_SQLITE_BUSY_TIMEOUT:5000}")
+    private int sqliteBusyTimeout;
+    @Value("${DB_SQLITE_READ_POOL_SIZE:4}")
+    private int sqliteReadPoolSize;
+    @Value("${DB_READ_REPLICA_URLS:}")
+    private String readReplicaUrls;
+    private HikariDataSource dataSource;
+    private HikariDataSource readDataSource;
+    private ReplicaDataSource replicaDataSource;
     private static final Logger logger = LoggerFactory.getLogger(TodoList.class);
 
     @Value("${ENABLE_NOTIFICATIONS:true}")
@@ -36,6 +71,7 @@ public class TodoList {
     private NotificationClient emailClient;
 
     private NotificationManager notificationManager;
+    private ArchiveManager archiveManager;
 
     private ConfigUtil configUtil;
 
@@ -51,27 +87,118 @@ public class TodoList {
     }
 
     @Bean
+    @Primary
     public synchronized DataSource jdbcDataSource() {
         if(this.dataSource == null) {
             logger.debug("Database url: "+this.databaseUrl);
+            HikariConfig config = new HikariConfig();
             if(this.databaseUrl.contains("sqlite")) {
                 logger.info("Using sqlite driver");
-                this.dataSource = new SingleConnectionDataSource();
-                this.dataSource.setDriverClassName("org.sqlite.JDBC");
-                this.dataSource.setUrl(this.databaseUrl);
+                config.setDriverClassName("org.sqlite.JDBC");
+                if(this.sqliteWal) {
+                    logger.info("Using sqlite WAL mode with a single writer connection");
+                    SQLiteConfig sqliteConfig = this.sqliteConfig();
+                    sqliteConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+                    sqliteConfig.setSynchronous(SQLiteConfig.SynchronousMode.valueOf(this.sqliteSynchronous.toUpperCase()));
+                    config.setDataSourceProperties(sqliteConfig.toProperties());
+                }
             } else if(databaseUrl.contains("postgresql")) {
                 logger.info("Using postgresql driver");
-                this.dataSource = new SingleConnectionDataSource();
-                this.dataSource.setDriverClassName("org.postgresql.Driver");
-                this.dataSource.setUrl(this.databaseUrl);
+                config.setDriverClassName("org.postgresql.Driver");
             } else {
                 logger.error("Unsupported database connection: "+databaseUrl);
                 System.exit(1);
             }
+            config.setJdbcUrl(this.databaseUrl);
+            config.setPoolName("tasklist");
+            // sqlite takes one writer at a time. With a rollback journal concurrent read-then-write transactions
+            // deadlock on SQLITE_BUSY, so all statements share the one connection. In WAL mode this is only the
+            // writer, the reads have their own pool of DB_SQLITE_READ_POOL_SIZE connections.
+            if(this.databaseUrl.contains("sqlite")) {
+                logger.info("Ignoring DB_POOL_MIN_IDLE and DB_POOL_MAX_SIZE ("+this.poolMinIdle+"-"+this.poolMaxSize+") for sqlite, "
+                        +(this.sqliteWal ? "writing on a single connection" : "using a single connection, DB_SQLITE_WAL=true adds a read pool"));
+                config.setMinimumIdle(1);
+                config.setMaximumPoolSize(1);
+            } else {
+                config.setMinimumIdle(this.poolMinIdle);
+                config.setMaximumPoolSize(this.poolMaxSize);
+            }
+            config.setConnectionTimeout(this.poolConnectionTimeout);
+            config.setLeakDetectionThreshold(this.poolLeakDetectionThreshold);
+            logger.info("Connection pool size: "+config.getMinimumIdle()+"-"+config.getMaximumPoolSize());
+            this.dataSource = new HikariDataSource(config);
         }
         return this.dataSource;
     }
 
+    @Bean
+    @ConditionalOnExpression("(${DB_SQLITE_WAL:false} and '${DB_URL:jdbc:sqlite:db/todolist.db}'.contains('sqlite')) or !'${DB_READ_REPLICA_URLS:}'.isEmpty()")
+    public synchronized DataSource readDataSource() {
+        if(!this.readReplicaUrls.isEmpty()) {
+            if(this.replicaDataSource == null) {
+                this.replicaDataSource = this.createReplicaDataSource();
+            }
+            return this.replicaDataSource;
+        }
+        if(this.readDataSource == null) {
+            // the writer creates the database file and switches it to WAL before any reader opens it
+            this.jdbcDataSource();
+            logger.info("Using "+this.sqliteReadPoolSize+" read-only sqlite connections");
+            SQLiteConfig sqliteConfig = this.sqliteConfig();
+            sqliteConfig.setReadOnly(true);
+            HikariConfig config = new HikariConfig();
+            config.setDriverClassName("org.sqlite.JDBC");
+            config.setJdbcUrl(this.databaseUrl);
+            config.setDataSourceProperties(sqliteConfig.toProperties());
+            config.setPoolName("tasklist-read");
+            // sqlite refuses to change the read-only flag of an open connection, so hikari has to agree with it
+            config.setReadOnly(true);
+            config.setMinimumIdle(1);
+            config.setMaximumPoolSize(this.sqliteReadPoolSize);
+            config.setConnectionTimeout(this.poolConnectionTimeout);
+            config.setLeakDetectionThreshold(this.poolLeakDetectionThreshold);
+            this.readDataSource = new HikariDataSource(config);
+        }
+        return this.readDataSource;
+    }
+
+    private ReplicaDataSource createReplicaDataSource() {
+        List<DataSource> replicas = new ArrayList<>();
+        StringTokenizer st = new StringTokenizer(this.readReplicaUrls, ",");
+        while(st.hasMoreTokens()) {
+            String url = st.nextToken().trim();
+            logger.debug("Read replica url: "+url);
+            HikariConfig config = new HikariConfig();
+            if(url.contains("postgresql")) {
+                config.setDriverClassName("org.postgresql.Driver");
+            } else {
+                // e.g. a local copy of the sqlite file for testing the routing
+                config.setDriverClassName("org.sqlite.JDBC");
+                SQLiteConfig sqliteConfig = this.sqliteConfig();
+                sqliteConfig.setReadOnly(true);
+                config.setDataSourceProperties(sqliteConfig.toProperties());
+            }
+            config.setJdbcUrl(url);
+            config.setPoolName("tasklist-replica-"+replicas.size());
+            config.setReadOnly(true);
+            config.setMinimumIdle(this.poolMinIdle);
+            config.setMaximumPoolSize(this.poolMaxSize);
+            config.setConnectionTimeout(this.poolConnectionTimeout);
+            config.setLeakDetectionThreshold(this.poolLeakDetectionThreshold);
+            replicas.add(new HikariDataSource(config));
+        }
+        logger.info("Routing reads to "+replicas.size()+" read replicas");
+        return new ReplicaDataSource(replicas);
+    }
+
+    private SQLiteConfig sqliteConfig() {
+        SQLiteConfig sqliteConfig = new SQLiteConfig();
+        sqliteConfig.setBusyTimeout(this.sqliteBusyTimeout);
+        sqliteConfig.setCacheSize(this.sqliteCacheSize);
+        sqliteConfig.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(this.sqliteMmapSize));
+        return sqliteConfig;
+    }
+
     @Bean
     public synchronized NotificationClient emailNotificationClient() {
         if(this.enableNotifications && this.emailClient == null) {
@@ -89,6 +216,14 @@ public class TodoList {
         return this.notificationManager;
     }
 
+    @Bean(initMethod = "init")
+    public synchronized ArchiveManager archiveManager() {
+        if(this.archiveManager == null) {
+            this.archiveManager = new ArchiveManager();
+        }
+        return this.archiveManager;
+    }
+
     @Bean(initMethod = "init")
     public synchronized ConfigUtil configUtil() {
         if(this.configUtil == null) {
@@ -79,6 +79,7 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
         }
         configuration.setAllowedOrigins(corsHosts);
         configuration.setAllowedMethods(Arrays.asList("GET","POST"));
+        configuration.setExposedHeaders(Arrays.asList("X-Next-Cursor", "ETag"));
         UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
         source.registerCorsConfiguration("/**", configuration);
         return source;
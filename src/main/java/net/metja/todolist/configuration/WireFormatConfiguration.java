@@ -0,0 +1,93 @@
+package net.metja.todolist.configuration;
+
+import java.io.IOException;
+
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import net.metja.todolist.database.bean.Repeat;
+import net.metja.todolist.database.bean.Todo;
+
+/**
+ * Binary CBOR representation of the item endpoints, chosen by the client with the Accept and
+ * Content-Type headers. JSON stays the default. Dates and times are written as numbers
+ * (LocalDate as [year,month,day], OffsetDateTime as epoch milliseconds) and enums by ordinal. A
+ * repeat is its RepeatCode, the times shifted left by three bits and the period ordinal below.
+ * <p>
+ * Both representations can leave out item properties a client did not ask for, through the
+ * {@value #TODO_FIELDS_FILTER} filter. Without a filter for a response all properties are written,
+ * except the time an item was done, which is only kept for archiving.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+@Configuration
+public class WireFormatConfiguration {
+
+    public static final String TODO_FIELDS_FILTER = "todoFields";
+
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer todoFieldsCustomizer() {
+        return builder -> builder.mixIn(Todo.class, TodoFieldsMixIn.class)
+                .filters(new SimpleFilterProvider().setDefaultFilter(SimpleBeanPropertyFilter.serializeAll()));
+    }
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory())
+                .featuresToEnable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, SerializationFeature.WRITE_ENUMS_USING_INDEX)
+                .featuresToDisable(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS,
+                        DeserializationFeature.READ_DATE_TIMESTAMPS_AS_NANOSECONDS)
+                .serializerByType(Repeat.class, new RepeatCodeSerializer())
+                .deserializerByType(Repeat.class, new RepeatCodeDeserializer())
+                .build());
+    }
+
+    @JsonFilter(TODO_FIELDS_FILTER)
+    @JsonIgnoreProperties({"doneAt"})
+    private interface TodoFieldsMixIn {}
+
+    private static class RepeatCodeSerializer extends StdSerializer<Repeat> {
+
+        RepeatCodeSerializer() {
+            super(Repeat.class);
+        }
+
+        @Override
+        public void serialize(Repeat repeat, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeNumber(repeat.toCode());
+        }
+
+    }
+
+    private static class RepeatCodeDeserializer extends StdDeserializer<Repeat> {
+
+        RepeatCodeDeserializer() {
+            super(Repeat.class);
+        }
+
+        @Override
+        public Repeat deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            return Repeat.fromCode(parser.getValueAsInt());
+        }
+
+    }
+
+}
@@ -1,21 +1,45 @@
 package net.metja.todolist.controller;
 
+import net.metja.todolist.database.ArchiveQuery;
+import net.metja.todolist.database.AsyncDatabaseManager;
 import net.metja.todolist.database.DatabaseManager;
-import net.metja.todolist.database.bean.Repeat;
+import net.metja.todolist.database.TodoChanges;
+import net.metja.todolist.database.TodoFields;
+import net.metja.todolist.database.TodoPage;
+import net.metja.todolist.database.TodoQuery;
+import net.metja.todolist.database.TransitionResult;
 import net.metja.todolist.database.bean.Todo;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.security.Principal;
-import java.util.Comparator;
+import java.time.LocalDate;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Rest controller for Task list item methods.
@@ -26,203 +50,403 @@ import java.util.List;
 @RestController
 public class ItemController {
 
-    private DatabaseManager databaseManager;
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final String JSON_REPRESENTATION = "json";
+    private static final String CBOR_REPRESENTATION = "cbor";
+
+    // one batch is one transaction on the single writer connection
+    @Value("${ITEMS_BATCH_MAX:500}")
+    private int batchMax = 500;
+
+    private AsyncDatabaseManager databaseManager;
+    private ItemEventBroker eventBroker;
+    // streams run on the request's own async thread, not on the database executor
+    private DatabaseManager streamingDatabaseManager;
+    private ObjectMapper objectMapper;
     private static final Logger logger = LoggerFactory.getLogger(ItemController.class);
 
+    /**
+     * Without any filter or paging parameter the whole list is returned as before. With any of them
+     * one page of matching items is returned, and the cursor of the next page is in the
+     * X-Next-Cursor header. Both come in the list order of the database, by due date, due time
+     * and id.
+     * <p>
+     * The ETag is the change sequence number of the list. It is taken before the items are read,
+     * so it is never newer than the returned items, and a matching If-None-Match is answered with
+     * 304 without reading the items. The tag ends with the representation negotiated from Accept,
+     * json or cbor, so a cache that has one never answers a request for the other with it.
+     * <p>
+     * The fields parameter limits the item properties returned, for example
+     * fields=title,done,dueDate. The id and the parent id are always included, nested children
+     * only when children is one of the fields.
+     */
     @PreAuthorize("hasAnyRole('ADMIN','USER', 'VIEW')")
-    @RequestMapping(value = "/api/v1/items", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.GET)
-    public ResponseEntity<List<Todo>> getTodoItems(Principal principal) {
-        int listID = this.databaseManager.getUserList(principal.getName());
-        if(listID > 0) {
-            List<Todo> todos = this.databaseManager.getTodos(listID);
-            if(todos != null && todos.size() > 1) {
-                this.sortTodosByDueDate(todos);
+    @RequestMapping(value = "/api/v1/items", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE}, method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<List<Todo>>> getTodoItems(@RequestParam(value = "roots", defaultValue = "false") boolean roots,
+                                                   @RequestParam(value = "done", required = false) Boolean done,
+                                                   @RequestParam(value = "scheduled", required = false) Boolean scheduled,
+                                                   @RequestParam(value = "dueFrom", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueFrom,
+                                                   @RequestParam(value = "dueTo", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueTo,
+                                                   @RequestParam(value = "parent", required = false) Integer parentId,
+                                                   @RequestParam(value = "limit", required = false) Integer limit,
+                                                   @RequestParam(value = "cursor", required = false) String cursor,
+                                                   @RequestParam(value = TodoFieldsAdvice.FIELDS_PARAM, required = false) String fields,
+                                                   @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                   @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                   Principal principal) {
+        TodoFields todoFields = parseFields(fields);
+        if(todoFields == null) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+        }
+        String representation = representation(accept);
+        if(done != null || scheduled != null || dueFrom != null || dueTo != null || parentId != null || limit != null || cursor != null) {
+            if(limit != null && (limit < 1 || limit > MAX_PAGE_SIZE)) {
+                return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
             }
-            if(todos != null) {
-                return new ResponseEntity<>(todos, HttpStatus.OK);
-            } else {
-                return new ResponseEntity<>(new LinkedList<>(), HttpStatus.OK);
+            TodoQuery query = new TodoQuery();
+            query.setDone(done);
+            query.setScheduled(scheduled);
+            query.setDueFrom(dueFrom);
+            query.setDueTo(dueTo);
+            query.setParentId(parentId);
+            query.setLimit(limit != null ? limit : DEFAULT_PAGE_SIZE);
+            query.setFields(todoFields);
+            try {
+                query.setCursor(cursor);
+            } catch(IllegalArgumentException e) {
+                logger.debug("Invalid cursor "+cursor);
+                return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
             }
-        } else {
-            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
-        }
-    }
-
-    private void sortTodosByDueDate(List<Todo> todos) {
-        todos.sort(new Comparator<Todo>() {
-            @Override
-            public int compare(Todo t1, Todo t2) {
-                if(t1.isScheduled() || t2.isScheduled()) {
-                    if(t1.getDueDate() == null && t1.getDueDate() == null) {
-                        return 0;
-                    } else if (t1.getDueDate() != null && t2.getDueDate() == null) {
-                        return -1;
-                    } else if (t1.getDueDate() == null && t2.getDueDate() != null) {
-                        return 1;
-                    } else if (t1.getDueDate().isBefore(t2.getDueDate())) {
-                        return -1;
-                    } else if (t1.getDueDate().isAfter(t2.getDueDate())) {
-                        return 1;
-                    } else if(t1.getDueDate().isEqual(t2.getDueDate())) {
-                        if(t1.getDueTime() == null && t2.getDueTime() == null) {
-                        } else if(t1.getDueTime() != null && t2.getDueTime() == null) {
-                            return -1;
-                        } else if(t1.getDueTime() == null && t2.getDueTime() != null) {
-                            return 1;
-                        } else if(t1.getDueTime().isBefore(t2.getDueTime())) {
-                            return -1;
-                        } else if (t1.getDueTime().isAfter(t2.getDueTime())) {
-                            return 1;
-                        }
+            return this.withList(principal, new ResponseEntity<>(HttpStatus.NOT_FOUND), listID -> this.unlessNotModified(listID, representation, ifNoneMatch, () ->
+                    this.databaseManager.getTodos(listID, query).thenApply(this::pageResponse)));
+        }
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.NOT_FOUND), listID -> this.unlessNotModified(listID, representation, ifNoneMatch, () ->
+                (roots ? this.databaseManager.getTodos(listID, true) : this.databaseManager.getTodos(listID)).thenApply(todos -> {
+                    if(todos != null) {
+                        return new ResponseEntity<>(todos, HttpStatus.OK);
+                    } else {
+                        return new ResponseEntity<>(new LinkedList<>(), HttpStatus.OK);
                     }
-                }
-                return 0;
+                })));
+    }
+
+    /**
+     * Writes the items to the response a chunk at a time, so the memory used does not grow with
+     * the size of the list. The items come in due date order as a flat array, children are not
+     * nested in their parents. No database connection is held while the response is written.
+     */
+    @PreAuthorize("hasAnyRole('ADMIN','USER', 'VIEW')")
+    @RequestMapping(value = "/api/v1/items", params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamTodoItems(@RequestParam(value = TodoFieldsAdvice.FIELDS_PARAM, required = false) String fields,
+                                                   @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                   Principal principal) {
+        TodoFields todoFields = parseFields(fields);
+        if(todoFields == null) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+        }
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.NOT_FOUND), listID -> this.unlessNotModified(listID, JSON_REPRESENTATION, ifNoneMatch, () ->
+                CompletableFuture.completedFuture(ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(out -> this.writeTodos(listID, todoFields, out)))));
+    }
+
+    private void writeTodos(int listID, TodoFields fields, OutputStream out) throws IOException {
+        ObjectWriter writer = this.objectMapper.writerFor(Todo.class).with(TodoFieldsAdvice.filters(fields))
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try(JsonGenerator generator = this.objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            if(!this.streamingDatabaseManager.streamTodos(listID, fields, todo -> writer.writeValue(generator, todo))) {
+                // the status has been sent already, a broken response is all that is left
+                throw new IOException("Unable to read the items of list "+listID);
             }
+            generator.writeEndArray();
+        }
+    }
+
+    private <T> CompletableFuture<ResponseEntity<T>> unlessNotModified(int listID, String representation, String ifNoneMatch, Supplier<CompletableFuture<ResponseEntity<T>>> read) {
+        return this.databaseManager.getChangeSeq(listID).thenCompose(seq -> {
+            if(seq < 0) {
+                return read.get();
+            }
+            String eTag = "\""+listID+"-"+seq+"-"+representation+"\"";
+            if(ifNoneMatch != null && matchesETag(ifNoneMatch, eTag)) {
+                return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(CacheControl.noCache().cachePrivate()).varyBy(HttpHeaders.ACCEPT).build());
+            }
+            return read.get().thenApply(response -> {
+                if(response.getStatusCode() != HttpStatus.OK) {
+                    return response;
+                }
+                return ResponseEntity.ok().headers(response.getHeaders()).eTag(eTag).cacheControl(CacheControl.noCache().cachePrivate()).varyBy(HttpHeaders.ACCEPT).body(response.getBody());
+            });
         });
     }
 
-    @PreAuthorize("hasAnyRole('ADMIN','USER')")
-    @RequestMapping(value="/api/v1/items/add", produces=MediaType.APPLICATION_JSON_VALUE, method=RequestMethod.POST, consumes=MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Integer> addTodoListItem(@RequestBody Todo todo, Principal principal) {
-        int listId = this.databaseManager.getUserList(principal.getName());
-        if(listId > 0) {
-            int id = this.databaseManager.addTodo(listId, todo);
-            if(id > 0) {
-                return new ResponseEntity<>(id, HttpStatus.OK);
-            } else {
-                return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    /**
+     * Picks the representation the same way as the message converters do: the most specific and
+     * preferred accepted type, JSON first when both would do.
+     */
+    private static String representation(String accept) {
+        if(accept == null) {
+            return JSON_REPRESENTATION;
+        }
+        try {
+            List<MediaType> types = MediaType.parseMediaTypes(accept);
+            MediaType.sortBySpecificityAndQuality(types);
+            for(MediaType type: types) {
+                if(type.getQualityValue() == 0) {
+                    continue;
+                }
+                if(type.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                    return JSON_REPRESENTATION;
+                }
+                if(type.isCompatibleWith(MediaType.APPLICATION_CBOR)) {
+                    return CBOR_REPRESENTATION;
+                }
             }
-        } else {
-            return new ResponseEntity<>(-1, HttpStatus.BAD_REQUEST);
+        } catch(InvalidMediaTypeException e) {
+            logger.debug("Invalid Accept "+accept);
         }
+        return JSON_REPRESENTATION;
     }
 
-    @PreAuthorize("hasAnyRole('ADMIN','USER')")
-    @RequestMapping(value = "/api/v1/items/{id}/update", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.POST)
-    public ResponseEntity updateTodoListItem(@RequestBody Todo todo, @PathVariable(value="id") int id, Principal principal) {
-        int listId = this.databaseManager.getUserList(principal.getName());
-        if(listId > 0) {
-            Todo oldTodo = this.databaseManager.getTodo(listId, id);
-            if(oldTodo != null) {
-                todo.setId(id);
-                if(this.databaseManager.updateTodo(listId, todo)) {
-                    return new ResponseEntity(HttpStatus.OK);
-                } else {
-                    return new ResponseEntity(HttpStatus.INTERNAL_SERVER_ERROR);
-                }
-            } else {
-                return new ResponseEntity(HttpStatus.NOT_FOUND);
+    /**
+     * @return null if a field is not a property of an item
+     */
+    private static TodoFields parseFields(String fields) {
+        try {
+            return TodoFields.parse(fields);
+        } catch(IllegalArgumentException e) {
+            logger.debug("Invalid fields "+fields);
+            return null;
+        }
+    }
+
+    private static boolean matchesETag(String ifNoneMatch, String eTag) {
+        for(String tag: ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if(tag.startsWith("W/")) {
+                tag = tag.substring(2);
             }
-        } else {
-            return new ResponseEntity(HttpStatus.BAD_REQUEST);
+            if(tag.equals("*") || tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Items changed after the given sequence number of the list and the ids of the items removed
+     * since. Without a sequence number all items are returned. The fields parameter limits the
+     * item properties returned like in the item listing.
+     */
+    @PreAuthorize("hasAnyRole('ADMIN','USER', 'VIEW')")
+    @RequestMapping(value = "/api/v1/items/changes", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE}, method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<TodoChanges>> getTodoItemChanges(@RequestParam(value = "since", defaultValue = "0") long since,
+                                                   @RequestParam(value = TodoFieldsAdvice.FIELDS_PARAM, required = false) String fields,
+                                                   Principal principal) {
+        if(since < 0 || parseFields(fields) == null) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+        }
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.NOT_FOUND), listID ->
+                this.databaseManager.getChanges(listID, since).thenApply(changes -> changes != null ?
+                        new ResponseEntity<>(changes, HttpStatus.OK) : new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR)));
+    }
+
+    /**
+     * Stream of the changes made to the list of the user through this API, for other tabs and
+     * devices to refresh. The events carry only the item id, the items are read with the changes
+     * endpoint.
+     */
+    @PreAuthorize("hasAnyRole('ADMIN','USER', 'VIEW')")
+    @RequestMapping(value = "/api/v1/items/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE, method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<SseEmitter>> getTodoItemStream(Principal principal) {
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.NOT_FOUND), listID ->
+                CompletableFuture.completedFuture(new ResponseEntity<>(this.eventBroker.subscribe(listID), HttpStatus.OK)));
+    }
+
+    /**
+     * Archived items of the list, most recently completed first, one page at a time.
+     */
+    @PreAuthorize("hasAnyRole('ADMIN','USER', 'VIEW')")
+    @RequestMapping(value = "/api/v1/archive", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE}, method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<List<Todo>>> getArchivedItems(@RequestParam(value = "limit", required = false) Integer limit,
+                                                   @RequestParam(value = "cursor", required = false) String cursor,
+                                                   Principal principal) {
+        if(limit != null && (limit < 1 || limit > MAX_PAGE_SIZE)) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+        }
+        ArchiveQuery query = new ArchiveQuery();
+        query.setLimit(limit != null ? limit : DEFAULT_PAGE_SIZE);
+        try {
+            query.setCursor(cursor);
+        } catch(IllegalArgumentException e) {
+            logger.debug("Invalid cursor "+cursor);
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
+        }
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.NOT_FOUND), listID ->
+                this.databaseManager.getArchivedTodos(listID, query).thenApply(this::pageResponse));
+    }
+
+    private ResponseEntity<List<Todo>> pageResponse(TodoPage page) {
+        if(page == null) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if(page.getNextCursor() != null) {
+            headers.set(NEXT_CURSOR_HEADER, page.getNextCursor());
         }
+        return new ResponseEntity<>(page.getItems(), headers, HttpStatus.OK);
     }
 
     @PreAuthorize("hasAnyRole('ADMIN','USER')")
-    @RequestMapping(value = "/api/v1/items/{id}/done", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.GET)
-    public ResponseEntity<Boolean> markTodoListItemAsDone(@PathVariable(value="id") int id, Principal principal){
-        int listId = this.databaseManager.getUserList(principal.getName());
-        if(listId > 0) {
-            Todo todo = this.databaseManager.getTodo(listId, id);
-            if(todo != null) {
-                if(!todo.isDone()) {
-                    if(todo.getRepeat() == null || todo.getRepeat().getPeriod() == Repeat.TimePeriod.None) {
-                        todo.setDone(true);
-                        if(this.databaseManager.updateTodo(listId, todo)) {
-                            return new ResponseEntity<>(true, HttpStatus.OK);
-                        } else {
-                            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
-                        }
+    @RequestMapping(value="/api/v1/items/add", produces={MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE}, method=RequestMethod.POST, consumes={MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public CompletableFuture<ResponseEntity<Integer>> addTodoListItem(@RequestBody Todo todo, Principal principal) {
+        return this.withList(principal, new ResponseEntity<>(-1, HttpStatus.BAD_REQUEST), listId ->
+                this.databaseManager.addTodo(listId, todo).thenApply(id -> {
+                    if(id > 0) {
+                        this.eventBroker.publish(listId, new ItemEvent(ItemEvent.Type.ADDED, id));
+                        return new ResponseEntity<>(id, HttpStatus.OK);
                     } else {
-                        switch (todo.getRepeat().getPeriod()) {
-                            case Days: todo.setDueDate(todo.getDueDate().plusDays(todo.getRepeat().getTimes())); break;
-                            case Weeks: todo.setDueDate(todo.getDueDate().plusWeeks(todo.getRepeat().getTimes())); break;
-                            case Months: todo.setDueDate(todo.getDueDate().plusMonths(todo.getRepeat().getTimes())); break;
-                            case Years: todo.setDueDate(todo.getDueDate().plusYears(todo.getRepeat().getTimes())); break;
-                        }
-                        this.databaseManager.updateTodo(listId, todo);
-                        return new ResponseEntity<>(true, HttpStatus.OK);
+                        return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
                     }
-                } else {
-                    return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-                }
-            } else {
-                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
-            }
-        } else {
-            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-        }
+                }));
     }
 
+    /**
+     * Adds the items in one transaction. Batches of more than ITEMS_BATCH_MAX items are refused
+     * with 413, a client importing more sends several batches.
+     */
     @PreAuthorize("hasAnyRole('ADMIN','USER')")
-    @RequestMapping(value = "/api/v1/items/{id}/activate", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.GET)
-    public ResponseEntity<Boolean> markTodoListItemAsActive(@PathVariable(value="id") int id, Principal principal){
-        int listId = this.databaseManager.getUserList(principal.getName());
-        if(listId > 0) {
-            Todo todo = this.databaseManager.getTodo(listId, id);
-            if(todo != null) {
-                logger.debug("Scheduled: "+todo.isScheduled()+" Repeating: "+todo.getRepeat());
-                if(todo.isDone()) {
-                    todo.setDone(false);
-                    if(this.databaseManager.updateTodo(listId, todo)) {
-                        return new ResponseEntity<>(true, HttpStatus.OK);
+    @RequestMapping(value="/api/v1/items/batch", produces={MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE}, method=RequestMethod.POST, consumes={MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    public CompletableFuture<ResponseEntity<List<Integer>>> addTodoListItems(@RequestBody List<Todo> todos, Principal principal) {
+        if(todos.size() > this.batchMax) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE));
+        }
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.BAD_REQUEST), listId ->
+                this.databaseManager.addTodos(listId, todos).thenApply(ids -> {
+                    if(ids != null) {
+                        ids.forEach(id -> this.eventBroker.publish(listId, new ItemEvent(ItemEvent.Type.ADDED, id)));
+                        return new ResponseEntity<>(ids, HttpStatus.OK);
                     } else {
                         return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
                     }
-                } else {
-                    return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-                }
-            } else {
-                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
-            }
-        } else {
-            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+                }));
+    }
+
+    /**
+     * One item of the list, without its children. With the fields parameter only the given
+     * properties are returned, for example fields=description when a row is expanded.
+     */
+    @PreAuthorize("hasAnyRole('ADMIN','USER', 'VIEW')")
+    @RequestMapping(value = "/api/v1/items/{id}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE}, method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<Todo>> getTodoListItem(@PathVariable(value="id") int id,
+                                                   @RequestParam(value = TodoFieldsAdvice.FIELDS_PARAM, required = false) String fields,
+                                                   Principal principal) {
+        if(parseFields(fields) == null) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST));
         }
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.NOT_FOUND), listId ->
+                this.databaseManager.getTodo(listId, id).thenApply(todo -> todo != null ?
+                        new ResponseEntity<>(todo, HttpStatus.OK) : new ResponseEntity<>(HttpStatus.NOT_FOUND)));
     }
 
     @PreAuthorize("hasAnyRole('ADMIN','USER')")
-    @RequestMapping(value = "/api/v1/items/{id}/deactivate", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.GET)
-    public ResponseEntity<Boolean> markTodoListItemAsInactive(@PathVariable(value="id") int id, Principal principal){
-        int listId = this.databaseManager.getUserList(principal.getName());
-        if(listId > 0) {
-            Todo todo = this.databaseManager.getTodo(listId, id);
-            if(todo != null) {
-                if(!todo.isDone() && todo.isScheduled() && todo.getRepeat() != null && todo.getRepeat().getPeriod() != Repeat.TimePeriod.None) {
-                    todo.setDone(true);
-                    if (this.databaseManager.updateTodo(listId, todo)) {
-                        return new ResponseEntity<>(true, HttpStatus.OK);
+    @RequestMapping(value = "/api/v1/items/{id}/update", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE}, method = RequestMethod.POST)
+    public CompletableFuture<ResponseEntity<Void>> updateTodoListItem(@RequestBody Todo todo, @PathVariable(value="id") int id, Principal principal) {
+        todo.setId(id);
+        // one update of the item in the list, nothing updated when it is not there
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.BAD_REQUEST), listId ->
+                this.databaseManager.updateTodo(listId, todo).thenApply(updated -> {
+                    if(updated) {
+                        this.eventBroker.publish(listId, new ItemEvent(ItemEvent.Type.UPDATED, id));
+                        return new ResponseEntity<>(HttpStatus.OK);
                     } else {
-                        return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+                        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
                     }
-                } else {
-                    return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-                }
-            } else {
-                return new ResponseEntity<>(HttpStatus.NOT_FOUND);
-            }
-        } else {
-            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
-        }
+                }));
     }
 
     @PreAuthorize("hasAnyRole('ADMIN','USER')")
-    @RequestMapping(value = "/api/v1/items/{id}/delete", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.GET)
-    public ResponseEntity<Boolean> deleteTodoListItem(@PathVariable(value="id") int id, Principal principal) {
-        int listId = this.databaseManager.getUserList(principal.getName());
-        if(listId > 0) {
-            if(this.databaseManager.deleteTodo(listId, id)) {
+    @RequestMapping(value = "/api/v1/items/{id}/done", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<Boolean>> markTodoListItemAsDone(@PathVariable(value="id") int id, Principal principal){
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.BAD_REQUEST), listId ->
+                this.databaseManager.markTodoDone(listId, id).thenApply(result -> this.transitionResponse(listId, id, result)));
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN','USER')")
+    @RequestMapping(value = "/api/v1/items/{id}/activate", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<Boolean>> markTodoListItemAsActive(@PathVariable(value="id") int id, Principal principal){
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.BAD_REQUEST), listId ->
+                this.databaseManager.activateTodo(listId, id).thenApply(result -> this.transitionResponse(listId, id, result)));
+    }
+
+    @PreAuthorize("hasAnyRole('ADMIN','USER')")
+    @RequestMapping(value = "/api/v1/items/{id}/deactivate", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<Boolean>> markTodoListItemAsInactive(@PathVariable(value="id") int id, Principal principal){
+        return this.withList(principal, new ResponseEntity<>(HttpStatus.BAD_REQUEST), listId ->
+                this.databaseManager.deactivateTodo(listId, id).thenApply(result -> this.transitionResponse(listId, id, result)));
+    }
+
+    private ResponseEntity<Boolean> transitionResponse(int listId, int id, TransitionResult result) {
+        switch(result) {
+            case UPDATED:
+                this.eventBroker.publish(listId, new ItemEvent(ItemEvent.Type.UPDATED, id));
                 return new ResponseEntity<>(true, HttpStatus.OK);
-            } else {
-                return new ResponseEntity<>(false, HttpStatus.NOT_FOUND);
-            }
-        } else {
-            return new ResponseEntity<>(false, HttpStatus.BAD_REQUEST);
+            case NOT_FOUND: return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+            case WRONG_STATE: return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            default: return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    @PreAuthorize("hasAnyRole('ADMIN','USER')")
+    @RequestMapping(value = "/api/v1/items/{id}/delete", produces = MediaType.APPLICATION_JSON_VALUE, method = RequestMethod.GET)
+    public CompletableFuture<ResponseEntity<Boolean>> deleteTodoListItem(@PathVariable(value="id") int id, Principal principal) {
+        return this.withList(principal, new ResponseEntity<>(false, HttpStatus.BAD_REQUEST), listId ->
+                this.databaseManager.deleteTodo(listId, id).thenApply(deleted -> {
+                    if(deleted) {
+                        this.eventBroker.publish(listId, new ItemEvent(ItemEvent.Type.DELETED, id));
+                        return new ResponseEntity<>(true, HttpStatus.OK);
+                    } else {
+                        return new ResponseEntity<>(false, HttpStatus.NOT_FOUND);
+                    }
+                }));
+    }
+
+    /**
+     * Looks up the list of the user and runs the action with it. A full database queue answers 503
+     * so clients can retry, other failures 500.
+     */
+    private <T> CompletableFuture<ResponseEntity<T>> withList(Principal principal, ResponseEntity<T> noList, Function<Integer, CompletableFuture<ResponseEntity<T>>> action) {
+        return this.databaseManager.getUserList(principal.getName())
+                .thenCompose(listId -> listId > 0 ? action.apply(listId) : CompletableFuture.completedFuture(noList))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if(cause instanceof RejectedExecutionException) {
+                        return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+                    }
+                    logger.error("Database call failed", cause);
+                    return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+                });
+    }
+
     @Autowired
-    void setDatabaseManager(DatabaseManager databaseManager) {
+    void setDatabaseManager(AsyncDatabaseManager databaseManager) {
         this.databaseManager = databaseManager;
     }
 
+    @Autowired
+    void setStreamingDatabaseManager(DatabaseManager streamingDatabaseManager) {
+        this.streamingDatabaseManager = streamingDatabaseManager;
+    }
+
+    @Autowired
+    void setObjectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Autowired
+    void setEventBroker(ItemEventBroker eventBroker) {
+        this.eventBroker = eventBroker;
+    }
+
 }
@@ -0,0 +1,29 @@
+package net.metja.todolist.controller;
+
+/**
+ * One item change sent on the event stream of a list.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class ItemEvent {
+
+    public enum Type { ADDED, UPDATED, DELETED }
+
+    private final Type type;
+    private final int id;
+
+    public ItemEvent(Type type, int id) {
+        this.type = type;
+        this.id = id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+}
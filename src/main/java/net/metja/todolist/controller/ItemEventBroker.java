@@ -0,0 +1,157 @@
+package net.metja.todolist.controller;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes item changes to the open event streams of a list. A stream holds no thread while it is
+ * idle, the events are written by a few shared sender threads. Every stream buffers at most
+ * SSE_BUFFER_SIZE events; a stream that falls behind further is closed, and the client reconnects
+ * and catches up with the changes endpoint.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+@Component
+public class ItemEventBroker {
+
+    static final String CHANGE_EVENT = "change";
+
+    @Value("${SSE_BUFFER_SIZE:64}")
+    private int bufferSize = 64;
+    @Value("${SSE_TIMEOUT:1800000}")
+    private long timeout = 1800000;
+    @Value("${SSE_HEARTBEAT_INTERVAL:30}")
+    private long heartbeatInterval = 30;
+    @Value("${SSE_SENDER_THREADS:2}")
+    private int senderThreads = 2;
+
+    private final Map<Integer, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private ExecutorService senders;
+    private ScheduledExecutorService heartbeat;
+
+    private static final Logger logger = LoggerFactory.getLogger(ItemEventBroker.class);
+
+    ItemEventBroker() {}
+
+    @PostConstruct
+    void init() {
+        AtomicInteger count = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(this.senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "tasklist-sse-"+count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tasklist-sse-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // a write to a closed connection is the only way to notice it is gone
+        this.heartbeat.scheduleWithFixedDelay(() -> this.subscribers.values().forEach(list ->
+                list.forEach(subscriber -> subscriber.offer(SseEmitter.event().comment("")))),
+                this.heartbeatInterval, this.heartbeatInterval, TimeUnit.SECONDS);
+    }
+
+    SseEmitter subscribe(final int listId) {
+        SseEmitter emitter = new SseEmitter(this.timeout);
+        Subscriber subscriber = new Subscriber(listId, emitter);
+        this.subscribers.computeIfAbsent(listId, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        emitter.onCompletion(() -> this.remove(subscriber));
+        emitter.onTimeout(() -> this.remove(subscriber));
+        emitter.onError(e -> this.remove(subscriber));
+        logger.debug("Subscribed to changes of list "+listId);
+        return emitter;
+    }
+
+    void publish(final int listId, final ItemEvent event) {
+        Set<Subscriber> list = this.subscribers.get(listId);
+        if(list != null) {
+            for(Subscriber subscriber: list) {
+                subscriber.offer(SseEmitter.event().name(CHANGE_EVENT).data(event, MediaType.APPLICATION_JSON));
+            }
+        }
+    }
+
+    int getSubscriberCount() {
+        return this.subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void remove(final Subscriber subscriber) {
+        this.subscribers.computeIfPresent(subscriber.listId, (key, list) -> {
+            list.remove(subscriber);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        this.heartbeat.shutdownNow();
+        this.senders.shutdownNow();
+        this.subscribers.values().forEach(list -> list.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    private final class Subscriber {
+
+        private final int listId;
+        private final SseEmitter emitter;
+        private final Queue<SseEmitter.SseEventBuilder> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+
+        private Subscriber(int listId, SseEmitter emitter) {
+            this.listId = listId;
+            this.emitter = emitter;
+        }
+
+        private void offer(final SseEmitter.SseEventBuilder event) {
+            if(!this.buffer.offer(event)) {
+                logger.debug("Event stream of list "+this.listId+" fell behind, closing it");
+                remove(this);
+                this.emitter.complete();
+                return;
+            }
+            if(this.sending.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                SseEmitter.SseEventBuilder event;
+                while((event = this.buffer.poll()) != null) {
+                    try {
+                        this.emitter.send(event);
+                    } catch(IOException | IllegalStateException e) {
+                        logger.debug("Event stream of list "+this.listId+" closed: "+e.getMessage());
+                        remove(this);
+                        this.buffer.clear();
+                        return;
+                    }
+                }
+                this.sending.set(false);
+                // an event offered after the last poll but before the flag was cleared
+            } while(!this.buffer.isEmpty() && this.sending.compareAndSet(false, true));
+        }
+    }
+
+}
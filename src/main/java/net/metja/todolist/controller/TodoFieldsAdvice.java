@@ -0,0 +1,55 @@
+package net.metja.todolist.controller;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.AbstractMappingJacksonResponseBodyAdvice;
+
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+import net.metja.todolist.configuration.WireFormatConfiguration;
+import net.metja.todolist.database.TodoFields;
+
+/**
+ * Writes only the item properties named in the fields parameter of an item request, in the JSON
+ * and the CBOR responses alike. The controller has already rejected unknown field names.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+@ControllerAdvice(assignableTypes = ItemController.class)
+public class TodoFieldsAdvice extends AbstractMappingJacksonResponseBodyAdvice {
+
+    static final String FIELDS_PARAM = "fields";
+
+    @Override
+    protected void beforeBodyWriteInternal(MappingJacksonValue bodyContainer, MediaType contentType, MethodParameter returnType,
+                                           ServerHttpRequest request, ServerHttpResponse response) {
+        if(!(request instanceof ServletServerHttpRequest)) {
+            return;
+        }
+        String fields = ((ServletServerHttpRequest) request).getServletRequest().getParameter(FIELDS_PARAM);
+        if(fields != null) {
+            try {
+                bodyContainer.setFilters(filters(TodoFields.parse(fields)));
+            } catch(IllegalArgumentException e) {
+                // an error response, nothing to filter
+            }
+        }
+    }
+
+    static FilterProvider filters(TodoFields fields) {
+        SimpleFilterProvider filters = new SimpleFilterProvider().setDefaultFilter(SimpleBeanPropertyFilter.serializeAll());
+        if(!fields.isAll()) {
+            filters.addFilter(WireFormatConfiguration.TODO_FIELDS_FILTER, SimpleBeanPropertyFilter.filterOutAllExcept(fields.getProperties()));
+        }
+        return filters;
+    }
+
+}
@@ -0,0 +1,107 @@
+package net.metja.todolist.database;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import net.metja.todolist.database.bean.Todo;
+
+/**
+ * When the next notification of an open scheduled item is due. An item is notified once in the
+ * week before its due date, then every day from the day before it is due until it is done. The
+ * days start at midnight in the due time zone of the item, or in the server time zone when the
+ * item has none.
+ * <p>
+ * The instant is stored in TodoItems.NextAlertAt whenever an item is written, so the notification
+ * scan is a range query and does not evaluate every item on every run.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public final class AlertSchedule {
+
+    static final int WEEK_DAYS = 7;
+
+    /**
+     * What a notification says about the item, from the latest to the earliest.
+     */
+    public enum Kind { WEEK, TOMORROW, TODAY, OVERDUE }
+
+    private AlertSchedule() {}
+
+    /**
+     * @return what a notification sent now says about the item, null if it is not scheduled or not
+     *         due within a week
+     */
+    public static Kind kindAt(final Todo todo, final Instant now) {
+        if(!todo.isScheduled() || todo.getDueDate() == null) {
+            return null;
+        }
+        ZoneId zone = zone(todo);
+        LocalDate dueDate = todo.getDueDate();
+        LocalDate today = now.atZone(zone).toLocalDate();
+        // without a due time the item is due until the end of its day
+        Instant due = todo.getDueTime() != null ? dueDate.atTime(todo.getDueTime()).atZone(zone).toInstant()
+                : dueDate.plusDays(1).atStartOfDay(zone).toInstant();
+        if(now.isAfter(due)) {
+            return Kind.OVERDUE;
+        } else if(today.equals(dueDate)) {
+            return Kind.TODAY;
+        } else if(today.plusDays(1).equals(dueDate)) {
+            return Kind.TOMORROW;
+        } else if(!today.plusDays(WEEK_DAYS).isBefore(dueDate)) {
+            return Kind.WEEK;
+        }
+        return null;
+    }
+
+    /**
+     * @return the start of the week before the item is due, when its first notification is due,
+     *         null if it is not scheduled
+     */
+    public static Instant firstAlert(final Todo todo) {
+        if(!todo.isScheduled() || todo.getDueDate() == null) {
+            return null;
+        }
+        return todo.getDueDate().minusDays(WEEK_DAYS).atStartOfDay(zone(todo)).toInstant();
+    }
+
+    private static ZoneId zone(final Todo todo) {
+        return todo.getDueTimezone() != null ? todo.getDueTimezone() : ZoneId.systemDefault();
+    }
+
+    /**
+     * @return the next notification of the item, null if it is not scheduled
+     */
+    public static Instant nextAlert(final Todo todo) {
+        if(!todo.isScheduled() || todo.getDueDate() == null) {
+            return null;
+        }
+        ZoneId zone = zone(todo);
+        LocalDate dueDate = todo.getDueDate();
+        Instant weekStart = firstAlert(todo);
+        Instant dailyStart = dueDate.minusDays(1).atStartOfDay(zone).toInstant();
+        if(todo.getLastNotification() == null) {
+            return weekStart;
+        }
+        Instant last = todo.getLastNotification().toInstant();
+        Instant weekly = last.plusSeconds(WEEK_DAYS * 86400L);
+        Instant daily = last.atZone(zone).toLocalDate().plusDays(1).atStartOfDay(zone).toInstant();
+        if(daily.isBefore(dailyStart)) {
+            daily = dailyStart;
+        }
+        if(weekly.isBefore(dailyStart)) {
+            return weekly.isBefore(weekStart) ? weekStart : weekly;
+        }
+        return daily;
+    }
+
+    /**
+     * @return the next notification as epoch milliseconds for the NextAlertAt column
+     */
+    static Long nextAlertAt(final Todo todo) {
+        Instant next = nextAlert(todo);
+        return next != null ? next.toEpochMilli() : null;
+    }
+
+}
@@ -0,0 +1,73 @@
+package net.metja.todolist.database;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Periodically moves items that have been done for longer than ARCHIVE_AFTER_DAYS into the
+ * archive table, keeping TodoItems and its indexes at the size of the active items.
+ * <p>
+ * Off unless ENABLE_ARCHIVE is set, the UI does not show archived items and they are only
+ * available through /api/v1/archive.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class ArchiveManager {
+
+    @Value("${ENABLE_ARCHIVE:false}")
+    private boolean enableArchive = false;
+    @Value("${ARCHIVE_AFTER_DAYS:30}")
+    private int archiveAfterDays = 30;
+    @Value("${ARCHIVE_BATCH_SIZE:500}")
+    private int batchSize = 500;
+    @Value("${ARCHIVE_INTERVAL:21600000}")
+    private long interval = 21600000;
+
+    private DatabaseManager databaseManager;
+
+    private Timer archiveTimer;
+    private final static Logger logger = LoggerFactory.getLogger(ArchiveManager.class);
+
+    public ArchiveManager() {}
+
+    public void init() {
+        if(this.enableArchive) {
+            logger.info("Archiving items done more than "+this.archiveAfterDays+" days ago");
+            this.archiveTimer = new Timer("archive-timer", true);
+            this.archiveTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    archive();
+                }
+            }, 60000, this.interval);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> archiveTimer.cancel()));
+        }
+    }
+
+    int archive() {
+        logger.info("Archiving done items ...");
+        Instant doneBefore = Instant.now().minus(this.archiveAfterDays, ChronoUnit.DAYS);
+        int archived = this.databaseManager.archiveTodos(doneBefore, this.batchSize);
+        if(archived < 0) {
+            logger.warn("Archiving done items failed");
+        } else {
+            logger.info("Archiving done items done, archived "+archived+" items");
+        }
+        return archived;
+    }
+
+    @Autowired
+    void setDatabaseManager(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+}
@@ -0,0 +1,66 @@
+package net.metja.todolist.database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import net.metja.todolist.database.bean.Todo;
+
+/**
+ * Page of archived todo items, newest completed first. Like in {@link TodoQuery} the cursor is
+ * the sort key of the last item of the previous page.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class ArchiveQuery {
+
+    private int limit = 100;
+    private long beforeDoneAt;
+    private int beforeId;
+    private boolean before = false;
+
+    public ArchiveQuery() {}
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    boolean hasCursor() {
+        return before;
+    }
+
+    long getBeforeDoneAt() {
+        return beforeDoneAt;
+    }
+
+    int getBeforeId() {
+        return beforeId;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor was not returned by {@link #cursorAfter(Todo)}
+     */
+    public void setCursor(String cursor) {
+        if(cursor == null) {
+            this.before = false;
+            return;
+        }
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+        if(parts.length != 2) {
+            throw new IllegalArgumentException("Invalid cursor "+cursor);
+        }
+        this.beforeDoneAt = Long.parseLong(parts[0]);
+        this.beforeId = Integer.parseInt(parts[1]);
+        this.before = true;
+    }
+
+    static String cursorAfter(final Todo todo) {
+        String key = todo.getDoneAt().toInstant().toEpochMilli()+":"+todo.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,38 @@
+package net.metja.todolist.database;
+
+import net.metja.todolist.database.bean.Todo;
+import net.metja.todolist.database.bean.UserAccount;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link DatabaseManager} whose calls run on a separate bounded executor instead of the calling
+ * thread. When the executor is full the returned future fails with a
+ * {@link java.util.concurrent.RejectedExecutionException}.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public interface AsyncDatabaseManager {
+
+    CompletableFuture<Integer> addList(String username);
+    CompletableFuture<Integer> getUserList(String username);
+
+    CompletableFuture<Integer> addTodo(int listId, Todo todo);
+    CompletableFuture<List<Integer>> addTodos(int listId, List<Todo> todos);
+    CompletableFuture<List<Todo>> getTodos(int listID);
+    CompletableFuture<List<Todo>> getTodos(int listID, boolean rootsOnly);
+    CompletableFuture<TodoPage> getTodos(int listID, TodoQuery query);
+    CompletableFuture<Todo> getTodo(int listId, int id);
+    CompletableFuture<Boolean> updateTodo(int listId, Todo todo);
+    CompletableFuture<Boolean> deleteTodo(int listId, int todoId);
+    CompletableFuture<TransitionResult> markTodoDone(int listId, int id);
+    CompletableFuture<TransitionResult> activateTodo(int listId, int id);
+    CompletableFuture<TransitionResult> deactivateTodo(int listId, int id);
+    CompletableFuture<TodoPage> getArchivedTodos(int listID, ArchiveQuery query);
+    CompletableFuture<TodoChanges> getChanges(int listID, long since);
+    CompletableFuture<Long> getChangeSeq(int listID);
+
+    CompletableFuture<List<UserAccount>> getUsers();
+}
@@ -0,0 +1,229 @@
+package net.metja.todolist.database;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import net.metja.todolist.database.bean.Todo;
+import net.metja.todolist.database.bean.UserAccount;
+
+/**
+ * Runs the {@link DatabaseManager} calls on a fixed number of threads, by default as many as the
+ * connection pools have connections together, so more threads would only wait for a connection.
+ * Calls that do not fit the queue are rejected right away instead of piling up behind a slow
+ * database.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+@Component
+public class AsyncDatabaseManagerImpl implements AsyncDatabaseManager {
+
+    private static final String EXECUTOR_NAME = "database";
+    // when the pool sizes are not known
+    private static final int DEFAULT_THREADS = 10;
+
+    // 0 for as many as the pools have connections
+    @Value("${DB_ASYNC_THREADS:0}")
+    private int threads = 0;
+    @Value("${DB_ASYNC_QUEUE_SIZE:1000}")
+    private int queueSize = 1000;
+
+    private DatabaseManager databaseManager;
+    private DataSource dataSource;
+    private DataSource readDataSource;
+    private ThreadPoolExecutor executor;
+    private MeterRegistry meterRegistry;
+
+    private static Logger logger = LoggerFactory.getLogger(AsyncDatabaseManagerImpl.class);
+
+    AsyncDatabaseManagerImpl() {}
+
+    @Override
+    public CompletableFuture<Integer> addList(final String username) {
+        return this.submit(() -> this.databaseManager.addList(username));
+    }
+
+    @Override
+    public CompletableFuture<Integer> getUserList(final String username) {
+        return this.submit(() -> this.databaseManager.getUserList(username));
+    }
+
+    @Override
+    public CompletableFuture<Integer> addTodo(final int listId, final Todo todo) {
+        return this.submit(() -> this.databaseManager.addTodo(listId, todo));
+    }
+
+    @Override
+    public CompletableFuture<List<Integer>> addTodos(final int listId, final List<Todo> todos) {
+        return this.submit(() -> this.databaseManager.addTodos(listId, todos));
+    }
+
+    @Override
+    public CompletableFuture<List<Todo>> getTodos(final int listID) {
+        return this.submit(() -> this.databaseManager.getTodos(listID));
+    }
+
+    @Override
+    public CompletableFuture<List<Todo>> getTodos(final int listID, final boolean rootsOnly) {
+        return this.submit(() -> this.databaseManager.getTodos(listID, rootsOnly));
+    }
+
+    @Override
+    public CompletableFuture<TodoPage> getTodos(final int listID, final TodoQuery query) {
+        return this.submit(() -> this.databaseManager.getTodos(listID, query));
+    }
+
+    @Override
+    public CompletableFuture<Todo> getTodo(final int listId, final int id) {
+        return this.submit(() -> this.databaseManager.getTodo(listId, id));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> updateTodo(final int listId, final Todo todo) {
+        return this.submit(() -> this.databaseManager.updateTodo(listId, todo));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteTodo(final int listId, final int todoId) {
+        return this.submit(() -> this.databaseManager.deleteTodo(listId, todoId));
+    }
+
+    @Override
+    public CompletableFuture<TransitionResult> markTodoDone(final int listId, final int id) {
+        return this.submit(() -> this.databaseManager.markTodoDone(listId, id));
+    }
+
+    @Override
+    public CompletableFuture<TransitionResult> activateTodo(final int listId, final int id) {
+        return this.submit(() -> this.databaseManager.activateTodo(listId, id));
+    }
+
+    @Override
+    public CompletableFuture<TransitionResult> deactivateTodo(final int listId, final int id) {
+        return this.submit(() -> this.databaseManager.deactivateTodo(listId, id));
+    }
+
+    @Override
+    public CompletableFuture<TodoPage> getArchivedTodos(final int listID, final ArchiveQuery query) {
+        return this.submit(() -> this.databaseManager.getArchivedTodos(listID, query));
+    }
+
+    @Override
+    public CompletableFuture<TodoChanges> getChanges(final int listID, final long since) {
+        return this.submit(() -> this.databaseManager.getChanges(listID, since));
+    }
+
+    @Override
+    public CompletableFuture<Long> getChangeSeq(final int listID) {
+        return this.submit(() -> this.databaseManager.getChangeSeq(listID));
+    }
+
+    @Override
+    public CompletableFuture<List<UserAccount>> getUsers() {
+        return this.submit(() -> this.databaseManager.getUsers());
+    }
+
+    private <T> CompletableFuture<T> submit(final Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, this.executor);
+        } catch(RejectedExecutionException e) {
+            logger.warn("Database queue full, rejecting call");
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        int threads = this.threads;
+        if(threads <= 0) {
+            threads = maximumPoolSize(this.dataSource) + maximumPoolSize(this.readDataSource);
+            if(threads <= 0) {
+                threads = DEFAULT_THREADS;
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "tasklist-db-"+count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        logger.info("Running database calls on "+threads+" threads with a queue of "+this.queueSize);
+        this.bindExecutorMetrics();
+    }
+
+    /**
+     * @return the connections the data source can hand out, 0 if that is not known
+     */
+    private static int maximumPoolSize(final DataSource dataSource) {
+        if(dataSource instanceof HikariDataSource) {
+            return ((HikariDataSource)dataSource).getMaximumPoolSize();
+        } else if(dataSource instanceof ReplicaDataSource) {
+            int size = 0;
+            for(DataSource replica: ((ReplicaDataSource)dataSource).getReplicas()) {
+                size += maximumPoolSize(replica);
+            }
+            return size;
+        }
+        return 0;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        this.executor.shutdown();
+    }
+
+    @Autowired
+    void setDatabaseManager(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    @Autowired(required = false)
+    void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Autowired(required = false)
+    void setReadDataSource(@Qualifier("readDataSource") DataSource readDataSource) {
+        this.readDataSource = readDataSource;
+    }
+
+    @Autowired(required = false)
+    void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.bindExecutorMetrics();
+    }
+
+    private void bindExecutorMetrics() {
+        if(this.meterRegistry != null && this.executor != null) {
+            new ExecutorServiceMetrics(this.executor, EXECUTOR_NAME, Collections.emptyList()).bindTo(this.meterRegistry);
+        }
+    }
+
+}
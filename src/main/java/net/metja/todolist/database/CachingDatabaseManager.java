@@ -0,0 +1,461 @@
+package net.metja.todolist.database;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import net.metja.todolist.database.bean.Repeat;
+import net.metja.todolist.database.bean.Todo;
+import net.metja.todolist.database.bean.UserAccount;
+
+/**
+ * Keeps recently used todo lists in memory in front of the database. Item writes
+ * go to the database first and the written row is then read back into the cached list, so the
+ * cache never holds values the database would not return. The cache is bounded by an estimate
+ * of the bytes the cached items take. Callers always get copies and can modify them freely.
+ * <p>
+ * The change sequence numbers of the lists are cached on their own, so an unchanged list can be
+ * recognized without reading or caching its items. A cached list knows the number its items are
+ * at and is only cached when that number is known. After a write the changes logged since that
+ * number are read from the change log and applied together, so writes read back in another order
+ * than they were committed are not lost.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+@Component
+@Primary
+public class CachingDatabaseManager implements DatabaseManager {
+
+    private static final String CACHE_NAME = "todoLists";
+    private static final String SEQ_CACHE_NAME = "todoListSeqs";
+    // reads of a list while it is being written before it is returned uncached
+    private static final int LOAD_ATTEMPTS = 3;
+    // object headers, fields, boxed dates and the map entry of one cached item
+    private static final int TODO_BYTES = 200;
+
+    @Value("${DB_TODO_CACHE_MAX_BYTES:67108864}")
+    private long maxBytes = 67108864;
+    @Value("${DB_TODO_CACHE_TTL:300}")
+    private long ttl = 300;
+    @Value("${DB_CHANGE_SEQ_CACHE_SIZE:100000}")
+    private long seqCacheSize = 100000;
+
+    private DatabaseManager delegate;
+    private Cache<Integer, CachedList> cache;
+    private Cache<Integer, Long> seqs;
+    private MeterRegistry meterRegistry;
+
+    private static Logger logger = LoggerFactory.getLogger(CachingDatabaseManager.class);
+
+    CachingDatabaseManager() {}
+
+    @Override
+    public int addList(final String username) {
+        return this.delegate.addList(username);
+    }
+
+    @Override
+    public int getUserList(final String username) {
+        return this.delegate.getUserList(username);
+    }
+
+    @Override
+    public int addTodo(final int listId, final Todo todo) {
+        int id = this.delegate.addTodo(listId, todo);
+        if(id > 0) {
+            this.refresh(listId);
+        }
+        return id;
+    }
+
+    @Override
+    public List<Integer> addTodos(final int listId, final List<Todo> todos) {
+        List<Integer> ids = this.delegate.addTodos(listId, todos);
+        if(ids != null && !ids.isEmpty()) {
+            this.cache.invalidate(listId);
+            this.seqs.invalidate(listId);
+        }
+        return ids;
+    }
+
+    @Override
+    public List<Todo> getTodos(final int listID) {
+        return this.getTodos(listID, false);
+    }
+
+    @Override
+    public List<Todo> getTodos(final int listID, final boolean rootsOnly) {
+        long seq = this.getChangeSeq(listID);
+        CachedList cached = this.cache.get(listID, this::load);
+        if(cached != null && cached.seq() < seq) {
+            // behind a write that was not read back yet
+            this.cache.asMap().remove(listID, cached);
+            cached = this.cache.get(listID, this::load);
+        }
+        if(cached == null) {
+            return this.delegate.getTodos(listID, rootsOnly);
+        }
+        List<Todo> todos = cached.copies();
+        List<Todo> roots = DatabaseManagerImpl.linkChildren(todos);
+        return rootsOnly ? roots : todos;
+    }
+
+    /**
+     * Pages are read from the database, the cached lists are only used for whole lists.
+     */
+    @Override
+    public TodoPage getTodos(final int listID, final TodoQuery query) {
+        return this.delegate.getTodos(listID, query);
+    }
+
+    /**
+     * Streams from the database, a list too large to build in memory should not be cached either.
+     */
+    @Override
+    public boolean streamTodos(final int listID, final TodoFields fields, final TodoCallback callback) throws IOException {
+        return this.delegate.streamTodos(listID, fields, callback);
+    }
+
+    @Override
+    public boolean streamNotificationCandidates(final Instant alertBefore, final NotificationCandidateCallback callback) {
+        return this.delegate.streamNotificationCandidates(alertBefore, callback);
+    }
+
+    @Override
+    public boolean markNotified(final NotificationCandidate candidate, final OffsetDateTime notifiedAt) {
+        boolean marked = this.delegate.markNotified(candidate, notifiedAt);
+        if(marked) {
+            this.refresh(candidate.getListId());
+        }
+        return marked;
+    }
+
+    /**
+     * The next notification time is not cached.
+     */
+    @Override
+    public boolean rescheduleAlert(final NotificationCandidate candidate, final Instant nextAlertAt) {
+        return this.delegate.rescheduleAlert(candidate, nextAlertAt);
+    }
+
+    /**
+     * Served from the cached list only while it is at the change sequence number of the list.
+     */
+    @Override
+    public Todo getTodo(final int listId, final int id) {
+        long seq = this.getChangeSeq(listId);
+        CachedList cached = this.cache.getIfPresent(listId);
+        if(cached != null && cached.seq() == seq) {
+            return cached.get(id);
+        }
+        return this.delegate.getTodo(listId, id);
+    }
+
+    @Override
+    public boolean updateTodo(final int listId, final Todo todo) {
+        boolean updated = this.delegate.updateTodo(listId, todo);
+        if(updated) {
+            this.refresh(listId);
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean deleteTodo(final int listId, final int todoId) {
+        boolean deleted = this.delegate.deleteTodo(listId, todoId);
+        if(deleted) {
+            this.refresh(listId);
+        }
+        return deleted;
+    }
+
+    @Override
+    public TransitionResult markTodoDone(final int listId, final int id) {
+        return this.refreshIfUpdated(listId, this.delegate.markTodoDone(listId, id));
+    }
+
+    @Override
+    public TransitionResult activateTodo(final int listId, final int id) {
+        return this.refreshIfUpdated(listId, this.delegate.activateTodo(listId, id));
+    }
+
+    @Override
+    public TransitionResult deactivateTodo(final int listId, final int id) {
+        return this.refreshIfUpdated(listId, this.delegate.deactivateTodo(listId, id));
+    }
+
+    @Override
+    public int archiveTodos(final Instant doneBefore, final int batchSize) {
+        int archived = this.delegate.archiveTodos(doneBefore, batchSize);
+        if(archived != 0) {
+            // archived items may be in any list
+            this.cache.invalidateAll();
+            this.seqs.invalidateAll();
+        }
+        return archived;
+    }
+
+    @Override
+    public TodoPage getArchivedTodos(final int listID, final ArchiveQuery query) {
+        return this.delegate.getArchivedTodos(listID, query);
+    }
+
+    @Override
+    public TodoChanges getChanges(final int listID, final long since) {
+        return this.delegate.getChanges(listID, since);
+    }
+
+    /**
+     * One lookup in the cached numbers, read from TodoLists when the list is not there. The items
+     * are not read, a list returned after this is at least at this number. A cached list at
+     * another number missed a write or the number did, so both are dropped and the number is read
+     * again before a client is told its copy is current.
+     */
+    @Override
+    public long getChangeSeq(final int listID) {
+        Long seq = this.seqs.get(listID, this::readChangeSeq);
+        // not counted in the cache statistics, the list is looked up again by the caller
+        CachedList cached = this.cache.asMap().get(listID);
+        if(seq != null && cached != null && cached.seq() != seq) {
+            this.cache.asMap().remove(listID, cached);
+            this.seqs.invalidate(listID);
+            seq = this.seqs.get(listID, this::readChangeSeq);
+        }
+        return seq != null ? seq : -1;
+    }
+
+    private Long readChangeSeq(final Integer listID) {
+        long read = this.delegate.getChangeSeq(listID);
+        return read >= 0 ? read : null;
+    }
+
+    @Override
+    public List<UserAccount> getUsers() {
+        return this.delegate.getUsers();
+    }
+
+    @Override
+    public boolean migrateDatabaseToLatestVersion() {
+        boolean success = this.delegate.migrateDatabaseToLatestVersion();
+        this.cache.invalidateAll();
+        this.seqs.invalidateAll();
+        return success;
+    }
+
+    /**
+     * The change sequence number is read before and after the items. If a write came in between,
+     * the list is read again, and after a few attempts it is not cached at all.
+     */
+    private CachedList load(final Integer listId) {
+        for(int attempt=0; attempt < LOAD_ATTEMPTS; attempt++) {
+            long seq = this.delegate.getChangeSeq(listId);
+            List<Todo> todos = seq >= 0 ? this.delegate.getTodos(listId) : null;
+            if(todos == null) {
+                return null;
+            }
+            if(seq == this.delegate.getChangeSeq(listId)) {
+                logger.debug("Caching "+todos.size()+" items of list "+listId);
+                return new CachedList(todos, seq);
+            }
+        }
+        logger.debug("List "+listId+" kept changing while it was read, not caching it");
+        return null;
+    }
+
+    /**
+     * Reads the changes logged after the number of the cached list, the write that was just made
+     * among them, and applies them to the list. The changes come from one statement, so their
+     * number matches their items. The read runs outside of the cache entry, only applying it
+     * holds the entry. A list at 0 has never been written and is read again instead, the change
+     * log leaves out deletions since 0.
+     */
+    private void refresh(final int listId) {
+        this.seqs.invalidate(listId);
+        CachedList cached = this.cache.asMap().get(listId);
+        if(cached == null) {
+            return;
+        }
+        long since = cached.seq();
+        TodoChanges changes = since > 0 ? this.delegate.getChanges(listId, since) : null;
+        if(changes == null) {
+            this.cache.invalidate(listId);
+            return;
+        }
+        this.cache.asMap().computeIfPresent(listId, (key, current) -> current.apply(changes, since) ? current : null);
+    }
+
+    private TransitionResult refreshIfUpdated(final int listId, final TransitionResult result) {
+        if(result == TransitionResult.UPDATED) {
+            this.refresh(listId);
+        }
+        return result;
+    }
+
+    private static Todo copy(final Todo todo) {
+        Todo copy = new Todo(todo.getId(), todo.getParentId(), todo.getTitle());
+        copy.setDescription(todo.getDescription());
+        copy.setDone(todo.isDone());
+        copy.setScheduled(todo.isScheduled());
+        copy.setDueDate(todo.getDueDate());
+        copy.setDueTime(todo.getDueTime());
+        copy.setDueTimezone(todo.getDueTimezone());
+        if(todo.getRepeat() != null) {
+            copy.setRepeat(new Repeat(todo.getRepeat().getTimes(), todo.getRepeat().getPeriod()));
+        }
+        copy.setLastNotification(todo.getLastNotification());
+        copy.setDoneAt(todo.getDoneAt());
+        return copy;
+    }
+
+    private static int weigh(final Todo todo) {
+        int chars = (todo.getTitle() != null ? todo.getTitle().length() : 0) + (todo.getDescription() != null ? todo.getDescription().length() : 0);
+        return TODO_BYTES + 2 * chars;
+    }
+
+    /**
+     * Caches in front of the shards when item sharding is enabled, otherwise in front of the
+     * main database.
+     */
+    @Autowired
+    void setDelegates(DatabaseManagerImpl database, Optional<ShardedDatabaseManager> sharded) {
+        this.setDelegate(sharded.isPresent() ? sharded.get() : database);
+    }
+
+    void setDelegate(DatabaseManager delegate) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(this.maxBytes)
+                .weigher((Integer listId, CachedList cached) -> cached.bytes)
+                .expireAfterWrite(this.ttl, TimeUnit.SECONDS)
+                // keep the weight current for the gauge
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+        this.seqs = Caffeine.newBuilder()
+                .maximumSize(this.seqCacheSize)
+                .expireAfterWrite(this.ttl, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.bindCacheMetrics();
+    }
+
+    @Autowired(required = false)
+    void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.bindCacheMetrics();
+    }
+
+    private void bindCacheMetrics() {
+        if(this.meterRegistry != null && this.cache != null) {
+            CaffeineCacheMetrics.monitor(this.meterRegistry, this.cache, CACHE_NAME);
+            CaffeineCacheMetrics.monitor(this.meterRegistry, this.seqs, SEQ_CACHE_NAME);
+            Gauge.builder("cache.weight", this.cache, c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L))
+                    .tag("cache", CACHE_NAME)
+                    .baseUnit("bytes")
+                    .description("Estimated memory used by the cached items")
+                    .register(this.meterRegistry);
+        }
+    }
+
+    /**
+     * The items of one list in the list order and by id. Writes change it in place while holding
+     * its cache entry, readers copy the items out while holding the list itself.
+     */
+    private static final class CachedList {
+
+        private final Map<Integer, Todo> items = new HashMap<>();
+        private final NavigableSet<Todo> ordered = new TreeSet<>(TodoQuery.LIST_ORDER);
+        private long seq;
+        private volatile int bytes;
+
+        private CachedList(List<Todo> todos, long seq) {
+            int bytes = 0;
+            for(Todo todo: todos) {
+                Todo cached = copy(todo);
+                this.items.put(cached.getId(), cached);
+                this.ordered.add(cached);
+                bytes += weigh(cached);
+            }
+            this.seq = seq;
+            this.bytes = bytes;
+        }
+
+        private synchronized long seq() {
+            return this.seq;
+        }
+
+        private synchronized Todo get(final int id) {
+            Todo todo = this.items.get(id);
+            return todo != null ? copy(todo) : null;
+        }
+
+        private synchronized List<Todo> copies() {
+            List<Todo> todos = new ArrayList<>(this.ordered.size());
+            for(Todo todo: this.ordered) {
+                todos.add(copy(todo));
+            }
+            return todos;
+        }
+
+        /**
+         * Puts the changed items in their places in the list order, an updated item may move, and
+         * removes the deleted ones. Changes the list already has are applied again with the same
+         * values.
+         *
+         * @param since change sequence number the changes were read after
+         * @return false if the list is behind the changes, it missed a write before them, or
+         * the changes are a reset
+         */
+        private synchronized boolean apply(final TodoChanges changes, final long since) {
+            if(changes.getSeq() <= this.seq) {
+                // loaded after the writes, already has them
+                return true;
+            }
+            if(since > this.seq || changes.isReset()) {
+                return false;
+            }
+            for(Integer id: changes.getDeleted()) {
+                this.remove(id);
+            }
+            for(Todo todo: changes.getItems()) {
+                this.remove(todo.getId());
+                Todo added = copy(todo);
+                this.items.put(added.getId(), added);
+                this.ordered.add(added);
+                this.bytes += weigh(added);
+            }
+            this.seq = changes.getSeq();
+            return true;
+        }
+
+        private void remove(final int id) {
+            Todo old = this.items.remove(id);
+            if(old != null) {
+                this.ordered.remove(old);
+                this.bytes -= weigh(old);
+            }
+        }
+    }
+
+}
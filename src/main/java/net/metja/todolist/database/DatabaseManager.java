@@ -3,6 +3,9 @@ package net.metja.todolist.database;
 import net.metja.todolist.database.bean.Todo;
 import net.metja.todolist.database.bean.UserAccount;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
 import java.util.List;
 
 /**
@@ -15,10 +18,24 @@ public interface DatabaseManager {
     int getUserList(String username);
 
     int addTodo(int listId, Todo todo);
+    List<Integer> addTodos(int listId, List<Todo> todos);
     List<Todo> getTodos(int listID);
+    List<Todo> getTodos(int listID, boolean rootsOnly);
+    TodoPage getTodos(int listID, TodoQuery query);
+    boolean streamTodos(int listID, TodoFields fields, TodoCallback callback) throws IOException;
+    boolean streamNotificationCandidates(Instant alertBefore, NotificationCandidateCallback callback);
+    boolean markNotified(NotificationCandidate candidate, OffsetDateTime notifiedAt);
+    boolean rescheduleAlert(NotificationCandidate candidate, Instant nextAlertAt);
     Todo getTodo(int listId, int id);
     boolean updateTodo(int listId, Todo todo);
     boolean deleteTodo(int listId, int todoId);
+    TransitionResult markTodoDone(int listId, int id);
+    TransitionResult activateTodo(int listId, int id);
+    TransitionResult deactivateTodo(int listId, int id);
+    int archiveTodos(Instant doneBefore, int batchSize);
+    TodoPage getArchivedTodos(int listID, ArchiveQuery query);
+    TodoChanges getChanges(int listID, long since);
+    long getChangeSeq(int listID);
 
     List<UserAccount> getUsers();
 
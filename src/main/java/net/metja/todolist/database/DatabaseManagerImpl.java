@@ -1,22 +1,45 @@
 package net.metja.todolist.database;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Types;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.OffsetDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.sql.DataSource;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import net.metja.todolist.database.bean.Repeat;
 import net.metja.todolist.database.bean.Todo;
@@ -31,13 +54,69 @@ public class DatabaseManagerImpl implements DatabaseManager {
 
     static final String CREATE_SCHEMA_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS Settings ( Version INTEGER )";
     static final String CREATE_PERSISTENT_LOGINS_TABLE = "CREATE TABLE IF NOT EXISTS persistent_logins (username varchar(64) not null, series varchar(64) primary key, token varchar(64) not null, last_used timestamp not null)";
-    static final String CREATE_TODO_LISTS_TABLE = "CREATE TABLE IF NOT EXISTS TodoLists (ID INTEGER, UserID INTEGER, FOREIGN KEY (UserID) REFERENCES UserAccounts(ID), PRIMARY KEY(ID))";
-    static final String CREATE_TODO_ITEMS_TABLE = "CREATE TABLE IF NOT EXISTS TodoItems (ID INTEGER, ListID INTEGER, ParentID INTEGER, Title TEXT, Description TEXT, Done BOOLEAN, Scheduled BOOLEAN, DueDate TEXT, DueTime TEXT, DueTimezone TEXT, Repeating TEXT, LastNotification TEXT, FOREIGN KEY (ListID) REFERENCES TodoLists(ID), PRIMARY KEY (ID, ListID))";
+    static final String CREATE_TODO_LISTS_TABLE = "CREATE TABLE IF NOT EXISTS TodoLists (ID INTEGER, UserID INTEGER, LastItemID INTEGER DEFAULT 0, ChangeSeq INTEGER DEFAULT 0, PrunedSeq INTEGER DEFAULT 0, FOREIGN KEY (UserID) REFERENCES UserAccounts(ID), PRIMARY KEY(ID))";
+    static final String CREATE_TODO_ITEMS_TABLE = "CREATE TABLE IF NOT EXISTS TodoItems (ID INTEGER, ListID INTEGER, ParentID INTEGER, Title TEXT, Description TEXT, Done BOOLEAN, Scheduled BOOLEAN, DueDay INTEGER, DueSecond INTEGER, DueOffset INTEGER, RepeatCode INTEGER, LastNotifiedAt BIGINT, DoneAt BIGINT, NextAlertAt BIGINT, FOREIGN KEY (ListID) REFERENCES TodoLists(ID), PRIMARY KEY (ID, ListID))";
+    static final String CREATE_ARCHIVED_TODO_ITEMS_TABLE = "CREATE TABLE IF NOT EXISTS ArchivedTodoItems (ID INTEGER, ListID INTEGER, ParentID INTEGER, Title TEXT, Description TEXT, Done BOOLEAN, Scheduled BOOLEAN, DueDay INTEGER, DueSecond INTEGER, DueOffset INTEGER, RepeatCode INTEGER, LastNotifiedAt BIGINT, DoneAt BIGINT, PRIMARY KEY (ID, ListID))";
     static final String CREATE_USER_ACCOUNTS_TABLE = "CREATE TABLE IF NOT EXISTS UserAccounts (ID INTEGER PRIMARY KEY, Username VARCHAR(64), Password VARCHAR(120), Roles TEXT, Email TEXT)";
+    static final String CREATE_USER_ACCOUNTS_USERNAME_INDEX = "CREATE INDEX IF NOT EXISTS UserAccountsUsernameIdx ON UserAccounts (Username, ID)";
+    static final String CREATE_TODO_LISTS_USER_INDEX = "CREATE INDEX IF NOT EXISTS TodoListsUserIdx ON TodoLists (UserID, ID)";
+    static final String CREATE_TODO_ITEMS_LIST_INDEX = "CREATE INDEX IF NOT EXISTS TodoItemsListIdx ON TodoItems (ListID, ID)";
+    static final String CREATE_TODO_ITEMS_NEXT_ALERT_INDEX = "CREATE INDEX IF NOT EXISTS TodoItemsNextAlertIdx ON TodoItems (NextAlertAt) WHERE Done = FALSE";
+    static final String CREATE_SHARD_ALERTS_TABLE = "CREATE TABLE IF NOT EXISTS ShardAlerts (Shard TEXT PRIMARY KEY, NextAlertAt BIGINT)";
+    // one row per item that holds the sequence number of its latest change, a row without an item is a tombstone
+    static final String CREATE_TODO_ITEM_CHANGES_TABLE = "CREATE TABLE IF NOT EXISTS TodoItemChanges (ListID INTEGER, ItemID INTEGER, Seq INTEGER, PRIMARY KEY (ListID, ItemID))";
+    static final String CREATE_TODO_ITEM_CHANGES_SEQ_INDEX = "CREATE INDEX IF NOT EXISTS TodoItemChangesSeqIdx ON TodoItemChanges (ListID, Seq)";
+    static final String CREATE_TODO_ITEMS_DONE_AT_INDEX = "CREATE INDEX IF NOT EXISTS TodoItemsDoneAtIdx ON TodoItems (DoneAt) WHERE Done = TRUE";
+    static final String CREATE_ARCHIVED_TODO_ITEMS_LIST_INDEX = "CREATE INDEX IF NOT EXISTS ArchivedTodoItemsListIdx ON ArchivedTodoItems (ListID, DoneAt, ID)";
+    static final String DUE_DAY_KEY = "COALESCE(DueDay, "+TodoQuery.NO_DUE_DAY+")";
+    static final String DUE_SECOND_KEY = "COALESCE(DueSecond, "+TodoQuery.NO_DUE_SECOND+")";
+    static final String CREATE_TODO_ITEMS_LIST_DUE_INDEX = "CREATE INDEX IF NOT EXISTS TodoItemsListDueIdx ON TodoItems (ListID, ("+DUE_DAY_KEY+"), ("+DUE_SECOND_KEY+"), ID)";
+    // read straight off the list due index, see TodoQuery.LIST_ORDER
+    static final String LIST_ORDER = " ORDER BY "+DUE_DAY_KEY+", "+DUE_SECOND_KEY+", ID";
+    private static final String NEXT_CHANGE_SEQ = "UPDATE TodoLists SET ChangeSeq=COALESCE(ChangeSeq, 0)+1 WHERE ID=? RETURNING ChangeSeq";
+    private static final String UPSERT_CHANGE = "INSERT INTO TodoItemChanges (ListID, ItemID, Seq) VALUES (?, ?, ?) ON CONFLICT (ListID, ItemID) DO UPDATE SET Seq=excluded.Seq";
+    private static final String INSERT_TODO_ITEM = "INSERT INTO TodoItems (ID, ListID, ParentID, Title, Description, Done, Scheduled, DueDay, DueSecond, DueOffset, RepeatCode, LastNotifiedAt, DoneAt, NextAlertAt) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    // mapTodoItem reads these by index
+    private static final String TODO_ITEM_COLUMNS = TodoFields.ALL.columns();
+    // the same columns of TodoItems joined as t
+    private static final String JOINED_TODO_ITEM_COLUMNS = "t.ID, t.ParentID, t.Title, t.Description, t.Done, t.Scheduled, t.DueDay, t.DueSecond, t.DueOffset, t.RepeatCode, t.LastNotifiedAt, t.DoneAt";
+    // NextAlertAt=? WHERE ID=? AND ListID=?, typed so a NULL first value does not ask sqlite-jdbc for the parameter type
+    private static final int[] NEXT_ALERT_TYPES = { Types.BIGINT, Types.INTEGER, Types.INTEGER };
+    private static final int ADD_LIST_ATTEMPTS = 5;
     private static final int SCHEMA_VERSION_MIN = 1;
-    private static final int SCHEMA_VERSION_MAX = 2;
+    private static final int SCHEMA_VERSION_MAX = 11;
+
+    @Value("${DB_ID_BLOCK_SIZE:20}")
+    private int idBlockSize = 20;
+    @Value("${DB_USER_LIST_CACHE_SIZE:10000}")
+    private long userListCacheSize = 10000;
+    @Value("${DB_USER_LIST_CACHE_TTL:600}")
+    private long userListCacheTtl = 600;
+    @Value("${DB_STREAM_FETCH_SIZE:500}")
+    private int streamFetchSize = 500;
+    @Value("${DB_STREAM_CHUNK_SIZE:500}")
+    private int streamChunkSize = 500;
+    @Value("${DB_CHANGE_LOG_RETAIN:1000}")
+    private long changeLogRetain = 1000;
+    @Value("${DB_READ_REPLICA_PIN:5000}")
+    private long readReplicaPin = 5000;
+    @Value("${DB_GROUP_COMMIT:false}")
+    private boolean groupCommit = false;
+    @Value("${DB_GROUP_COMMIT_MAX_BATCH:64}")
+    private int groupCommitMaxBatch = 64;
+    @Value("${DB_GROUP_COMMIT_MAX_DELAY:2}")
+    private long groupCommitMaxDelay = 2;
 
     private JdbcTemplate jdbcTemplate;
+    private JdbcTemplate readJdbcTemplate;
+    private TodoItemIdAllocator idAllocator;
+    private TransactionTemplate transactionTemplate;
+    private TransactionTemplate readOnlyTransactionTemplate;
+    private TransactionTemplate readerTransactionTemplate;
+    private GroupCommitWriter groupCommitWriter;
+    private Cache<String, Integer> userListCache;
+    private Cache<Integer, Boolean> pinnedLists;
+    private MeterRegistry meterRegistry;
 
     private static Logger logger = LoggerFactory.getLogger(DatabaseManagerImpl.class);
 
@@ -45,64 +124,365 @@ public class DatabaseManagerImpl implements DatabaseManager {
 
     @Override
     public int addTodo(final int listID, final Todo todo) {
-        int id = this.getNextTodoItemID(listID);
-
-        final String SELECT = "SELECT ID FROM TodoLists WHERE ID=?";
-        final String INSERT = "INSERT INTO TodoItems (ID, ListID, ParentID, Title, Description, Done, Scheduled, DueDate, DueTime, DueTimezone, Repeating, LastNotification) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        String repeatString = "No";
-        if(todo.getRepeat()!=null) {
-            repeatString = todo.getRepeat().toString();
-        }
+        this.pin(listID);
         try {
-            String dueTimezone = null;
-            if(todo.getDueTimezone() != null) {
-                dueTimezone = todo.getDueTimezone().toString();
+            int id = this.idAllocator.next(listID);
+            if(id < 0) {
+                logger.warn("Unable to add list item "+todo.getTitle()+" to unknown list "+listID);
+                return -1;
             }
-            this.jdbcTemplate.queryForObject(SELECT, Integer.class, listID);
-            this.jdbcTemplate.update(INSERT, id, listID, todo.getParentId(), todo.getTitle(), todo.getDescription(),
-                    todo.isDone(), todo.isScheduled(), todo.getDueDate(), todo.getDueTime(), dueTimezone,
-                    repeatString, todo.getLastNotification());
+            final Object[] values = this.todoItemValues(id, listID, todo);
+            this.write(jdbc -> {
+                jdbc.update(INSERT_TODO_ITEM, values);
+                this.logChanges(jdbc, listID, Collections.singletonList(id));
+                return null;
+            });
             return id;
         } catch(org.springframework.dao.DataAccessException e) {
             logger.warn("Unable to add list item "+todo.getTitle()+" to list "+listID, e);
+            this.idAllocator.release(listID);
             return -1;
         }
     }
 
     @Override
-    public List<Todo> getTodos(final int listID) {
-        final String SELECT = "SELECT * FROM TodoItems WHERE ListID=?";
+    public List<Integer> addTodos(final int listID, final List<Todo> todos) {
+        List<Integer> ids = new ArrayList<>(todos.size());
+        if(todos.isEmpty()) {
+            return ids;
+        }
+        this.pin(listID);
         try {
-            List<Todo> todos = this.jdbcTemplate.query(SELECT, this::mapTodoItem, listID);
+            int id = this.idAllocator.allocate(listID, todos.size());
+            if(id < 0) {
+                logger.warn("Unable to add "+todos.size()+" list items to unknown list "+listID);
+                return null;
+            }
+            final List<Object[]> batchArgs = new ArrayList<>(todos.size());
             for(Todo todo: todos) {
-                if(todo.getParentId() > 0) {
-                    for(Todo parent: todos) {
-                        if(parent.getId() == todo.getParentId()) {
-                            if(parent.getChildren() == null) {
-                                parent.setChildren(new LinkedList<>());
-                            }
-                            parent.getChildren().add(todo);
-                            break;
-                        }
-                    }
-                }
+                ids.add(id);
+                batchArgs.add(this.todoItemValues(id, listID, todo));
+                id++;
             }
-            return todos;
+            this.transactionTemplate.executeWithoutResult(status -> {
+                this.jdbcTemplate.batchUpdate(INSERT_TODO_ITEM, batchArgs);
+                this.logChanges(this.jdbcTemplate, listID, ids);
+            });
+            return ids;
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to add "+todos.size()+" list items to list "+listID, e);
+            this.idAllocator.release(listID);
+            return null;
+        }
+    }
+
+    private Object[] todoItemValues(final int id, final int listID, final Todo todo) {
+        return new Object[] { id, listID, todo.getParentId(), todo.getTitle(), todo.getDescription(),
+                todo.isDone(), todo.isScheduled(), dueDay(todo), dueSecond(todo), dueOffset(todo),
+                repeatCode(todo), lastNotifiedAt(todo), todo.isDone() ? System.currentTimeMillis() : null, AlertSchedule.nextAlertAt(todo) };
+    }
+
+    private static Long dueDay(final Todo todo) {
+        return todo.getDueDate() != null ? todo.getDueDate().toEpochDay() : null;
+    }
+
+    private static Integer dueSecond(final Todo todo) {
+        return todo.getDueTime() != null ? todo.getDueTime().toSecondOfDay() : null;
+    }
+
+    private static Integer dueOffset(final Todo todo) {
+        return todo.getDueTimezone() != null ? todo.getDueTimezone().getTotalSeconds() : null;
+    }
+
+    /**
+     * An item without a repeat is stored as not repeating, so it reads back the same whichever
+     * way it was written.
+     */
+    private static int repeatCode(final Todo todo) {
+        return todo.getRepeat() != null ? todo.getRepeat().toCode() : new Repeat(0, Repeat.TimePeriod.None).toCode();
+    }
+
+    private static Long lastNotifiedAt(final Todo todo) {
+        return todo.getLastNotification() != null ? todo.getLastNotification().toInstant().toEpochMilli() : null;
+    }
+
+    @Override
+    public List<Todo> getTodos(final int listID) {
+        return this.getTodos(listID, false);
+    }
+
+    /**
+     * Items come in the order of the list due index, by due date, due time and id, and children
+     * keep that order under their parents. Callers do not need to sort them again.
+     */
+    @Override
+    public List<Todo> getTodos(final int listID, final boolean rootsOnly) {
+        final String SELECT = "SELECT "+TODO_ITEM_COLUMNS+" FROM TodoItems WHERE ListID=?"+LIST_ORDER;
+        try {
+            List<Todo> todos = this.reader(listID).query(SELECT, this::mapTodoItem, listID);
+            List<Todo> roots = linkChildren(todos);
+            return rootsOnly ? roots : todos;
         } catch(org.springframework.dao.DataAccessException e) {
             logger.debug("Unable to fetch any todos for list "+listID);
             return null;
         }
     }
 
+    /**
+     * Hands the items to the callback in due date order, reading them in chunks of at most
+     * {@code DB_STREAM_CHUNK_SIZE} items, so only one chunk is in memory at a time. Each chunk is
+     * a keyset page of {@link #getTodos(int, TodoQuery)} read on its own, the callback runs with
+     * no connection held and a slow client does not keep one from other requests. Items are not
+     * linked to their children. Columns of the properties not in the fields are not read. An item
+     * whose due date is changed while the list is streamed can be left out or handed over twice.
+     *
+     * @return false if reading the items failed
+     * @throws IOException if the callback failed
+     */
     @Override
-    public boolean updateTodo(final int listId, final Todo todo) {
-        final String SELECT = "SELECT * FROM TodoItems WHERE ListID=? AND ID=?";
+    public boolean streamTodos(final int listID, final TodoFields fields, final TodoCallback callback) throws IOException {
+        TodoQuery query = new TodoQuery();
+        query.setFields(fields);
+        query.setLimit(this.streamChunkSize);
+        do {
+            TodoPage chunk = this.getTodos(listID, query);
+            if(chunk == null) {
+                logger.warn("Unable to stream todos of list "+listID);
+                return false;
+            }
+            for(Todo todo: chunk.getItems()) {
+                callback.process(todo);
+            }
+            query.setCursor(chunk.getNextCursor());
+        } while(query.hasCursor());
+        return true;
+    }
+
+    /**
+     * Open items of all lists whose next notification is due at the given instant, with the owner
+     * of the list. The next notification is stored with every write of an item, see
+     * {@link AlertSchedule}, so the items are a range of the next alert index and the cost of the
+     * scan follows the number of alerts and not the size of the lists. Items of lists without an
+     * owner in this database come with a null user.
+     *
+     * @return false if reading the items failed
+     */
+    @Override
+    public boolean streamNotificationCandidates(final Instant alertBefore, final NotificationCandidateCallback callback) {
+        final String SELECT = "SELECT "+JOINED_TODO_ITEM_COLUMNS+", t.ListID, u.ID, u.Username, u.Email, t.NextAlertAt"
+                +" FROM TodoItems t JOIN TodoLists l ON l.ID=t.ListID LEFT JOIN UserAccounts u ON u.ID=l.UserID"
+                +" WHERE t.NextAlertAt <= ? AND t.Done = FALSE";
         try {
-            if(this.jdbcTemplate.queryForObject(SELECT, this::mapTodoItem, listId, todo.getId()) != null) {
-                final String UPDATE = "UPDATE TodoItems SET ParentID=?, DueDate=?, DueTime=?, Title=?, Description=?, Done=?, DueTimezone=?, Scheduled=?, Repeating=?, LastNotification=? WHERE ID=? AND ListID=?";
-                this.jdbcTemplate.update(UPDATE, todo.getParentId(), todo.getDueDate(), todo.getDueTime(), todo.getTitle(), todo.getDescription(), todo.isDone(), todo.getDueTimezone(), todo.isScheduled(), todo.getRepeat(), todo.getLastNotification(), todo.getId(), listId);
-                return true;
+            this.stream(this.reader(), reader -> reader.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(SELECT);
+                statement.setFetchSize(this.streamFetchSize);
+                statement.setLong(1, alertBefore.toEpochMilli());
+                return statement;
+            }, (RowCallbackHandler) rs -> {
+                Todo todo = this.mapTodoItem(rs, 0);
+                int userId = rs.getInt(14);
+                UserAccount user = rs.wasNull() ? null : new UserAccount(userId, rs.getString(15), null, Collections.emptyList(), rs.getString(16));
+                callback.process(new NotificationCandidate(user, rs.getInt(13), todo, Instant.ofEpochMilli(rs.getLong(17))));
+            }));
+            return true;
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to read the items to notify about", e);
+            return false;
+        }
+    }
+
+    /**
+     * Sets the notification time of the item and moves its next notification forward, only if the
+     * item is still open and still has the next notification time it was read with. Nothing else
+     * of the item is written, so edits made since the scan are kept.
+     *
+     * @return false if the item was changed, done or deleted since it was read, or the update failed
+     */
+    @Override
+    public boolean markNotified(final NotificationCandidate candidate, final OffsetDateTime notifiedAt) {
+        final String UPDATE = "UPDATE TodoItems SET LastNotifiedAt=?, NextAlertAt=? WHERE ListID=? AND ID=? AND NextAlertAt=? AND Done=FALSE";
+        final int listId = candidate.getListId();
+        final Todo todo = candidate.getTodo();
+        todo.setLastNotification(notifiedAt);
+        this.pin(listId);
+        try {
+            return this.write(jdbc -> {
+                if(jdbc.update(UPDATE, lastNotifiedAt(todo), AlertSchedule.nextAlertAt(todo), listId, todo.getId(), candidate.getAlertAt().toEpochMilli()) == 1) {
+                    this.logChanges(jdbc, listId, Collections.singletonList(todo.getId()));
+                    return true;
+                }
+                return false;
+            });
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Marking todo "+todo.getId()+" in list "+listId+" notified failed.", e);
+        }
+        return false;
+    }
+
+    /**
+     * Moves the next notification of an item that was not due for any alert when it was scanned,
+     * only if it is still open and still has the next notification time it was read with. The
+     * time is not part of the item that clients see, so no change is logged.
+     *
+     * @param nextAlertAt the next notification, null to not scan the item until it is written
+     * @return false if the item was changed, done or deleted since it was read, or the update failed
+     */
+    @Override
+    public boolean rescheduleAlert(final NotificationCandidate candidate, final Instant nextAlertAt) {
+        final String UPDATE = "UPDATE TodoItems SET NextAlertAt=? WHERE ListID=? AND ID=? AND NextAlertAt=? AND Done=FALSE";
+        final int listId = candidate.getListId();
+        final int id = candidate.getTodo().getId();
+        try {
+            return this.write(jdbc -> jdbc.update(UPDATE, new Object[] { nextAlertAt != null ? nextAlertAt.toEpochMilli() : null,
+                    listId, id, candidate.getAlertAt().toEpochMilli() }, new int[] { Types.BIGINT, Types.INTEGER, Types.INTEGER, Types.BIGINT }) == 1);
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Rescheduling the notification of todo "+id+" in list "+listId+" failed.", e);
+        }
+        return false;
+    }
+
+    /**
+     * @return the earliest next notification of the open items, null if there is none
+     */
+    Long getNextAlertAt() {
+        final String SELECT = "SELECT NextAlertAt FROM TodoItems WHERE Done = FALSE AND NextAlertAt IS NOT NULL ORDER BY NextAlertAt LIMIT 1";
+        List<Long> next = this.reader().queryForList(SELECT, Long.class);
+        return next.isEmpty() ? null : next.get(0);
+    }
+
+    /**
+     * @return true if there are items or archived items in this database
+     */
+    boolean hasItems() {
+        final String SELECT = "SELECT EXISTS (SELECT 1 FROM TodoItems) OR EXISTS (SELECT 1 FROM ArchivedTodoItems)";
+        return this.reader().queryForObject(SELECT, Boolean.class);
+    }
+
+    /**
+     * Adds the table of the earliest next notification of each shard file, it is only used in the
+     * main database of sharded items.
+     */
+    void createShardAlertsTable() {
+        this.jdbcTemplate.execute(CREATE_SHARD_ALERTS_TABLE);
+    }
+
+    /**
+     * @return the earliest next notification of each known shard file by name, Long.MAX_VALUE for a
+     * shard without scheduled open items
+     */
+    Map<String, Long> getShardAlerts() {
+        final String SELECT = "SELECT Shard, NextAlertAt FROM ShardAlerts";
+        Map<String, Long> alerts = new HashMap<>();
+        this.reader().query(SELECT, (RowCallbackHandler) rs -> {
+            Object next = rs.getObject(2);
+            alerts.put(rs.getString(1), next != null ? ((Number)next).longValue() : Long.MAX_VALUE);
+        });
+        return alerts;
+    }
+
+    void setShardAlert(final String shard, final Long nextAlertAt) {
+        final String UPSERT = "INSERT INTO ShardAlerts (Shard, NextAlertAt) VALUES (?, ?) ON CONFLICT (Shard) DO UPDATE SET NextAlertAt=excluded.NextAlertAt";
+        this.jdbcTemplate.update(UPSERT, shard, nextAlertAt);
+    }
+
+    /**
+     * Owners of all lists by list id, for the items in shard files that have no users.
+     */
+    Map<Integer, UserAccount> getListOwners() {
+        final String SELECT = "SELECT l.ID, u.ID, u.Username, u.Email FROM TodoLists l JOIN UserAccounts u ON u.ID=l.UserID";
+        Map<Integer, UserAccount> owners = new HashMap<>();
+        this.reader().query(SELECT, (RowCallbackHandler) rs -> owners.put(rs.getInt(1),
+                new UserAccount(rs.getInt(2), rs.getString(3), null, Collections.emptyList(), rs.getString(4))));
+        return owners;
+    }
+
+    /**
+     * Runs the filter, the ordering and the page limit in the database on the list due index. One
+     * row more than the limit is read to tell whether there is a next page.
+     */
+    @Override
+    public TodoPage getTodos(final int listID, final TodoQuery query) {
+        StringBuilder select = new StringBuilder("SELECT "+query.getFields().columns()+" FROM TodoItems WHERE ListID=?");
+        List<Object> args = new ArrayList<>();
+        args.add(listID);
+        if(query.getDone() != null) {
+            select.append(query.getDone() ? " AND Done=TRUE" : " AND COALESCE(Done, FALSE)=FALSE");
+        }
+        if(query.getScheduled() != null) {
+            select.append(query.getScheduled() ? " AND Scheduled=TRUE" : " AND COALESCE(Scheduled, FALSE)=FALSE");
+        }
+        if(query.getDueFrom() != null) {
+            select.append(" AND DueDay>=?");
+            args.add(query.getDueFrom().toEpochDay());
+        }
+        if(query.getDueTo() != null) {
+            select.append(" AND DueDay<=?");
+            args.add(query.getDueTo().toEpochDay());
+        }
+        if(query.getParentId() != null) {
+            select.append(" AND ParentID=?");
+            args.add(query.getParentId());
+        }
+        if(query.hasCursor()) {
+            select.append(" AND ("+DUE_DAY_KEY+", "+DUE_SECOND_KEY+", ID) > (?, ?, ?)");
+            args.add(query.getAfterDueDay());
+            args.add(query.getAfterDueSecond());
+            args.add(query.getAfterId());
+        }
+        select.append(LIST_ORDER+" LIMIT ?");
+        args.add(query.getLimit() + 1);
+        try {
+            List<Todo> todos = this.reader(listID).query(select.toString(), this::mapTodoItem, args.toArray());
+            String nextCursor = null;
+            if(todos.size() > query.getLimit()) {
+                todos = new ArrayList<>(todos.subList(0, query.getLimit()));
+                nextCursor = TodoQuery.cursorAfter(todos.get(todos.size() - 1));
+            }
+            return new TodoPage(todos, nextCursor);
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.debug("Unable to fetch todos for list "+listID, e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds every item to the children of its parent in one pass over an id index.
+     *
+     * @return items without a parent in the list, in the original order
+     */
+    static List<Todo> linkChildren(final List<Todo> todos) {
+        Map<Integer, Todo> byId = new HashMap<>(todos.size() * 4 / 3 + 1);
+        for(Todo todo: todos) {
+            byId.put(todo.getId(), todo);
+        }
+        List<Todo> roots = new ArrayList<>();
+        for(Todo todo: todos) {
+            Todo parent = todo.getParentId() > 0 ? byId.get(todo.getParentId()) : null;
+            if(parent != null) {
+                if(parent.getChildren() == null) {
+                    parent.setChildren(new LinkedList<>());
+                }
+                parent.getChildren().add(todo);
+            } else {
+                roots.add(todo);
             }
+        }
+        return roots;
+    }
+
+    @Override
+    public boolean updateTodo(final int listId, final Todo todo) {
+        // an item that stays done keeps its original completion time
+        final String UPDATE = "UPDATE TodoItems SET ParentID=?, DueDay=?, DueSecond=?, Title=?, Description=?, Done=?, DueOffset=?, Scheduled=?, RepeatCode=?, LastNotifiedAt=?, DoneAt=CASE WHEN ? THEN COALESCE(DoneAt, ?) ELSE NULL END, NextAlertAt=? WHERE ID=? AND ListID=?";
+        this.pin(listId);
+        try {
+            return this.write(jdbc -> {
+                if(jdbc.update(UPDATE, todo.getParentId(), dueDay(todo), dueSecond(todo), todo.getTitle(), todo.getDescription(), todo.isDone(), dueOffset(todo), todo.isScheduled(), repeatCode(todo), lastNotifiedAt(todo), todo.isDone(), System.currentTimeMillis(), AlertSchedule.nextAlertAt(todo), todo.getId(), listId) == 1) {
+                    this.logChanges(jdbc, listId, Collections.singletonList(todo.getId()));
+                    return true;
+                }
+                return false;
+            });
         } catch(org.springframework.dao.DataAccessException e) {
             logger.debug("Updating todo "+todo.getId()+" in list "+listId+" failed.", e);
         }
@@ -113,21 +493,108 @@ public class DatabaseManagerImpl implements DatabaseManager {
     public boolean deleteTodo(final int listId, final int todoId) {
         final String SELECT = "SELECT ID FROM TodoItems WHERE ID=? AND ListID=?";
         final String DELETE = "DELETE FROM TodoItems WHERE ListID=? AND ID=?";
+        this.pin(listId);
         try {
-            this.jdbcTemplate.queryForObject(SELECT, Integer.class, todoId, listId);
-            this.jdbcTemplate.update(DELETE, listId, todoId);
-            return true;
+            return this.write(jdbc -> {
+                jdbc.queryForObject(SELECT, Integer.class, todoId, listId);
+                jdbc.update(DELETE, listId, todoId);
+                this.logChanges(jdbc, listId, Collections.singletonList(todoId));
+                return true;
+            });
         } catch(org.springframework.dao.DataAccessException e) {
             logger.debug("Unable to delete todo "+todoId+" for list "+listId+".", e);
             return false;
         }
     }
 
+    /**
+     * Marks an open item done. Repeating items are not marked done, their due date moves to the
+     * next repeat instead. That needs the current due date, so it is read first and the update only
+     * applies if the item has not changed in between.
+     */
+    @Override
+    public TransitionResult markTodoDone(final int listId, final int id) {
+        final String UPDATE = "UPDATE TodoItems SET Done=TRUE, DoneAt=? WHERE ID=? AND ListID=? AND COALESCE(Done, FALSE)=FALSE AND COALESCE(RepeatCode, 0) & 7 = 0";
+        final String SELECT = "SELECT "+TODO_ITEM_COLUMNS+" FROM TodoItems WHERE ID=? AND ListID=?";
+        final String ADVANCE = "UPDATE TodoItems SET DueDay=?, NextAlertAt=? WHERE ID=? AND ListID=? AND COALESCE(Done, FALSE)=FALSE AND RepeatCode=? AND DueDay=?";
+        this.pin(listId);
+        try {
+            return this.write(jdbc -> {
+                if(jdbc.update(UPDATE, System.currentTimeMillis(), id, listId) == 1) {
+                    this.logChanges(jdbc, listId, Collections.singletonList(id));
+                    return TransitionResult.UPDATED;
+                }
+                Todo todo = jdbc.query(SELECT, rs -> rs.next() ? this.mapTodoItem(rs, 0) : null, id, listId);
+                if(todo == null) {
+                    return TransitionResult.NOT_FOUND;
+                }
+                if(todo.isDone() || todo.getRepeat() == null || todo.getRepeat().getPeriod() == Repeat.TimePeriod.None || todo.getDueDate() == null) {
+                    return TransitionResult.WRONG_STATE;
+                }
+                LocalDate dueDate = todo.getDueDate();
+                todo.setDueDate(todo.getRepeat().advance(dueDate));
+                if(jdbc.update(ADVANCE, dueDay(todo), AlertSchedule.nextAlertAt(todo), id, listId, todo.getRepeat().toCode(), dueDate.toEpochDay()) != 1) {
+                    return TransitionResult.WRONG_STATE;
+                }
+                this.logChanges(jdbc, listId, Collections.singletonList(id));
+                return TransitionResult.UPDATED;
+            });
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to mark todo "+id+" in list "+listId+" done.", e);
+            return TransitionResult.FAILED;
+        }
+    }
+
+    /**
+     * Reopens a done item. Its next notification is computed again, the item may have been done
+     * while NextAlertAt was never set for it.
+     */
+    @Override
+    public TransitionResult activateTodo(final int listId, final int id) {
+        final String UPDATE = "UPDATE TodoItems SET Done=FALSE, DoneAt=NULL WHERE ID=? AND ListID=? AND Done=TRUE";
+        final String SELECT = "SELECT "+TODO_ITEM_COLUMNS+" FROM TodoItems WHERE ID=? AND ListID=?";
+        final String UPDATE_NEXT_ALERT = "UPDATE TodoItems SET NextAlertAt=? WHERE ID=? AND ListID=?";
+        return this.transition(UPDATE, "activate", listId, id, jdbc -> {
+            Todo todo = jdbc.queryForObject(SELECT, this::mapTodoItem, id, listId);
+            jdbc.update(UPDATE_NEXT_ALERT, new Object[] { AlertSchedule.nextAlertAt(todo), id, listId }, NEXT_ALERT_TYPES);
+        }, id, listId);
+    }
+
+    @Override
+    public TransitionResult deactivateTodo(final int listId, final int id) {
+        final String UPDATE = "UPDATE TodoItems SET Done=TRUE, DoneAt=? WHERE ID=? AND ListID=? AND COALESCE(Done, FALSE)=FALSE AND Scheduled=TRUE AND COALESCE(RepeatCode, 0) & 7 != 0";
+        return this.transition(UPDATE, "deactivate", listId, id, jdbc -> {}, System.currentTimeMillis(), id, listId);
+    }
+
+    /**
+     * Runs an UPDATE guarded by the expected state, and the follow-up in the same transaction when
+     * it applied. Only when it changes nothing a second query tells a missing item apart from one
+     * in the wrong state.
+     */
+    private TransitionResult transition(final String update, final String name, final int listId, final int id, final Consumer<JdbcTemplate> updated, final Object... args) {
+        final String SELECT = "SELECT COUNT(*) FROM TodoItems WHERE ID=? AND ListID=?";
+        this.pin(listId);
+        try {
+            return this.write(jdbc -> {
+                if(jdbc.update(update, args) == 1) {
+                    updated.accept(jdbc);
+                    this.logChanges(jdbc, listId, Collections.singletonList(id));
+                    return TransitionResult.UPDATED;
+                }
+                int rows = jdbc.queryForObject(SELECT, Integer.class, id, listId);
+                return rows == 0 ? TransitionResult.NOT_FOUND : TransitionResult.WRONG_STATE;
+            });
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to "+name+" todo "+id+" in list "+listId+".", e);
+            return TransitionResult.FAILED;
+        }
+    }
+
     @Override
     public Todo getTodo(int listId, int id) {
-        final String SELECT = "SELECT * FROM TodoItems WHERE ID=? AND ListID=?";
+        final String SELECT = "SELECT "+TODO_ITEM_COLUMNS+" FROM TodoItems WHERE ID=? AND ListID=?";
         try {
-            return this.jdbcTemplate.queryForObject(SELECT, this::mapTodoItem, id, listId);
+            return this.reader(listId).queryForObject(SELECT, this::mapTodoItem, id, listId);
         } catch (org.springframework.dao.DataAccessException e) {
             logger.debug("Unable to fetch todo "+id+" from list "+listId+".", e);
         }
@@ -140,28 +607,209 @@ public class DatabaseManagerImpl implements DatabaseManager {
         final String SELECT = "SELECT ID FROM TodoLists WHERE UserID=?";
         try {
             int userId = this.jdbcTemplate.queryForObject(SELECT_USERID, Integer.class, username);
-            return this.jdbcTemplate.queryForObject(SELECT, Integer.class, userId);
+            int id = this.jdbcTemplate.queryForObject(SELECT, Integer.class, userId);
+            this.userListCache.put(username, id);
+            return id;
         } catch(org.springframework.dao.DataAccessException e) {
-            int id = this.getNextTodoListID();
-            final String INSERT = "INSERT INTO TodoLists (ID, UserID) VALUES (?, ?)";
-            try {
-                int userId = this.jdbcTemplate.queryForObject(SELECT_USERID, Integer.class, username);
-                this.jdbcTemplate.update(INSERT, id, userId);
-                return id;
-            } catch (org.springframework.dao.DataAccessException ex) {
-                logger.error("Unable to add list for user "+username, ex);
-                return -1;
+            this.userListCache.invalidate(username);
+            final String INSERT = "INSERT INTO TodoLists (ID, UserID, LastItemID) SELECT (SELECT COALESCE(MAX(ID), 0) + 1 FROM TodoLists), ID, 0 FROM UserAccounts WHERE Username=? RETURNING ID";
+            // nothing serializes concurrent inserts on postgresql, the one that lost the id tries again
+            for(int attempt = 1; attempt <= ADD_LIST_ATTEMPTS; attempt++) {
+                try {
+                    Integer id = this.jdbcTemplate.query(INSERT, rs -> rs.next() ? rs.getInt(1) : null, username);
+                    if(id != null) {
+                        this.userListCache.put(username, id);
+                        return id;
+                    }
+                    logger.error("Unable to add list for unknown user "+username);
+                    return -1;
+                } catch(org.springframework.dao.DuplicateKeyException ex) {
+                    logger.debug("List id taken while adding list for user "+username+", attempt "+attempt);
+                } catch(org.springframework.dao.DataAccessException ex) {
+                    logger.error("Unable to add list for user "+username, ex);
+                    return -1;
+                }
+            }
+            logger.error("Unable to add list for user "+username+" after "+ADD_LIST_ATTEMPTS+" attempts");
+            return -1;
+        }
+    }
+
+    /**
+     * Moves completed, non-repeating items that were done before the given time into
+     * ArchivedTodoItems. Each batch is deleted with RETURNING and inserted into the archive in one
+     * transaction, so an item reactivated meanwhile is never archived. Items with children left in
+     * TodoItems stay, their parents follow once the children have been archived. The change log
+     * is pruned after the items have been moved.
+     *
+     * @return number of archived items or -1 if archiving failed
+     */
+    @Override
+    public int archiveTodos(final Instant doneBefore, final int batchSize) {
+        final String DELETE = "DELETE FROM TodoItems WHERE (ListID, ID) IN (SELECT ListID, ID FROM TodoItems t WHERE Done=TRUE AND DoneAt<? AND COALESCE(RepeatCode, 0) & 7 = 0 AND NOT EXISTS (SELECT 1 FROM TodoItems c WHERE c.ListID=t.ListID AND c.ParentID=t.ID) LIMIT ?) RETURNING ListID, "+TODO_ITEM_COLUMNS;
+        final String INSERT = "INSERT INTO ArchivedTodoItems (ListID, "+TODO_ITEM_COLUMNS+") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        int archived = 0;
+        try {
+            int moved;
+            do {
+                moved = this.transactionTemplate.execute(status -> {
+                    List<Object[]> rows = this.jdbcTemplate.query(DELETE, (rs, rowNum) -> {
+                        Object[] row = new Object[13];
+                        for(int i=0; i < row.length; i++) {
+                            row[i] = rs.getObject(i + 1);
+                        }
+                        return row;
+                    }, doneBefore.toEpochMilli(), batchSize);
+                    if(!rows.isEmpty()) {
+                        this.jdbcTemplate.batchUpdate(INSERT, rows);
+                        Map<Integer, List<Integer>> lists = new HashMap<>();
+                        for(Object[] row: rows) {
+                            lists.computeIfAbsent(((Number)row[0]).intValue(), listId -> new ArrayList<>()).add(((Number)row[1]).intValue());
+                        }
+                        lists.forEach((listId, ids) -> this.logChanges(this.jdbcTemplate, listId, ids));
+                    }
+                    return rows.size();
+                });
+                archived += moved;
+            } while(moved > 0);
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Archiving stopped after "+archived+" items.", e);
+            return -1;
+        }
+        this.pruneChanges();
+        return archived;
+    }
+
+    /**
+     * Drops the tombstones of deleted and archived items that are more than DB_CHANGE_LOG_RETAIN
+     * changes behind their list and remembers the pruned number in PrunedSeq. A client resuming
+     * from before it gets the whole list again. Entries of existing items are kept, there is
+     * only one per item and since 0 reads the list from them.
+     */
+    private void pruneChanges() {
+        final String TOMBSTONE = "NOT EXISTS (SELECT 1 FROM TodoItems t WHERE t.ListID=c.ListID AND t.ID=c.ItemID)";
+        final String UPDATE_PRUNED_SEQ = "UPDATE TodoLists SET PrunedSeq=ChangeSeq-? WHERE EXISTS (SELECT 1 FROM TodoItemChanges c WHERE c.ListID=TodoLists.ID AND c.Seq<=TodoLists.ChangeSeq-? AND "+TOMBSTONE+")";
+        final String DELETE = "DELETE FROM TodoItemChanges AS c WHERE c.Seq<=(SELECT PrunedSeq FROM TodoLists l WHERE l.ID=c.ListID) AND "+TOMBSTONE;
+        try {
+            int pruned = this.transactionTemplate.execute(status -> {
+                this.jdbcTemplate.update(UPDATE_PRUNED_SEQ, this.changeLogRetain, this.changeLogRetain);
+                return this.jdbcTemplate.update(DELETE);
+            });
+            logger.debug("Pruned "+pruned+" entries from the change log");
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to prune the change log", e);
+        }
+    }
+
+    /**
+     * Reads the changes in one statement, so the returned sequence number matches the returned
+     * items. Since 0 returns all items of the list without the tombstones, as does a since whose
+     * tombstones have been pruned, marked as a reset. A reset continues from the pruned number,
+     * the list row is read even when it has no changes left.
+     */
+    @Override
+    public TodoChanges getChanges(final int listID, final long since) {
+        final String SELECT = "SELECT "+JOINED_TODO_ITEM_COLUMNS+", c.ItemID, c.Seq, l.PrunedSeq FROM TodoLists l LEFT JOIN TodoItemChanges c ON c.ListID=l.ID AND c.Seq>CASE WHEN ?<COALESCE(l.PrunedSeq, 0) THEN 0 ELSE ? END LEFT JOIN TodoItems t ON t.ListID=c.ListID AND t.ID=c.ItemID WHERE l.ID=? ORDER BY c.Seq";
+        try {
+            TodoChanges changes = new TodoChanges(since);
+            this.reader(listID).query(SELECT, rs -> {
+                changes.setReset(since > 0 && since < rs.getLong(15));
+                if(changes.isReset()) {
+                    changes.setSeq(Math.max(changes.getSeq(), rs.getLong(15)));
+                }
+                changes.setSeq(Math.max(changes.getSeq(), rs.getLong(14)));
+                rs.getInt(13);
+                if(rs.wasNull()) {
+                    // the list without changes
+                    return;
+                }
+                rs.getInt(1);
+                if(!rs.wasNull()) {
+                    changes.getItems().add(this.mapTodoItem(rs, 0));
+                } else if(since > 0 && !changes.isReset()) {
+                    changes.getDeleted().add(rs.getInt(13));
+                }
+            }, since, since, listID);
+            return changes;
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.debug("Unable to fetch changes of list "+listID+" since "+since, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the sequence number of the latest change of the list or -1 if it is not known
+     */
+    @Override
+    public long getChangeSeq(final int listID) {
+        final String SELECT = "SELECT COALESCE(ChangeSeq, 0) FROM TodoLists WHERE ID=?";
+        try {
+            List<Long> seq = this.reader(listID).queryForList(SELECT, Long.class, listID);
+            return seq.isEmpty() ? -1 : seq.get(0);
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.debug("Unable to fetch change sequence of list "+listID, e);
+            return -1;
+        }
+    }
+
+    @Override
+    public TodoPage getArchivedTodos(final int listID, final ArchiveQuery query) {
+        final String SELECT = "SELECT "+TODO_ITEM_COLUMNS+" FROM ArchivedTodoItems WHERE ListID=?";
+        final String BEFORE = " AND (DoneAt, ID) < (?, ?)";
+        final String ORDER = " ORDER BY DoneAt DESC, ID DESC LIMIT ?";
+        try {
+            List<Todo> todos;
+            if(query.hasCursor()) {
+                todos = this.reader(listID).query(SELECT+BEFORE+ORDER, this::mapTodoItem, listID, query.getBeforeDoneAt(), query.getBeforeId(), query.getLimit() + 1);
+            } else {
+                todos = this.reader(listID).query(SELECT+ORDER, this::mapTodoItem, listID, query.getLimit() + 1);
+            }
+            String nextCursor = null;
+            if(todos.size() > query.getLimit()) {
+                todos = new ArrayList<>(todos.subList(0, query.getLimit()));
+                nextCursor = ArchiveQuery.cursorAfter(todos.get(todos.size() - 1));
             }
+            return new TodoPage(todos, nextCursor);
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.debug("Unable to fetch archived todos for list "+listID, e);
+            return null;
         }
     }
 
+    /**
+     * Gives all the items one new sequence number of the list, in the transaction of the write.
+     */
+    private void logChanges(final JdbcTemplate jdbc, final int listId, final List<Integer> ids) {
+        List<Long> seq = jdbc.queryForList(NEXT_CHANGE_SEQ, Long.class, listId);
+        if(seq.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(ids.size());
+        for(Integer id: ids) {
+            args.add(new Object[] { listId, id, seq.get(0) });
+        }
+        jdbc.batchUpdate(UPSERT_CHANGE, args);
+    }
+
+    /**
+     * Adds the list row a shard needs for reserving item ids. The user stays in the main database.
+     */
+    void ensureList(final int listId) {
+        final String INSERT = "INSERT INTO TodoLists (ID, UserID, LastItemID) SELECT ?, NULL, 0 WHERE NOT EXISTS (SELECT 1 FROM TodoLists WHERE ID=?)";
+        this.jdbcTemplate.update(INSERT, listId, listId);
+    }
+
     @Override
     public int getUserList(final String username) {
-        final String SELECT_USERID = "SELECT ID FROM UserAccounts WHERE Username=?";
-        final String SELECT = "SELECT ID FROM TodoLists WHERE UserID=?";
+        final String SELECT = "SELECT TodoLists.ID FROM TodoLists JOIN UserAccounts ON TodoLists.UserID = UserAccounts.ID WHERE UserAccounts.Username=?";
+        Integer cached = this.userListCache.getIfPresent(username);
+        if(cached != null) {
+            return cached;
+        }
         try {
-            int id = this.jdbcTemplate.queryForObject(SELECT_USERID, Integer.class, username);
-            return this.jdbcTemplate.queryForObject(SELECT, Integer.class, id);
+            int id = this.reader().queryForObject(SELECT, Integer.class, username);
+            this.userListCache.put(username, id);
+            return id;
         } catch(org.springframework.dao.DataAccessException e) {
             logger.debug("Unable to find todo list for user "+username);
             return -1;
@@ -172,7 +820,7 @@ public class DatabaseManagerImpl implements DatabaseManager {
     public List<UserAccount> getUsers() {
         final String SELECT = "SELECT * FROM UserAccounts";
         try {
-            return this.jdbcTemplate.query(SELECT, this::mapUserAccount);
+            return this.reader().query(SELECT, this::mapUserAccount);
         } catch(org.springframework.dao.DataAccessException e) {
             logger.debug("Unable to fetch any users.");
         }
@@ -186,9 +834,37 @@ public class DatabaseManagerImpl implements DatabaseManager {
         boolean success = false;
         try {
             int version = this.jdbcTemplate.queryForObject(SELECT, Integer.class);
-            if(version == 1) {
-                success = migrateDatabaseFromV1ToV2();
+            if(version == 1 && migrateDatabaseFromV1ToV2()) {
+                version = 2;
+            }
+            if(version == 2 && migrateDatabaseFromV2ToV3()) {
+                version = 3;
+            }
+            if(version == 3 && migrateDatabaseFromV3ToV4()) {
+                version = 4;
+            }
+            if(version == 4 && migrateDatabaseFromV4ToV5()) {
+                version = 5;
+            }
+            if(version == 5 && migrateDatabaseFromV5ToV6()) {
+                version = 6;
+            }
+            if(version == 6 && migrateDatabaseFromV6ToV7()) {
+                version = 7;
+            }
+            if(version == 7 && migrateDatabaseFromV7ToV8()) {
+                version = 8;
+            }
+            if(version == 8 && migrateDatabaseFromV8ToV9()) {
+                version = 9;
+            }
+            if(version == 9 && migrateDatabaseFromV9ToV10()) {
+                version = 10;
             }
+            if(version == 10 && migrateDatabaseFromV10ToV11()) {
+                version = 11;
+            }
+            success = version == SCHEMA_VERSION_MAX;
             logger.info("Migrating database version done.");
             return success;
         } catch(org.springframework.dao.DataAccessException e) {
@@ -215,24 +891,303 @@ public class DatabaseManagerImpl implements DatabaseManager {
         }
     }
 
-    private synchronized int getNextTodoItemID(final int listID) {
-        final String SELECT_ID = "SELECT ID FROM TodoItems WHERE ListID=? ORDER BY ID DESC LIMIT 1";
+    private boolean migrateDatabaseFromV2ToV3() {
+        final String CREATE_TODO_ITEMS_OPEN_SCHEDULED_INDEX_V3 = "CREATE INDEX IF NOT EXISTS TodoItemsOpenScheduledIdx ON TodoItems (DueDate, ListID) WHERE Scheduled = TRUE AND Done = FALSE";
+        final String UPDATE_DATABASE_VERSION = "UPDATE Settings SET Version=3 WHERE Version=2";
+        try {
+            logger.info("Migrating database from V2 to V3 ...");
+            this.jdbcTemplate.execute(CREATE_USER_ACCOUNTS_USERNAME_INDEX);
+            this.jdbcTemplate.execute(CREATE_TODO_LISTS_USER_INDEX);
+            this.jdbcTemplate.execute(CREATE_TODO_ITEMS_LIST_INDEX);
+            this.jdbcTemplate.execute(CREATE_TODO_ITEMS_OPEN_SCHEDULED_INDEX_V3);
+            int rows = this.jdbcTemplate.update(UPDATE_DATABASE_VERSION);
+            assert(rows == 1);
+            logger.info("Migrating database from V2 to V3 done");
+            return true;
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to migrate database from V2 to V3!", e);
+            return false;
+        }
+    }
+
+    private boolean migrateDatabaseFromV3ToV4() {
+        final String ALTER_TODO_LISTS = "ALTER TABLE TodoLists ADD COLUMN LastItemID INTEGER DEFAULT 0";
+        final String UPDATE_DATABASE_VERSION = "UPDATE Settings SET Version=4 WHERE Version=3";
+        try {
+            logger.info("Migrating database from V3 to V4 ...");
+            this.jdbcTemplate.execute(ALTER_TODO_LISTS);
+            int rows = this.jdbcTemplate.update(UPDATE_DATABASE_VERSION);
+            assert(rows == 1);
+            logger.info("Migrating database from V3 to V4 done");
+            return true;
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to migrate database from V3 to V4!", e);
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the TEXT due date, time, offset, repeat and notification columns of TodoItems with
+     * integers. The existing values are converted here because sqlite has no date parsing that
+     * matches the java.time formats. Everything runs in one transaction.
+     */
+    private boolean migrateDatabaseFromV4ToV5() {
+        final String DROP_OPEN_SCHEDULED_INDEX = "DROP INDEX IF EXISTS TodoItemsOpenScheduledIdx";
+        final String CREATE_TODO_ITEMS_OPEN_SCHEDULED_INDEX_V5 = "CREATE INDEX IF NOT EXISTS TodoItemsOpenScheduledIdx ON TodoItems (DueDay, ListID) WHERE Scheduled = TRUE AND Done = FALSE";
+        final String[] ADD_COLUMNS = {
+                "ALTER TABLE TodoItems ADD COLUMN DueDay INTEGER",
+                "ALTER TABLE TodoItems ADD COLUMN DueSecond INTEGER",
+                "ALTER TABLE TodoItems ADD COLUMN DueOffset INTEGER",
+                "ALTER TABLE TodoItems ADD COLUMN RepeatCode INTEGER",
+                "ALTER TABLE TodoItems ADD COLUMN LastNotifiedAt BIGINT" };
+        final String SELECT_TEXT_VALUES = "SELECT ID, ListID, DueDate, DueTime, DueTimezone, Repeating, LastNotification FROM TodoItems";
+        final String UPDATE_INTEGER_VALUES = "UPDATE TodoItems SET DueDay=?, DueSecond=?, DueOffset=?, RepeatCode=?, LastNotifiedAt=? WHERE ID=? AND ListID=?";
+        final String[] DROP_COLUMNS = {
+                "ALTER TABLE TodoItems DROP COLUMN DueDate",
+                "ALTER TABLE TodoItems DROP COLUMN DueTime",
+                "ALTER TABLE TodoItems DROP COLUMN DueTimezone",
+                "ALTER TABLE TodoItems DROP COLUMN Repeating",
+                "ALTER TABLE TodoItems DROP COLUMN LastNotification" };
+        final String UPDATE_DATABASE_VERSION = "UPDATE Settings SET Version=5 WHERE Version=4";
+        try {
+            logger.info("Migrating database from V4 to V5 ...");
+            this.transactionTemplate.executeWithoutResult(status -> {
+                this.jdbcTemplate.execute(DROP_OPEN_SCHEDULED_INDEX);
+                for(String addColumn: ADD_COLUMNS) {
+                    this.jdbcTemplate.execute(addColumn);
+                }
+                List<Object[]> batchArgs = this.jdbcTemplate.query(SELECT_TEXT_VALUES, (rs, rowNum) -> {
+                    Todo todo = new Todo(rs.getInt("ID"));
+                    todo.setDueDate(parseText(rs.getString("DueDate"), LocalDate::parse));
+                    todo.setDueTime(parseText(rs.getString("DueTime"), LocalTime::parse));
+                    todo.setDueTimezone(parseText(rs.getString("DueTimezone"), ZoneOffset::of));
+                    todo.setRepeat(parseText(rs.getString("Repeating"), Repeat::parse));
+                    todo.setLastNotification(parseText(rs.getString("LastNotification"), OffsetDateTime::parse));
+                    return new Object[] { dueDay(todo), dueSecond(todo), dueOffset(todo), repeatCode(todo), lastNotifiedAt(todo), todo.getId(), rs.getInt("ListID") };
+                });
+                this.jdbcTemplate.batchUpdate(UPDATE_INTEGER_VALUES, batchArgs,
+                        new int[] { Types.BIGINT, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.BIGINT, Types.INTEGER, Types.INTEGER });
+                for(String dropColumn: DROP_COLUMNS) {
+                    this.jdbcTemplate.execute(dropColumn);
+                }
+                this.jdbcTemplate.execute(CREATE_TODO_ITEMS_OPEN_SCHEDULED_INDEX_V5);
+                int rows = this.jdbcTemplate.update(UPDATE_DATABASE_VERSION);
+                assert(rows == 1);
+            });
+            logger.info("Migrating database from V4 to V5 done");
+            return true;
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to migrate database from V4 to V5!", e);
+            return false;
+        }
+    }
+
+    private boolean migrateDatabaseFromV5ToV6() {
+        final String UPDATE_DATABASE_VERSION = "UPDATE Settings SET Version=6 WHERE Version=5";
+        try {
+            logger.info("Migrating database from V5 to V6 ...");
+            this.jdbcTemplate.execute(CREATE_TODO_ITEMS_LIST_DUE_INDEX);
+            int rows = this.jdbcTemplate.update(UPDATE_DATABASE_VERSION);
+            assert(rows == 1);
+            logger.info("Migrating database from V5 to V6 done");
+            return true;
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to migrate database from V5 to V6!", e);
+            return false;
+        }
+    }
+
+    /**
+     * Adds the completion time and the archive table. Items that are already done count as done
+     * now, so they are archived only after the full archive age.
+     */
+    private boolean migrateDatabaseFromV6ToV7() {
+        final String ALTER_TODO_ITEMS = "ALTER TABLE TodoItems ADD COLUMN DoneAt BIGINT";
+        final String UPDATE_DONE_AT = "UPDATE TodoItems SET DoneAt=? WHERE Done=TRUE";
+        final String UPDATE_DATABASE_VERSION = "UPDATE Settings SET Version=7 WHERE Version=6";
+        try {
+            logger.info("Migrating database from V6 to V7 ...");
+            this.transactionTemplate.executeWithoutResult(status -> {
+                this.jdbcTemplate.execute(ALTER_TODO_ITEMS);
+                this.jdbcTemplate.update(UPDATE_DONE_AT, System.currentTimeMillis());
+                this.jdbcTemplate.execute(CREATE_ARCHIVED_TODO_ITEMS_TABLE);
+                this.jdbcTemplate.execute(CREATE_TODO_ITEMS_DONE_AT_INDEX);
+                this.jdbcTemplate.execute(CREATE_ARCHIVED_TODO_ITEMS_LIST_INDEX);
+                int rows = this.jdbcTemplate.update(UPDATE_DATABASE_VERSION);
+                assert(rows == 1);
+            });
+            logger.info("Migrating database from V6 to V7 done");
+            return true;
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to migrate database from V6 to V7!", e);
+            return false;
+        }
+    }
+
+    /**
+     * Adds the change log. Every existing item is logged as changed at sequence 1, so a client
+     * syncing from 0 gets the whole list.
+     */
+    private boolean migrateDatabaseFromV7ToV8() {
+        final String ALTER_TODO_LISTS = "ALTER TABLE TodoLists ADD COLUMN ChangeSeq INTEGER DEFAULT 0";
+        final String INSERT_CHANGES = "INSERT INTO TodoItemChanges (ListID, ItemID, Seq) SELECT ListID, ID, 1 FROM TodoItems";
+        final String UPDATE_CHANGE_SEQ = "UPDATE TodoLists SET ChangeSeq=1 WHERE ID IN (SELECT ListID FROM TodoItems)";
+        final String UPDATE_DATABASE_VERSION = "UPDATE Settings SET Version=8 WHERE Version=7";
         try {
-            int result = this.jdbcTemplate.queryForObject(SELECT_ID, Integer.class, listID);
-            logger.debug("LastID: "+result);
-            return (result+1);
+            logger.info("Migrating database from V7 to V8 ...");
+            this.transactionTemplate.executeWithoutResult(status -> {
+                this.jdbcTemplate.execute(ALTER_TODO_LISTS);
+                this.jdbcTemplate.execute(CREATE_TODO_ITEM_CHANGES_TABLE);
+                this.jdbcTemplate.execute(CREATE_TODO_ITEM_CHANGES_SEQ_INDEX);
+                this.jdbcTemplate.update(INSERT_CHANGES);
+                this.jdbcTemplate.update(UPDATE_CHANGE_SEQ);
+                int rows = this.jdbcTemplate.update(UPDATE_DATABASE_VERSION);
+                assert(rows == 1);
+            });
+            logger.info("Migrating database from V7 to V8 done");
+            return true;
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to migrate database from V7 to V8!", e);
+            return false;
+        }
+    }
+
+    /**
+     * Adds the next notification time of the items. It is computed here for all scheduled items,
+     * done ones included, so an item reactivated later already has it. The notification scan no
+     * longer reads the open scheduled index, so it is dropped once it has served the computation.
+     */
+    private boolean migrateDatabaseFromV8ToV9() {
+        final String ALTER_TODO_ITEMS = "ALTER TABLE TodoItems ADD COLUMN NextAlertAt BIGINT";
+        final String DROP_OPEN_SCHEDULED_INDEX = "DROP INDEX IF EXISTS TodoItemsOpenScheduledIdx";
+        final String SELECT_SCHEDULED = "SELECT "+TODO_ITEM_COLUMNS+", ListID FROM TodoItems WHERE Scheduled = TRUE";
+        final String UPDATE_NEXT_ALERT = "UPDATE TodoItems SET NextAlertAt=? WHERE ID=? AND ListID=?";
+        final String UPDATE_DATABASE_VERSION = "UPDATE Settings SET Version=9 WHERE Version=8";
+        try {
+            logger.info("Migrating database from V8 to V9 ...");
+            this.transactionTemplate.executeWithoutResult(status -> {
+                this.jdbcTemplate.execute(ALTER_TODO_ITEMS);
+                List<Object[]> batchArgs = this.jdbcTemplate.query(SELECT_SCHEDULED, (rs, rowNum) -> {
+                    Todo todo = this.mapTodoItem(rs, rowNum);
+                    return new Object[] { AlertSchedule.nextAlertAt(todo), todo.getId(), rs.getInt(13) };
+                });
+                this.jdbcTemplate.batchUpdate(UPDATE_NEXT_ALERT, batchArgs, NEXT_ALERT_TYPES);
+                this.jdbcTemplate.execute(CREATE_TODO_ITEMS_NEXT_ALERT_INDEX);
+                this.jdbcTemplate.execute(DROP_OPEN_SCHEDULED_INDEX);
+                int rows = this.jdbcTemplate.update(UPDATE_DATABASE_VERSION);
+                assert(rows == 1);
+            });
+            logger.info("Migrating database from V8 to V9 done");
+            return true;
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.warn("Unable to migrate database from V8 to V9!", e);
+            return false;
+        }
+    }
+
+    /**
+     * Moves the last handed out item id of every list past the items it has, archived ones
+     * included. Lists that were created before V4 still had 0 there, so the ids of deleted or
+     * archived items were handed out again and archiving them a second time failed. One update per
+     * item table, since sqlite and postgresql have no common function for the larger of two values.
+     */
+    private boolean migrateDatabaseFromV9ToV10() {
+        final String MAX_ITEM_ID = "(SELECT MAX(ID) FROM %s WHERE ListID=TodoLists.ID)";
+        final String UPDATE_LAST_ITEM_ID = "UPDATE TodoLists SET LastItemID="+MAX_ITEM_ID+" WHERE "+MAX_ITEM_ID+" > COALESCE(LastItemID, 0)";
+        final String UPDATE_DATABASE_VERSION = "UPDATE Settings SET Version=10 WHERE Version=9";
+        try {
+            logger.info("Migrating database from V9 to V10 ...");
+            this.transactionTemplate.executeWithoutResult(status -> {
+                this.jdbcTemplate.update(String.format(UPDATE_LAST_ITEM_ID, "TodoItems", "TodoItems"));
+                this.jdbcTemplate.update(String.format(UPDATE_LAST_ITEM_ID, "ArchivedTodoItems", "ArchivedTodoItems"));
+                int rows = this.jdbcTemplate.update(UPDATE_DATABASE_VERSION);
+                assert(rows == 1);
+            });
+            logger.info("Migrating database from V9 to V10 done");
+            return true;
         } catch(org.springframework.dao.DataAccessException e) {
-            logger.warn("Could not determine last todo item id!", e);
-            return 1;
+            logger.warn("Unable to migrate database from V9 to V10!", e);
+            return false;
         }
     }
 
-    private synchronized int getNextTodoListID() {
-        final String SELECT_ID = "SELECT ID FROM TodoLists ORDER BY ID DESC LIMIT 1";
+    private boolean migrateDatabaseFromV10ToV11() {
+        final String ALTER_TODO_LISTS = "ALTER TABLE TodoLists ADD COLUMN PrunedSeq INTEGER DEFAULT 0";
+        final String UPDATE_DATABASE_VERSION = "UPDATE Settings SET Version=11 WHERE Version=10";
         try {
-            return (this.jdbcTemplate.queryForObject(SELECT_ID, Integer.class) +1);
+            logger.info("Migrating database from V10 to V11 ...");
+            this.transactionTemplate.executeWithoutResult(status -> {
+                this.jdbcTemplate.execute(ALTER_TODO_LISTS);
+                int rows = this.jdbcTemplate.update(UPDATE_DATABASE_VERSION);
+                assert(rows == 1);
+            });
+            logger.info("Migrating database from V10 to V11 done");
+            return true;
         } catch(org.springframework.dao.DataAccessException e) {
-            return 1;
+            logger.warn("Unable to migrate database from V10 to V11!", e);
+            return false;
+        }
+    }
+
+    private static <T> T parseText(final String text, final Function<String, T> parser) {
+        if(text == null) {
+            return null;
+        }
+        try {
+            return parser.apply(text);
+        } catch(RuntimeException e) {
+            logger.warn("Dropping unparseable value "+text+" while migrating todo items");
+            return null;
+        }
+    }
+
+    /**
+     * Item writes go through the group commit writer when it is enabled, otherwise they run
+     * directly in their own autocommit transaction.
+     */
+    private <T> T write(final Function<JdbcTemplate, T> operation) {
+        if(this.groupCommitWriter != null) {
+            return this.groupCommitWriter.write(operation);
+        }
+        // the change log row has to commit together with the change
+        return this.transactionTemplate.execute(status -> operation.apply(this.jdbcTemplate));
+    }
+
+    /**
+     * Runs a streamed read in a read-only transaction on the connections of the reader. The
+     * postgresql driver only reads the rows in fetch size batches with autocommit off, otherwise
+     * it holds the whole result in memory.
+     */
+    private void stream(final JdbcTemplate reader, final Consumer<JdbcTemplate> read) {
+        TransactionTemplate transaction = reader == this.readJdbcTemplate ? this.readerTransactionTemplate : this.readOnlyTransactionTemplate;
+        transaction.executeWithoutResult(status -> read.accept(reader));
+    }
+
+    /**
+     * Read-only queries go through the read connections when those have been configured,
+     * e.g. the sqlite WAL readers, so that they do not queue behind the writer.
+     */
+    private JdbcTemplate reader() {
+        if(this.readJdbcTemplate != null) {
+            return this.readJdbcTemplate;
+        }
+        return this.jdbcTemplate;
+    }
+
+    /**
+     * Reads of a list that was written a moment ago go to the primary, the replicas may not have
+     * the write yet.
+     */
+    private JdbcTemplate reader(final int listId) {
+        if(this.pinnedLists != null && this.pinnedLists.getIfPresent(listId) != null) {
+            return this.jdbcTemplate;
+        }
+        return this.reader();
+    }
+
+    private void pin(final int listId) {
+        if(this.pinnedLists != null) {
+            this.pinnedLists.put(listId, Boolean.TRUE);
         }
     }
 
@@ -241,32 +1196,53 @@ public class DatabaseManagerImpl implements DatabaseManager {
         this.jdbcTemplate.execute(CREATE_USER_ACCOUNTS_TABLE);
         this.jdbcTemplate.execute(CREATE_TODO_LISTS_TABLE);
         this.jdbcTemplate.execute(CREATE_TODO_ITEMS_TABLE);
+        this.jdbcTemplate.execute(CREATE_ARCHIVED_TODO_ITEMS_TABLE);
+        this.jdbcTemplate.execute(CREATE_TODO_ITEM_CHANGES_TABLE);
         this.jdbcTemplate.execute(CREATE_PERSISTENT_LOGINS_TABLE);
     }
 
+    private void createIndexes() {
+        this.jdbcTemplate.execute(CREATE_USER_ACCOUNTS_USERNAME_INDEX);
+        this.jdbcTemplate.execute(CREATE_TODO_LISTS_USER_INDEX);
+        this.jdbcTemplate.execute(CREATE_TODO_ITEMS_LIST_INDEX);
+        this.jdbcTemplate.execute(CREATE_TODO_ITEMS_NEXT_ALERT_INDEX);
+        this.jdbcTemplate.execute(CREATE_TODO_ITEMS_LIST_DUE_INDEX);
+        this.jdbcTemplate.execute(CREATE_TODO_ITEMS_DONE_AT_INDEX);
+        this.jdbcTemplate.execute(CREATE_ARCHIVED_TODO_ITEMS_LIST_INDEX);
+        this.jdbcTemplate.execute(CREATE_TODO_ITEM_CHANGES_SEQ_INDEX);
+    }
+
     private Todo mapTodoItem(ResultSet rs, int rowNum) throws java.sql.SQLException {
-        Todo todo = new Todo(rs.getInt("ID"));
-        todo.setParentId(rs.getInt("ParentID"));
-        todo.setTitle(rs.getString("Title"));
-        if(rs.getString("Description") != null) {
-            todo.setDescription(rs.getString("Description"));
+        Todo todo = new Todo(rs.getInt(1));
+        todo.setParentId(rs.getInt(2));
+        todo.setTitle(rs.getString(3));
+        todo.setDescription(rs.getString(4));
+        todo.setDone(rs.getBoolean(5));
+        todo.setScheduled(rs.getBoolean(6));
+        long dueDay = rs.getLong(7);
+        if(!rs.wasNull()) {
+            todo.setDueDate(LocalDate.ofEpochDay(dueDay));
         }
-        todo.setDone(rs.getBoolean("Done"));
-        todo.setScheduled(rs.getBoolean("Scheduled"));
-        if(rs.getString("DueDate") != null) {
-            todo.setDueDate(LocalDate.parse(rs.getString("DueDate")));
+        int dueSecond = rs.getInt(8);
+        if(!rs.wasNull()) {
+            todo.setDueTime(LocalTime.ofSecondOfDay(dueSecond));
         }
-        if(rs.getString("DueTime") != null) {
-            todo.setDueTime(LocalTime.parse(rs.getString("DueTime")));
+        int dueOffset = rs.getInt(9);
+        if(!rs.wasNull()) {
+            todo.setDueTimezone(ZoneOffset.ofTotalSeconds(dueOffset));
         }
-        if(rs.getString("DueTimezone") != null) {
-            todo.setDueTimezone(ZoneOffset.of(rs.getString("DueTimezone")));
+        int repeatCode = rs.getInt(10);
+        if(!rs.wasNull()) {
+            todo.setRepeat(Repeat.fromCode(repeatCode));
         }
-        if(rs.getString("Repeating") != null) {
-            todo.setRepeat(Repeat.parse(rs.getString("Repeating")));
+        // the instants are stored without their offset, see Todo
+        long lastNotifiedAt = rs.getLong(11);
+        if(!rs.wasNull()) {
+            todo.setLastNotification(OffsetDateTime.ofInstant(Instant.ofEpochMilli(lastNotifiedAt), ZoneId.systemDefault()));
         }
-        if(rs.getString("LastNotification") != null) {
-            todo.setLastNotification(OffsetDateTime.parse(rs.getString("LastNotification")));
+        long doneAt = rs.getLong(12);
+        if(!rs.wasNull()) {
+            todo.setDoneAt(OffsetDateTime.ofInstant(Instant.ofEpochMilli(doneAt), ZoneId.systemDefault()));
         }
         return todo;
     }
@@ -301,6 +1277,7 @@ public class DatabaseManagerImpl implements DatabaseManager {
             final String UPDATE = "INSERT INTO Settings (Version) VALUES (?)";
             try {
                 this.jdbcTemplate.update(UPDATE, this.SCHEMA_VERSION_MAX);
+                this.createIndexes();
             } catch(org.springframework.dao.DataAccessException ex) {
                 logger.error("Unable to set database schema version!", ex);
             }
@@ -310,7 +1287,55 @@ public class DatabaseManagerImpl implements DatabaseManager {
     @Autowired
     void setDataSource(DataSource dataSource) {
         this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.idAllocator = new TodoItemIdAllocator(this.jdbcTemplate, this.idBlockSize);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        if(this.groupCommit) {
+            logger.info("Committing item writes in groups of up to "+this.groupCommitMaxBatch+" every "+this.groupCommitMaxDelay+" ms");
+            this.groupCommitWriter = new GroupCommitWriter(this.jdbcTemplate, this.transactionTemplate, this.groupCommitMaxBatch, this.groupCommitMaxDelay);
+        }
+        // users and lists are not edited through the application, the ttl picks up changes made directly in the database
+        this.userListCache = Caffeine.newBuilder()
+                .maximumSize(this.userListCacheSize)
+                .expireAfterWrite(this.userListCacheTtl, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.bindCacheMetrics();
         this.createTables();
     }
 
+    @PreDestroy
+    void shutdown() {
+        if(this.groupCommitWriter != null) {
+            this.groupCommitWriter.shutdown();
+        }
+    }
+
+    @Autowired(required = false)
+    void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.bindCacheMetrics();
+    }
+
+    private void bindCacheMetrics() {
+        if(this.meterRegistry != null && this.userListCache != null) {
+            CaffeineCacheMetrics.monitor(this.meterRegistry, this.userListCache, "userLists");
+        }
+    }
+
+    @Autowired(required = false)
+    void setReadDataSource(@Qualifier("readDataSource") DataSource readDataSource) {
+        this.readJdbcTemplate = new JdbcTemplate(readDataSource);
+        this.readerTransactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(readDataSource));
+        this.readerTransactionTemplate.setReadOnly(true);
+        if(readDataSource instanceof ReplicaDataSource) {
+            // the sqlite WAL readers see every commit at once, only replicas lag
+            this.pinnedLists = Caffeine.newBuilder()
+                    .expireAfterWrite(this.readReplicaPin, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+    }
+
 }
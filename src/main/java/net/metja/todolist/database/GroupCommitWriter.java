@@ -0,0 +1,186 @@
+package net.metja.todolist.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Collects writes from all request threads and commits them together, one transaction and so one
+ * disk sync per batch instead of one per write. A batch is committed when it has the maximum
+ * number of writes or when the first write of it has waited the maximum delay. Every write runs
+ * in its own savepoint, so a failing write is rolled back alone and the others of the batch still
+ * commit. Callers block until the batch of their write has been committed.
+ * <p>
+ * Shutdown commits the writes that were queued before it and rejects the later ones.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+class GroupCommitWriter {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Write<?>> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong commits = new AtomicLong();
+    private final Thread thread;
+    private final Object lock = new Object();
+    private volatile boolean running = true;
+
+    // queued last by shutdown, the writes before it are still committed
+    private static final Write<Void> STOP = new Write<>(jdbc -> null);
+
+    private static Logger logger = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    GroupCommitWriter(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, int maxBatch, long maxDelayMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+        this.thread = new Thread(this::run, "tasklist-group-commit");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Runs the write in the next batch and waits for its commit.
+     *
+     * @throws DataAccessException if the write or the commit of its batch failed
+     */
+    <T> T write(final Function<JdbcTemplate, T> operation) {
+        Write<T> write = new Write<>(operation);
+        // under the lock of shutdown, so every accepted write is queued before the stop marker
+        synchronized(this.lock) {
+            if(!this.running) {
+                throw new DataAccessResourceFailureException("Group commit writer has been stopped");
+            }
+            this.queue.add(write);
+        }
+        try {
+            return write.result.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataAccessResourceFailureException("Interrupted while waiting for commit", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof DataAccessException) {
+                throw (DataAccessException)e.getCause();
+            }
+            throw new DataAccessResourceFailureException("Group commit failed", e.getCause());
+        }
+    }
+
+    long getCommits() {
+        return this.commits.get();
+    }
+
+    /**
+     * Stops accepting writes and waits until the queued ones have been committed.
+     */
+    void shutdown() {
+        synchronized(this.lock) {
+            if(!this.running) {
+                return;
+            }
+            this.running = false;
+            this.queue.add(STOP);
+        }
+        try {
+            this.thread.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for the queued writes to commit");
+        }
+    }
+
+    private void run() {
+        List<Write<?>> batch = new ArrayList<>(this.maxBatch);
+        boolean stopped = false;
+        while(!stopped) {
+            try {
+                Write<?> first = this.queue.take();
+                if(first == STOP) {
+                    break;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + this.maxDelayNanos;
+                while(batch.size() < this.maxBatch) {
+                    Write<?> next = this.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if(next == null) {
+                        break;
+                    } else if(next == STOP) {
+                        stopped = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+                this.commit(batch);
+            } catch(InterruptedException e) {
+                logger.debug("Group commit writer interrupted");
+            } finally {
+                for(Write<?> write: batch) {
+                    write.result.completeExceptionally(new DataAccessResourceFailureException("Group commit writer stopped"));
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(final List<Write<?>> batch) {
+        List<Runnable> completions = new ArrayList<>(batch.size());
+        try {
+            this.transactionTemplate.executeWithoutResult(status -> {
+                for(Write<?> write: batch) {
+                    Object savepoint = status.createSavepoint();
+                    try {
+                        completions.add(write.apply(this.jdbcTemplate));
+                        status.releaseSavepoint(savepoint);
+                    } catch(RuntimeException e) {
+                        status.rollbackToSavepoint(savepoint);
+                        completions.add(() -> write.result.completeExceptionally(e));
+                    }
+                }
+            });
+            this.commits.incrementAndGet();
+            logger.debug("Committed "+batch.size()+" writes");
+            completions.forEach(Runnable::run);
+        } catch(RuntimeException e) {
+            logger.warn("Unable to commit "+batch.size()+" writes", e);
+            for(Write<?> write: batch) {
+                write.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class Write<T> {
+
+        private final Function<JdbcTemplate, T> operation;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Write(Function<JdbcTemplate, T> operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * @return completes the caller once the batch has been committed
+         */
+        private Runnable apply(final JdbcTemplate jdbcTemplate) {
+            T value = this.operation.apply(jdbcTemplate);
+            return () -> this.result.complete(value);
+        }
+    }
+
+}
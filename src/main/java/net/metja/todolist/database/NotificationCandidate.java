@@ -0,0 +1,57 @@
+package net.metja.todolist.database;
+
+import java.time.Instant;
+
+import net.metja.todolist.database.bean.Todo;
+import net.metja.todolist.database.bean.UserAccount;
+
+/**
+ * An item whose notification is due, with the owner of its list and the next notification time
+ * it was read with. {@link DatabaseManager#markNotified(NotificationCandidate, java.time.OffsetDateTime)}
+ * only updates the item while it still has that time.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class NotificationCandidate {
+
+    private final UserAccount user;
+    private final int listId;
+    private final Todo todo;
+    private final Instant alertAt;
+    // the shard file the item was read from, null for the main database
+    private final String source;
+
+    public NotificationCandidate(UserAccount user, int listId, Todo todo, Instant alertAt) {
+        this(user, listId, todo, alertAt, null);
+    }
+
+    NotificationCandidate(UserAccount user, int listId, Todo todo, Instant alertAt, String source) {
+        this.user = user;
+        this.listId = listId;
+        this.todo = todo;
+        this.alertAt = alertAt;
+        this.source = source;
+    }
+
+    public UserAccount getUser() {
+        return user;
+    }
+
+    public int getListId() {
+        return listId;
+    }
+
+    public Todo getTodo() {
+        return todo;
+    }
+
+    public Instant getAlertAt() {
+        return alertAt;
+    }
+
+    String getSource() {
+        return source;
+    }
+
+}
@@ -0,0 +1,16 @@
+package net.metja.todolist.database;
+
+/**
+ * Receives the items of
+ * {@link DatabaseManager#streamNotificationCandidates(java.time.Instant, NotificationCandidateCallback)}
+ * with the owner of their list, one at a time while the result set is read.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+@FunctionalInterface
+public interface NotificationCandidateCallback {
+
+    void process(NotificationCandidate candidate);
+
+}
@@ -0,0 +1,78 @@
+package net.metja.todolist.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+/**
+ * Hands out connections of the read replicas in turn. A replica that cannot give a connection is
+ * skipped, only when none of them can the last error is thrown. Replicas lag behind the primary,
+ * so {@link DatabaseManagerImpl} sends the reads of recently written lists to the primary.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class ReplicaDataSource extends AbstractDataSource implements Closeable {
+
+    private final List<DataSource> replicas;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private static Logger logger = LoggerFactory.getLogger(ReplicaDataSource.class);
+
+    public ReplicaDataSource(List<DataSource> replicas) {
+        if(replicas.isEmpty()) {
+            throw new IllegalArgumentException("No read replicas");
+        }
+        this.replicas = new ArrayList<>(replicas);
+    }
+
+    List<DataSource> getReplicas() {
+        return Collections.unmodifiableList(this.replicas);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return this.connect(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return this.connect(username, password);
+    }
+
+    private Connection connect(final String username, final String password) throws SQLException {
+        int first = Math.floorMod(this.next.getAndIncrement(), this.replicas.size());
+        SQLException failure = null;
+        for(int i=0; i < this.replicas.size(); i++) {
+            DataSource replica = this.replicas.get((first + i) % this.replicas.size());
+            try {
+                return username != null ? replica.getConnection(username, password) : replica.getConnection();
+            } catch(SQLException e) {
+                logger.warn("Read replica "+((first + i) % this.replicas.size())+" unavailable: "+e.getMessage());
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for(DataSource replica: this.replicas) {
+            if(replica instanceof Closeable) {
+                ((Closeable)replica).close();
+            }
+        }
+    }
+
+}
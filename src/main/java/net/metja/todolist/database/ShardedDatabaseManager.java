@@ -0,0 +1,470 @@
+package net.metja.todolist.database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+import org.sqlite.SQLiteConfig;
+
+import net.metja.todolist.database.bean.Todo;
+import net.metja.todolist.database.bean.UserAccount;
+
+/**
+ * Keeps todo items in separate sqlite files while users and lists stay in the main database.
+ * With DB_SHARD_MODE=list every list has its own file, with DB_SHARD_MODE=hash the lists are
+ * spread over DB_SHARD_COUNT files by a hash of the list id. Each file has its own lock and page
+ * cache and can be vacuumed or backed up on its own.
+ * <p>
+ * The earliest next notification of each shard is kept in the ShardAlerts table of the main
+ * database and set again after every item write, so the notification scan only opens the shards
+ * that have an item due. A shard without a row is scanned.
+ * <p>
+ * Open files are kept in an LRU of at most DB_SHARD_OPEN_MAX entries. An evicted shard is closed
+ * once the calls that are using it have returned.
+ * <p>
+ * Sharding is for new deployments. Items are not moved out of the main database and item ids
+ * start again in every shard, so the application refuses to start in a shard mode while the main
+ * database has items or archived items.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+@Component
+@ConditionalOnExpression("'${DB_SHARD_MODE:none}' != 'none'")
+public class ShardedDatabaseManager implements DatabaseManager {
+
+    @Value("${DB_SHARD_MODE:none}")
+    private String mode = "none";
+    @Value("${DB_SHARD_DIR:db/shards}")
+    private String directory = "db/shards";
+    @Value("${DB_SHARD_COUNT:16}")
+    private int shardCount = 16;
+    @Value("${DB_SHARD_OPEN_MAX:64}")
+    private long openMax = 64;
+    @Value("${DB_SQLITE_BUSY_TIMEOUT:5000}")
+    private int busyTimeout = 5000;
+
+    private DatabaseManagerImpl main;
+    private LoadingCache<String, Shard> shards;
+    // earliest next notification by shard name, Long.MAX_VALUE for none
+    private final Map<String, Long> alerts = new ConcurrentHashMap<>();
+    private final Map<String, Object> alertLocks = new ConcurrentHashMap<>();
+
+    private static Logger logger = LoggerFactory.getLogger(ShardedDatabaseManager.class);
+
+    ShardedDatabaseManager() {}
+
+    @Override
+    public int addList(final String username) {
+        return this.main.addList(username);
+    }
+
+    @Override
+    public int getUserList(final String username) {
+        return this.main.getUserList(username);
+    }
+
+    @Override
+    public int addTodo(final int listId, final Todo todo) {
+        return this.routeWrite(listId, -1, shard -> shard.addTodo(listId, todo));
+    }
+
+    @Override
+    public List<Integer> addTodos(final int listId, final List<Todo> todos) {
+        return this.routeWrite(listId, null, shard -> shard.addTodos(listId, todos));
+    }
+
+    @Override
+    public List<Todo> getTodos(final int listID) {
+        return this.route(listID, null, shard -> shard.getTodos(listID));
+    }
+
+    @Override
+    public List<Todo> getTodos(final int listID, final boolean rootsOnly) {
+        return this.route(listID, null, shard -> shard.getTodos(listID, rootsOnly));
+    }
+
+    @Override
+    public TodoPage getTodos(final int listID, final TodoQuery query) {
+        return this.route(listID, null, shard -> shard.getTodos(listID, query));
+    }
+
+    @Override
+    public boolean streamTodos(final int listID, final TodoFields fields, final TodoCallback callback) throws IOException {
+        try {
+            return this.route(listID, false, shard -> {
+                try {
+                    return shard.streamTodos(listID, fields, callback);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public Todo getTodo(final int listId, final int id) {
+        return this.route(listId, null, shard -> shard.getTodo(listId, id));
+    }
+
+    @Override
+    public boolean updateTodo(final int listId, final Todo todo) {
+        return this.routeWrite(listId, false, shard -> shard.updateTodo(listId, todo));
+    }
+
+    @Override
+    public boolean deleteTodo(final int listId, final int todoId) {
+        return this.routeWrite(listId, false, shard -> shard.deleteTodo(listId, todoId));
+    }
+
+    @Override
+    public TransitionResult markTodoDone(final int listId, final int id) {
+        return this.routeWrite(listId, TransitionResult.FAILED, shard -> shard.markTodoDone(listId, id));
+    }
+
+    @Override
+    public TransitionResult activateTodo(final int listId, final int id) {
+        return this.routeWrite(listId, TransitionResult.FAILED, shard -> shard.activateTodo(listId, id));
+    }
+
+    @Override
+    public TransitionResult deactivateTodo(final int listId, final int id) {
+        return this.routeWrite(listId, TransitionResult.FAILED, shard -> shard.deactivateTodo(listId, id));
+    }
+
+    /**
+     * Archives every shard file, opening the shards one at a time.
+     */
+    @Override
+    public int archiveTodos(final Instant doneBefore, final int batchSize) {
+        int archived = 0;
+        List<String> names = this.shardNames();
+        if(names == null) {
+            return -1;
+        }
+        for(String name: names) {
+            int moved = this.use(name, -1, shard -> shard.manager.archiveTodos(doneBefore, batchSize));
+            if(moved < 0) {
+                return -1;
+            }
+            archived += moved;
+        }
+        return archived;
+    }
+
+    /**
+     * Scans the shard files that have an item due, opening the shards one at a time. The shards
+     * have no users, the owners of their lists are read from the main database once per scan. Each
+     * candidate remembers the shard it was read from.
+     */
+    @Override
+    public boolean streamNotificationCandidates(final Instant alertBefore, final NotificationCandidateCallback callback) {
+        List<String> names = this.shardNames();
+        if(names == null) {
+            return false;
+        }
+        Map<Integer, UserAccount> owners = null;
+        for(String name: names) {
+            Long next = this.alerts.get(name);
+            if(next != null && next > alertBefore.toEpochMilli()) {
+                continue;
+            }
+            if(owners == null) {
+                try {
+                    owners = this.main.getListOwners();
+                } catch(org.springframework.dao.DataAccessException e) {
+                    logger.error("Unable to read the owners of the lists", e);
+                    return false;
+                }
+            }
+            final Map<Integer, UserAccount> listOwners = owners;
+            if(!this.use(name, false, shard -> {
+                boolean scanned = shard.manager.streamNotificationCandidates(alertBefore,
+                        candidate -> callback.process(new NotificationCandidate(listOwners.get(candidate.getListId()),
+                                candidate.getListId(), candidate.getTodo(), candidate.getAlertAt(), name)));
+                if(scanned) {
+                    this.trackAlerts(name, shard.manager);
+                }
+                return scanned;
+            })) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the item back to the shard it was read from, in hash mode that shard holds the list
+     * for as long as the shard count stays the same.
+     */
+    @Override
+    public boolean markNotified(final NotificationCandidate candidate, final OffsetDateTime notifiedAt) {
+        String source = candidate.getSource() != null ? candidate.getSource() : this.shardName(candidate.getListId());
+        return this.use(source, false, shard -> {
+            boolean marked = shard.manager.markNotified(candidate, notifiedAt);
+            this.trackAlerts(source, shard.manager);
+            return marked;
+        });
+    }
+
+    @Override
+    public boolean rescheduleAlert(final NotificationCandidate candidate, final Instant nextAlertAt) {
+        String source = candidate.getSource() != null ? candidate.getSource() : this.shardName(candidate.getListId());
+        return this.use(source, false, shard -> {
+            boolean rescheduled = shard.manager.rescheduleAlert(candidate, nextAlertAt);
+            this.trackAlerts(source, shard.manager);
+            return rescheduled;
+        });
+    }
+
+    /**
+     * Sets the earliest next notification of the shard from its items. Runs after the write under
+     * the lock of the shard, so the last write of the shard is also the last one tracked.
+     */
+    private void trackAlerts(final String name, final DatabaseManagerImpl manager) {
+        synchronized(this.alertLocks.computeIfAbsent(name, key -> new Object())) {
+            try {
+                Long next = manager.getNextAlertAt();
+                Long known = next != null ? next : Long.MAX_VALUE;
+                if(!known.equals(this.alerts.get(name))) {
+                    this.main.setShardAlert(name, next);
+                    this.alerts.put(name, known);
+                }
+            } catch(org.springframework.dao.DataAccessException e) {
+                // scanned until the next write of the shard is tracked
+                this.alerts.remove(name);
+                logger.warn("Unable to track the next notification of shard "+name, e);
+            }
+        }
+    }
+
+    /**
+     * @return names of the shard files on disk, null if the directory could not be read
+     */
+    private List<String> shardNames() {
+        List<String> names = new ArrayList<>();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(this.directory), "*.db")) {
+            for(Path file: files) {
+                String name = file.getFileName().toString();
+                names.add(name.substring(0, name.length() - 3));
+            }
+        } catch(NoSuchFileException e) {
+            logger.debug("No shards in "+this.directory);
+        } catch(IOException e) {
+            logger.error("Unable to list shards in "+this.directory, e);
+            return null;
+        }
+        return names;
+    }
+
+    @Override
+    public TodoPage getArchivedTodos(final int listID, final ArchiveQuery query) {
+        return this.route(listID, null, shard -> shard.getArchivedTodos(listID, query));
+    }
+
+    @Override
+    public TodoChanges getChanges(final int listID, final long since) {
+        return this.route(listID, null, shard -> shard.getChanges(listID, since));
+    }
+
+    @Override
+    public long getChangeSeq(final int listID) {
+        return this.route(listID, -1L, shard -> shard.getChangeSeq(listID));
+    }
+
+    @Override
+    public List<UserAccount> getUsers() {
+        return this.main.getUsers();
+    }
+
+    /**
+     * Shards are migrated when they are opened.
+     */
+    @Override
+    public boolean migrateDatabaseToLatestVersion() {
+        return this.main.migrateDatabaseToLatestVersion();
+    }
+
+    String shardName(final int listId) {
+        if("hash".equalsIgnoreCase(this.mode)) {
+            // spread consecutive list ids, the result must stay the same between releases
+            return "shard-"+Math.floorMod(listId * 0x9E3779B1, this.shardCount);
+        }
+        return "list-"+listId;
+    }
+
+    /**
+     * Reads do not add the list to the shard, a list that was never written has no items there.
+     */
+    private <T> T route(final int listId, final T failed, final Function<DatabaseManagerImpl, T> call) {
+        return this.use(this.shardName(listId), failed, shard -> call.apply(shard.manager));
+    }
+
+    private <T> T routeWrite(final int listId, final T failed, final Function<DatabaseManagerImpl, T> call) {
+        String name = this.shardName(listId);
+        return this.use(name, failed, shard -> {
+            shard.ensureList(listId);
+            T result = call.apply(shard.manager);
+            this.trackAlerts(name, shard.manager);
+            return result;
+        });
+    }
+
+    private <T> T use(final String name, final T failed, final Function<Shard, T> call) {
+        try {
+            while(true) {
+                Shard shard = this.shards.get(name);
+                if(shard.acquire()) {
+                    try {
+                        return call.apply(shard);
+                    } finally {
+                        shard.release();
+                    }
+                }
+            }
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.error("Unable to use shard "+name, e);
+            return failed;
+        }
+    }
+
+    private Shard open(final String name) {
+        Path file = Paths.get(this.directory, name+".db");
+        try {
+            Files.createDirectories(file.getParent());
+        } catch(IOException e) {
+            throw new DataAccessResourceFailureException("Unable to create shard directory "+this.directory, e);
+        }
+        logger.debug("Opening shard "+file);
+        SQLiteConfig sqliteConfig = new SQLiteConfig();
+        sqliteConfig.setBusyTimeout(this.busyTimeout);
+        sqliteConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        HikariConfig config = new HikariConfig();
+        config.setDriverClassName("org.sqlite.JDBC");
+        config.setJdbcUrl("jdbc:sqlite:"+file);
+        config.setDataSourceProperties(sqliteConfig.toProperties());
+        config.setPoolName("tasklist-"+name);
+        config.setMinimumIdle(0);
+        config.setMaximumPoolSize(1);
+        HikariDataSource dataSource = new HikariDataSource(config);
+        DatabaseManagerImpl manager = new DatabaseManagerImpl();
+        manager.setDataSource(dataSource);
+        manager.checkDatabaseVersion();
+        return new Shard(name, dataSource, manager);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        this.shards.invalidateAll();
+        this.shards.cleanUp();
+    }
+
+    @Autowired
+    void setMain(DatabaseManagerImpl main) {
+        if(main.hasItems()) {
+            logger.error("The main database has items, they would be hidden by the shards. DB_SHARD_MODE is only for new deployments.");
+            throw new IllegalStateException("Cannot shard todo items while the main database has items");
+        }
+        this.main = main;
+        try {
+            this.main.createShardAlertsTable();
+            this.alerts.putAll(this.main.getShardAlerts());
+        } catch(org.springframework.dao.DataAccessException e) {
+            logger.error("Unable to read the next notifications of the shards, scanning all of them", e);
+        }
+        logger.info("Sharding todo items by "+this.mode+" in "+this.directory+", keeping up to "+this.openMax+" shards open");
+        this.shards = Caffeine.newBuilder()
+                .maximumSize(this.openMax)
+                // close evicted shards on the calling thread, so shutdown has closed every file when it returns
+                .executor(Runnable::run)
+                .removalListener((String name, Shard shard, RemovalCause cause) -> {
+                    if(shard != null) {
+                        shard.retire();
+                    }
+                })
+                .build(this::open);
+    }
+
+    /**
+     * One open shard file. It is closed when it has been evicted and no call is using it anymore.
+     */
+    private static final class Shard {
+
+        private final String name;
+        private final HikariDataSource dataSource;
+        private final DatabaseManagerImpl manager;
+        private final Set<Integer> lists = ConcurrentHashMap.newKeySet();
+        private int users = 0;
+        private boolean retired = false;
+
+        private Shard(String name, HikariDataSource dataSource, DatabaseManagerImpl manager) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.manager = manager;
+        }
+
+        private synchronized boolean acquire() {
+            if(this.retired) {
+                return false;
+            }
+            this.users++;
+            return true;
+        }
+
+        private synchronized void release() {
+            this.users--;
+            if(this.retired && this.users == 0) {
+                this.close();
+            }
+        }
+
+        private synchronized void retire() {
+            this.retired = true;
+            if(this.users == 0) {
+                this.close();
+            }
+        }
+
+        private void ensureList(final int listId) {
+            if(!this.lists.contains(listId)) {
+                this.manager.ensureList(listId);
+                this.lists.add(listId);
+            }
+        }
+
+        private void close() {
+            logger.debug("Closing shard "+this.name);
+            this.manager.shutdown();
+            this.dataSource.close();
+        }
+    }
+
+}
@@ -0,0 +1,19 @@
+package net.metja.todolist.database;
+
+import java.io.IOException;
+
+import net.metja.todolist.database.bean.Todo;
+
+/**
+ * Receives the items of {@link DatabaseManager#streamTodos(int, TodoFields, TodoCallback)} one at
+ * a time while the result set is read.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+@FunctionalInterface
+public interface TodoCallback {
+
+    void process(Todo todo) throws IOException;
+
+}
@@ -0,0 +1,51 @@
+package net.metja.todolist.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.metja.todolist.database.bean.Todo;
+
+/**
+ * Items of a list that changed after a sequence number, and the ids of the items that were deleted
+ * or archived since. A client passes the returned sequence number to the next request. A reset
+ * carries the whole list, the deletions since the requested number are no longer known.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class TodoChanges {
+
+    private long seq;
+    private boolean reset;
+    private final List<Todo> items = new ArrayList<>();
+    private final List<Integer> deleted = new ArrayList<>();
+
+    public TodoChanges(long seq) {
+        this.seq = seq;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    void setReset(boolean reset) {
+        this.reset = reset;
+    }
+
+    public List<Todo> getItems() {
+        return items;
+    }
+
+    public List<Integer> getDeleted() {
+        return deleted;
+    }
+
+}
@@ -0,0 +1,102 @@
+package net.metja.todolist.database;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Properties of a todo item a client asked for. The id and the parent id are always included,
+ * the hierarchy can not be built without them. Columns of the other properties are read as NULL.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class TodoFields {
+
+    // item properties in the column order of DatabaseManagerImpl.mapTodoItem
+    private static final Map<String, String> COLUMNS = new LinkedHashMap<>();
+    static {
+        COLUMNS.put("id", "ID");
+        COLUMNS.put("parentId", "ParentID");
+        COLUMNS.put("title", "Title");
+        COLUMNS.put("description", "Description");
+        COLUMNS.put("done", "Done");
+        COLUMNS.put("scheduled", "Scheduled");
+        COLUMNS.put("dueDate", "DueDay");
+        COLUMNS.put("dueTime", "DueSecond");
+        COLUMNS.put("dueTimezone", "DueOffset");
+        COLUMNS.put("repeat", "RepeatCode");
+        COLUMNS.put("lastNotification", "LastNotifiedAt");
+        COLUMNS.put("doneAt", "DoneAt");
+    }
+    private static final Set<String> SORT_KEY = new HashSet<>(Arrays.asList("dueDate", "dueTime"));
+    // read for archiving, not written to clients
+    private static final Set<String> INTERNAL = Collections.singleton("doneAt");
+    // not a column, children are linked after the items have been read
+    private static final String CHILDREN = "children";
+
+    public static final TodoFields ALL = new TodoFields(COLUMNS.keySet(), true);
+
+    private final Set<String> properties;
+    private final boolean all;
+
+    private TodoFields(Set<String> properties, boolean all) {
+        this.properties = Collections.unmodifiableSet(properties);
+        this.all = all;
+    }
+
+    /**
+     * @param fields comma separated property names, null for all of them
+     * @throws IllegalArgumentException if a name is not a property of an item
+     */
+    public static TodoFields parse(String fields) {
+        if(fields == null) {
+            return ALL;
+        }
+        Set<String> properties = new LinkedHashSet<>();
+        properties.add("id");
+        properties.add("parentId");
+        StringTokenizer st = new StringTokenizer(fields, ",");
+        while(st.hasMoreTokens()) {
+            String property = st.nextToken().trim();
+            if((!COLUMNS.containsKey(property) || INTERNAL.contains(property)) && !CHILDREN.equals(property)) {
+                throw new IllegalArgumentException("Unknown field "+property);
+            }
+            properties.add(property);
+        }
+        return new TodoFields(properties, false);
+    }
+
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * Property names to serialize, children included only when asked for.
+     */
+    public Set<String> getProperties() {
+        return properties;
+    }
+
+    /**
+     * Column list for the item queries. The due date and time are read even when they are not
+     * asked for, the page cursor is built from them.
+     */
+    String columns() {
+        StringBuilder columns = new StringBuilder();
+        for(Map.Entry<String, String> column: COLUMNS.entrySet()) {
+            if(columns.length() > 0) {
+                columns.append(", ");
+            }
+            boolean read = this.properties.contains(column.getKey()) || SORT_KEY.contains(column.getKey());
+            columns.append(read ? column.getValue() : "NULL");
+        }
+        return columns.toString();
+    }
+
+}
@@ -0,0 +1,92 @@
+package net.metja.todolist.database;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Hands out todo item ids per list. Ids are reserved from the database in blocks by moving
+ * TodoLists.LastItemID forward with a single UPDATE ... RETURNING, so concurrent application
+ * instances never get overlapping ranges. Within one instance the reserved block is handed out
+ * from memory under a lock that is striped by list id, so inserts for different lists do not
+ * wait on each other.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+class TodoItemIdAllocator {
+
+    static final String RESERVE_IDS = "UPDATE TodoLists SET LastItemID = (CASE WHEN COALESCE(LastItemID, 0) > (SELECT COALESCE(MAX(ID), 0) FROM TodoItems WHERE ListID=?) THEN COALESCE(LastItemID, 0) ELSE (SELECT COALESCE(MAX(ID), 0) FROM TodoItems WHERE ListID=?) END) + ? WHERE ID=? RETURNING LastItemID";
+    private static final int STRIPES = 64;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int blockSize;
+    private final Object[] locks = new Object[STRIPES];
+    private final Map<Integer, Range> ranges = new ConcurrentHashMap<>();
+
+    private static Logger logger = LoggerFactory.getLogger(TodoItemIdAllocator.class);
+
+    TodoItemIdAllocator(JdbcTemplate jdbcTemplate, int blockSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.blockSize = Math.max(1, blockSize);
+        for(int i=0; i < STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return next free item id for the list or -1 if the list does not exist
+     */
+    int next(final int listId) {
+        return this.allocate(listId, 1);
+    }
+
+    /**
+     * Allocates a contiguous run of ids.
+     *
+     * @return first id of the run or -1 if the list does not exist
+     */
+    int allocate(final int listId, final int count) {
+        synchronized(this.locks[Math.floorMod(listId, STRIPES)]) {
+            Range range = this.ranges.get(listId);
+            if(range != null && range.last - range.next + 1 >= count) {
+                int first = range.next;
+                range.next += count;
+                return first;
+            }
+            int reserve = Math.max(count, this.blockSize);
+            Integer last = this.jdbcTemplate.query(RESERVE_IDS, rs -> rs.next() ? rs.getInt(1) : null, listId, listId, reserve, listId);
+            if(last == null) {
+                logger.debug("Unable to reserve ids for unknown list "+listId);
+                return -1;
+            }
+            int first = last - reserve + 1;
+            logger.debug("Reserved ids "+first+"-"+last+" for list "+listId);
+            this.ranges.put(listId, new Range(first + count, last));
+            return first;
+        }
+    }
+
+    /**
+     * Drops the ids reserved for the list, e.g. after an insert with one of them failed.
+     */
+    void release(final int listId) {
+        synchronized(this.locks[Math.floorMod(listId, STRIPES)]) {
+            this.ranges.remove(listId);
+        }
+    }
+
+    private static class Range {
+        private int next;
+        private final int last;
+
+        private Range(int next, int last) {
+            this.next = next;
+            this.last = last;
+        }
+    }
+
+}
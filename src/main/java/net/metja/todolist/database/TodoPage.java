@@ -0,0 +1,31 @@
+package net.metja.todolist.database;
+
+import java.util.List;
+
+import net.metja.todolist.database.bean.Todo;
+
+/**
+ * One page of a {@link TodoQuery}. The next cursor is null on the last page.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class TodoPage {
+
+    private final List<Todo> items;
+    private final String nextCursor;
+
+    public TodoPage(List<Todo> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Todo> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+}
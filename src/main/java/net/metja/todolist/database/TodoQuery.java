@@ -0,0 +1,144 @@
+package net.metja.todolist.database;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.Comparator;
+
+import net.metja.todolist.database.bean.Todo;
+
+/**
+ * Filter and page of a todo item listing. Items are ordered by due date, due time and id, items
+ * without a due date or time come after the others. The cursor is the sort key of the last item
+ * of the previous page, encoded so that clients treat it as opaque.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class TodoQuery {
+
+    // sort key of items without a due date or due time, the same values are in the list due index
+    static final long NO_DUE_DAY = Long.MAX_VALUE;
+    static final int NO_DUE_SECOND = 86400;
+    // the same order as the list due index, whole lists are returned and cached in this order
+    static final Comparator<Todo> LIST_ORDER = Comparator.comparingLong(TodoQuery::dueDayKey)
+            .thenComparingInt(TodoQuery::dueSecondKey).thenComparingInt(Todo::getId);
+
+    private Boolean done;
+    private Boolean scheduled;
+    private LocalDate dueFrom;
+    private LocalDate dueTo;
+    private Integer parentId;
+    private int limit = 100;
+    private long afterDueDay;
+    private int afterDueSecond;
+    private int afterId;
+    private boolean after = false;
+    private TodoFields fields = TodoFields.ALL;
+
+    public TodoQuery() {}
+
+    public Boolean getDone() {
+        return done;
+    }
+
+    public void setDone(Boolean done) {
+        this.done = done;
+    }
+
+    public Boolean getScheduled() {
+        return scheduled;
+    }
+
+    public void setScheduled(Boolean scheduled) {
+        this.scheduled = scheduled;
+    }
+
+    public LocalDate getDueFrom() {
+        return dueFrom;
+    }
+
+    public void setDueFrom(LocalDate dueFrom) {
+        this.dueFrom = dueFrom;
+    }
+
+    public LocalDate getDueTo() {
+        return dueTo;
+    }
+
+    public void setDueTo(LocalDate dueTo) {
+        this.dueTo = dueTo;
+    }
+
+    public Integer getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(Integer parentId) {
+        this.parentId = parentId;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public TodoFields getFields() {
+        return fields;
+    }
+
+    public void setFields(TodoFields fields) {
+        this.fields = fields;
+    }
+
+    boolean hasCursor() {
+        return after;
+    }
+
+    long getAfterDueDay() {
+        return afterDueDay;
+    }
+
+    int getAfterDueSecond() {
+        return afterDueSecond;
+    }
+
+    int getAfterId() {
+        return afterId;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor was not returned by {@link #cursorAfter(Todo)}
+     */
+    public void setCursor(String cursor) {
+        if(cursor == null) {
+            this.after = false;
+            return;
+        }
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+        if(parts.length != 3) {
+            throw new IllegalArgumentException("Invalid cursor "+cursor);
+        }
+        this.afterDueDay = Long.parseLong(parts[0]);
+        this.afterDueSecond = Integer.parseInt(parts[1]);
+        this.afterId = Integer.parseInt(parts[2]);
+        this.after = true;
+    }
+
+    static String cursorAfter(final Todo todo) {
+        String key = dueDayKey(todo)+":"+dueSecondKey(todo)+":"+todo.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long dueDayKey(final Todo todo) {
+        return todo.getDueDate() != null ? todo.getDueDate().toEpochDay() : NO_DUE_DAY;
+    }
+
+    private static int dueSecondKey(final Todo todo) {
+        return todo.getDueTime() != null ? todo.getDueTime().toSecondOfDay() : NO_DUE_SECOND;
+    }
+
+}
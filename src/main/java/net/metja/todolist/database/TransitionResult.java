@@ -0,0 +1,14 @@
+package net.metja.todolist.database;
+
+/**
+ * Outcome of a conditional state change of a todo item.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public enum TransitionResult {
+    UPDATED,
+    NOT_FOUND,
+    WRONG_STATE,
+    FAILED
+}
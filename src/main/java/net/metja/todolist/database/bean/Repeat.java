@@ -1,12 +1,16 @@
 package net.metja.todolist.database.bean;
 
+import java.time.LocalDate;
+
 /**
  * @author: Janne Metso @copy; 2022
  * @since: 2022-11-08
  */
 public class Repeat {
 
+    // stored by ordinal in TodoItems.RepeatCode, only append new periods
     public enum TimePeriod { None, Days, Weeks, Months, Years }
+    private static final TimePeriod[] PERIODS = TimePeriod.values();
     private int times;
     private TimePeriod period;
 
@@ -63,6 +67,34 @@ public class Repeat {
         return null;
     }
 
+    /**
+     * Packs the repeat into one integer, the period ordinal in the lowest three bits and times above them.
+     */
+    public int toCode() {
+        return this.times << 3 | (this.period != null ? this.period.ordinal() : 0);
+    }
+
+    public static Repeat fromCode(int code) {
+        int ordinal = code & 7;
+        if(ordinal >= PERIODS.length) {
+            return null;
+        }
+        return new Repeat(code >>> 3, PERIODS[ordinal]);
+    }
+
+    /**
+     * @return the date one repeat after the given date
+     */
+    public LocalDate advance(LocalDate date) {
+        switch(this.period) {
+            case Days: return date.plusDays(this.times);
+            case Weeks: return date.plusWeeks(this.times);
+            case Months: return date.plusMonths(this.times);
+            case Years: return date.plusYears(this.times);
+            default: return date;
+        }
+    }
+
     public String toString() {
         if(this.period == TimePeriod.None) {
             return "No";
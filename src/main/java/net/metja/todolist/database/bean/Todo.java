@@ -24,7 +24,9 @@ public class Todo {
     private boolean done = false;
     private boolean scheduled = false;
     private Repeat repeat;
+    // instants, stored as epoch milliseconds and read back in the time zone of the server
     private OffsetDateTime lastNotification;
+    private OffsetDateTime doneAt;
 
     public Todo() {}
 
@@ -137,4 +139,12 @@ public class Todo {
         this.lastNotification = lastNotification;
     }
 
+    public OffsetDateTime getDoneAt() {
+        return doneAt;
+    }
+
+    public void setDoneAt(OffsetDateTime doneAt) {
+        this.doneAt = doneAt;
+    }
+
 }
\ No newline at end of file
@@ -27,7 +27,7 @@ public class EmailNotificationClient implements NotificationClient {
 
     public EmailNotificationClient() {}
 
-    public void sendNotification(final String SUBJECT, final String MESSAGE, final UserAccount USER) {
+    public void sendNotification(final String SUBJECT, final String MESSAGE, final UserAccount USER) throws MessagingException {
 
         final String SMTP_SERVER = configUtil.getSMTPServer();
         final String USERNAME = configUtil.getSMTPUsername();
@@ -49,22 +49,20 @@ public class EmailNotificationClient implements NotificationClient {
         });
         Message msg = new MimeMessage(session);
 
-        try {
-            msg.setFrom(new InternetAddress(EMAIL_FROM));
-            msg.setRecipients(Message.RecipientType.TO, InternetAddress.parse(EMAIL_TO, false));
-            msg.setSubject(SUBJECT);
-            msg.setText(MESSAGE);
-            msg.setSentDate(new Date());
+        msg.setFrom(new InternetAddress(EMAIL_FROM));
+        msg.setRecipients(Message.RecipientType.TO, InternetAddress.parse(EMAIL_TO, false));
+        msg.setSubject(SUBJECT);
+        msg.setText(MESSAGE);
+        msg.setSentDate(new Date());
 
-            SMTPTransport t = (SMTPTransport) session.getTransport("smtps");
-            logger.debug("Connecting to email server");
-            t.connect(SMTP_SERVER, USERNAME, PASSWORD);
+        SMTPTransport t = (SMTPTransport) session.getTransport("smtps");
+        logger.debug("Connecting to email server");
+        t.connect(SMTP_SERVER, USERNAME, PASSWORD);
+        try {
             t.sendMessage(msg, msg.getAllRecipients());
             logger.debug("Response: " + t.getLastServerResponse());
-
+        } finally {
             t.close();
-        } catch (MessagingException e) {
-            e.printStackTrace();
         }
     }
 
@@ -2,12 +2,17 @@ package net.metja.todolist.notification;
 
 import net.metja.todolist.database.bean.UserAccount;
 
+import javax.mail.MessagingException;
+
 /**
  * @author: Janne Metso @copy; 2020
  * @since: 2020-03-23
  */
 public interface NotificationClient {
 
-    void sendNotification(String subject, String text, UserAccount user);
+    /**
+     * @throws MessagingException if the notification was not sent
+     */
+    void sendNotification(String subject, String text, UserAccount user) throws MessagingException;
 
 }
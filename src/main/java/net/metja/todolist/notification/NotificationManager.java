@@ -1,19 +1,20 @@
 package net.metja.todolist.notification;
 
+import net.metja.todolist.database.AlertSchedule;
 import net.metja.todolist.database.DatabaseManager;
+import net.metja.todolist.database.NotificationCandidate;
 import net.metja.todolist.database.bean.Todo;
-import net.metja.todolist.database.bean.UserAccount;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
-import java.time.LocalDate;
-import java.time.LocalTime;
+import javax.mail.MessagingException;
+
+import java.time.Instant;
 import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoField;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -26,6 +27,8 @@ public class NotificationManager {
 
     @Value("${ENABLE_EMAIL_NOTIFICATIONS:false}")
     private boolean enableEmailNotifications;
+    @Value("${NOTIFICATION_CHECK_INTERVAL:60}")
+    private long checkInterval = 60;
 
     private NotificationClient emailClient;
     private DatabaseManager databaseManager;
@@ -53,174 +56,94 @@ public class NotificationManager {
         emailNotificationTimer.schedule(new TimerTask() {
             @Override
             public void run() {
-                logger.info("Checking notifications ...");
-                OffsetDateTime now = OffsetDateTime.now();
-                List<UserAccount> users = databaseManager.getUsers();
-                logger.debug("Found "+users.size()+" users.");
-                for(UserAccount user: users) {
-                    logger.debug("User "+user.getId()+" - "+user.getUsername());
-                    int listID = databaseManager.getUserList(user.getUsername());
-                    logger.debug("User list id: "+listID);
-                    List<Todo> todos = databaseManager.getTodos(listID);
-                    logger.debug("Found "+todos.size()+" task items.");
-                    for(Todo todo: todos) {
-                        logger.debug("Task "+todo.getId()+" - "+todo.getTitle()+" - scheduled: "+todo.isScheduled());
-                        if(todo.isScheduled() && !todo.isDone() && user.getEmail() != null) {
-                            logger.debug("Task "+todo.getId()+" is scheduled and not done.");
-                            if(sendAlert(user, todo, now)) {
-                                logger.debug("Updating todo "+todo.getId()+" with last notification date");
-                                todo.setLastNotification(OffsetDateTime.now());
-                                boolean success = databaseManager.updateTodo(listID, todo);
-                                logger.debug("Updated todo: "+success);
-                            }
-                        }
-                    }
+                // an exception would cancel the timer and with it every later check
+                try {
+                    checkNotifications();
+                } catch(RuntimeException e) {
+                    logger.error("Checking notifications failed", e);
                 }
-                logger.info("Checking notifications done");
             }
-        }, 0, 7200000);
+        }, 0, this.checkInterval * 1000);
         logger.info("Configuring email notifications done");
     }
 
-    private boolean sendAlert(final UserAccount user, Todo todo, final OffsetDateTime now) {
-        OffsetDateTime lastNotificationDate = todo.getLastNotification();
-        logger.debug("Last notification date: "+lastNotificationDate);
-        if(this.isOverdue(now, todo) && (lastNotificationDate == null
-                || !hasAlreadyBeenNotifiedToday(now, lastNotificationDate))) {
-            logger.debug("Sending notification for overdue");
-            if(todo.getDescription() != null) {
-                this.emailClient.sendNotification("Task " + todo.getTitle() + " is overdue!", "Task " + todo.getTitle() + " is overdue!\n\nDescription: " + todo.getDescription(), user);
-            } else {
-                this.emailClient.sendNotification("Task " + todo.getTitle() + " is overdue!", "Task " + todo.getTitle() + " is overdue!", user);
-            }
-            return true;
-        } else  if(this.isDueToday(now, todo) && (lastNotificationDate == null
-                || !hasAlreadyBeenNotifiedToday(now, lastNotificationDate))) {
-            logger.debug("Sending notification for today");
-            if(todo.getDescription() != null) {
-                this.emailClient.sendNotification("Task " + todo.getTitle() + " is due today!", "Task " + todo.getTitle() + " is due today!\n\n" + todo.getDescription(), user);
-            } else {
-                this.emailClient.sendNotification("Task " + todo.getTitle() + " is due today!", "Task " + todo.getTitle() + " is due today!", user);
-            }
-            return true;
-        } else if(this.isDueTomorrow(now, todo) && (lastNotificationDate == null
-                || !hasAlreadyBeenNotifiedToday(now, lastNotificationDate))) {
-            logger.debug("Sending notification for tomorrow");
-            if(todo.getDescription() != null) {
-                this.emailClient.sendNotification("Task " + todo.getTitle() + " is due tomorrow!", "Task " + todo.getTitle() + " is due tomorrow!\n\n" + todo.getDescription(), user);
-            } else {
-                this.emailClient.sendNotification("Task " + todo.getTitle() + " is due tomorrow!", "Task " + todo.getTitle() + " is due tomorrow!", user);
+    /**
+     * Reads the open items whose next notification is due, see {@link AlertSchedule}, then sends
+     * the alerts. The alerts are sent only after the scan, so no read is held open while the mail
+     * server is waited for. Each item is marked notified after its alert has been sent, an alert
+     * that could not be sent is tried again on the next check. An item that has no message yet is
+     * rescheduled to when it first has one, so it is not read on every check until then.
+     */
+    void checkNotifications() {
+        logger.debug("Checking notifications ...");
+        Instant now = Instant.now();
+        List<NotificationCandidate> candidates = new ArrayList<>();
+        boolean success = databaseManager.streamNotificationCandidates(now, candidate -> {
+            if(candidate.getUser() != null && candidate.getUser().getEmail() != null) {
+                candidates.add(candidate);
             }
-            return true;
-        } else if(this.isDueWithinSevenDays(now, todo) && (lastNotificationDate == null
-                || !hasAlreadyBeenNotifiedThisWeek(now, lastNotificationDate))) {
-            logger.debug("Sending notification for next 7 days");
-            String text = "Task " + todo.getTitle() + " is due on "+todo.getDueDate().format(DateTimeFormatter.ISO_DATE)+"!";
-            if(todo.getDescription() != null) {
-                text += "\n\n" + todo.getDescription();
-            }
-            this.emailClient.sendNotification("Task " + todo.getTitle() + " is due in next 7 days", text, user);
-            return true;
+        });
+        if(!success) {
+            logger.warn("Unable to read the tasks to notify about");
+            return;
         }
-        return false;
-    }
-
-    private boolean hasAlreadyBeenNotifiedThisWeek(final OffsetDateTime now, final OffsetDateTime notificationDate) {
-        OffsetDateTime adjusted = now.minusDays(7);
-        int result = adjusted.compareTo(notificationDate);
-        logger.debug("Has already been notified this week: "+result);
-        if(result > 0 ) {
-            return false;
-        } else {
-            return true;
-        }
-    }
-
-    private boolean hasAlreadyBeenNotifiedToday(final OffsetDateTime now, final OffsetDateTime notificationDate) {
-        int result = now.toLocalDate().compareTo(notificationDate.toLocalDate());
-        if(result == 0) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    private boolean isDueWithinSevenDays(final OffsetDateTime now, final Todo todo) {
-        if(!todo.isScheduled()) {
-            logger.debug("Todo is not scheduled!");
-            return false;
-        } else {
-            LocalDate dueDate = todo.getDueDate();
-            ZoneOffset zoneOffset = now.getOffset();
-            if(todo.getDueTimezone() != null) {
-                zoneOffset = todo.getDueTimezone();
+        logger.debug("Found "+candidates.size()+" task items to notify about.");
+        for(NotificationCandidate candidate: candidates) {
+            Todo todo = candidate.getTodo();
+            logger.debug("Task "+todo.getId()+" - "+todo.getTitle()+" - scheduled: "+todo.isScheduled());
+            AlertSchedule.Kind kind = !todo.isDone() ? AlertSchedule.kindAt(todo, now) : null;
+            if(kind == null) {
+                // otherwise read again on every check
+                Instant next = !todo.isDone() ? AlertSchedule.firstAlert(todo) : null;
+                if(next != null && !next.isAfter(now)) {
+                    next = null;
+                }
+                logger.debug("Task "+todo.getId()+" is not due for a notification, next one at "+next);
+                if(!databaseManager.rescheduleAlert(candidate, next)) {
+                    logger.info("Task "+todo.getId()+" in list "+candidate.getListId()+" changed since it was read or could not be updated, not rescheduling");
+                }
+                continue;
             }
-            logger.debug("Now: "+now);
-            OffsetDateTime adjustedNow = now.plusSeconds((zoneOffset.get(ChronoField.OFFSET_SECONDS)-now.get(ChronoField.OFFSET_SECONDS)));
-            adjustedNow = adjustedNow.plusDays(7);
-            logger.debug("Adjusted: "+adjustedNow);
-            LocalDate plusSevenDate = LocalDate.of(adjustedNow.getYear(), adjustedNow.getMonth(), adjustedNow.getDayOfMonth());
-            int result = plusSevenDate.compareTo(dueDate);
-            return result >= 0;
-        }
-    }
-
-    private boolean isDueTomorrow(final OffsetDateTime now, final Todo todo) {
-        if(!todo.isScheduled()) {
-            logger.debug("Todo is not scheduled!");
-            return false;
-        } else {
-            LocalDate dueDate = todo.getDueDate();
-            ZoneOffset zoneOffset = now.getOffset();
-            if(todo.getDueTimezone() != null) {
-                zoneOffset = todo.getDueTimezone();
+            logger.debug("Sending notification for "+kind);
+            try {
+                this.emailClient.sendNotification(subject(kind, todo), text(kind, todo), candidate.getUser());
+            } catch(MessagingException e) {
+                logger.warn("Unable to send the notification of task "+todo.getId()+" in list "+candidate.getListId()+", trying again on the next check", e);
+                continue;
+            }
+            logger.debug("Updating todo "+todo.getId()+" with last notification date");
+            if(!databaseManager.markNotified(candidate, OffsetDateTime.now())) {
+                logger.info("Task "+todo.getId()+" in list "+candidate.getListId()+" changed since it was read or could not be updated, it may be notified again");
             }
-            OffsetDateTime adjustedNow = now.plusSeconds((zoneOffset.get(ChronoField.OFFSET_SECONDS)-now.get(ChronoField.OFFSET_SECONDS)));
-            adjustedNow = adjustedNow.plusDays(1);
-            LocalDate tomorrowDate = LocalDate.of(adjustedNow.getYear(), adjustedNow.getMonth(), adjustedNow.getDayOfMonth());
-            int result = tomorrowDate.compareTo(dueDate);
-            return result == 0;
         }
+        logger.debug("Checking notifications done");
     }
 
-    private boolean isDueToday(final OffsetDateTime now, final Todo todo) {
-        if(!todo.isScheduled()) {
-            logger.debug("Todo is not scheduled!");
-            return false;
-        } else {
-            LocalDate dueDate = todo.getDueDate();
-            ZoneOffset zoneOffset = now.getOffset();
-            if(todo.getDueTimezone() != null) {
-                 zoneOffset = todo.getDueTimezone();
-            }
-            OffsetDateTime adjustedNow = now.plusSeconds((zoneOffset.get(ChronoField.OFFSET_SECONDS)-now.get(ChronoField.OFFSET_SECONDS)));
-            LocalDate todayDate = LocalDate.of(adjustedNow.getYear(), adjustedNow.getMonth(), adjustedNow.getDayOfMonth());
-            int result = todayDate.compareTo(dueDate);
-            return result == 0;
+    private static String subject(final AlertSchedule.Kind kind, final Todo todo) {
+        switch(kind) {
+            case OVERDUE:
+                return "Task " + todo.getTitle() + " is overdue!";
+            case TODAY:
+                return "Task " + todo.getTitle() + " is due today!";
+            case TOMORROW:
+                return "Task " + todo.getTitle() + " is due tomorrow!";
+            default:
+                return "Task " + todo.getTitle() + " is due in next 7 days";
         }
     }
 
-    private boolean isOverdue(final OffsetDateTime now, final Todo todo) {
-        if(!todo.isScheduled()) {
-            logger.debug("Todo is not scheduled!");
-            return false;
-        } else {
-            LocalDate dueDate = todo.getDueDate();
-            ZoneOffset zoneOffset = now.getOffset();
-            LocalTime dueTime = todo.getDueTime();
-            if(dueTime == null) {
-                dueTime = LocalTime.of(now.getHour(), now.getMinute(), now.getSecond(), now.getNano());
-            }
-            if(todo.getDueTimezone() != null) {
-                zoneOffset = todo.getDueTimezone();
-            }
-            OffsetDateTime adjustedNow = now.plusSeconds((zoneOffset.get(ChronoField.OFFSET_SECONDS)-now.get(ChronoField.OFFSET_SECONDS)));
-            OffsetDateTime due = OffsetDateTime.of(dueDate, dueTime, zoneOffset);
-            logger.debug("Adjusted: "+adjustedNow);
-            logger.debug("Due: "+due);
-            int result = adjustedNow.compareTo(due);
-            return result > 0;
+    private static String text(final AlertSchedule.Kind kind, final Todo todo) {
+        String text;
+        switch(kind) {
+            case OVERDUE:
+                return todo.getDescription() != null ? subject(kind, todo) + "\n\nDescription: " + todo.getDescription() : subject(kind, todo);
+            case WEEK:
+                text = "Task " + todo.getTitle() + " is due on "+todo.getDueDate().format(DateTimeFormatter.ISO_DATE)+"!";
+                break;
+            default:
+                text = subject(kind, todo);
         }
+        return todo.getDescription() != null ? text + "\n\n" + todo.getDescription() : text;
     }
 
     @Autowired
@@ -1,5 +1,6 @@
 var data = {
     todoItems: [],
+    changeSeq: 0,
     newItem: { },
     newItemBase: { "id": -1, "parentId": -1, "title": "", "description": "", "done": false, "scheduled": false, "dueDate": "", "repeat": { "times": 0, "period": "None" }, "dueDate": "", "dueTime": "", "dueTimezone": ""  },
     editItem: {  },
@@ -15,6 +16,9 @@ var data = {
     newScheduleTimesMenuOpen: false
 }
 
+// properties shown in the collapsed rows, the description is loaded when a row is expanded
+var LIST_FIELDS = 'title,done,scheduled,dueDate,dueTime,dueTimezone,repeat'
+
 Vue.component('todoitem', {
     props: ['item'],
     computed: {
@@ -33,9 +37,9 @@ Vue.component('todoitem', {
                 '<div class="pf-l-grid pf-m-gutter">'+
                 '<div class="pf-l-grid__item pf-m-12-col pf-m-5-col-on-lg pf-m-6-col-on-xl pf-m-8-col-on-2xl">'+
                   '<div class="pf-l-flex">'+
-                    '<div class="pf-l-flex__item">{{ item.title }}</div>'+
-                    '<div class="pf-l-flex__item" v-if="item.description != null && item.description.length > 0">-</div>'+
-                    '<div class="pf-l-flex__item" v-if="item.description != null && item.description.length > 0">{{ item.description }}</div>'+
+                    '<div class="pf-l-flex__item todo-expand" style="cursor: pointer;">{{ item.title }}</div>'+
+                    '<div class="pf-l-flex__item" v-if="item.expanded && item.description != null && item.description.length > 0">-</div>'+
+                    '<div class="pf-l-flex__item" v-if="item.expanded && item.description != null && item.description.length > 0">{{ item.description }}</div>'+
                   '</div>'+
                 '</div>'+
                 '<div class="pf-l-grid__item pf-m-6-col pf-m-3-col-on-sm pf-m-2-col-on-lg pf-m-1-col-on-xl" v-if="isRepeating">Every {{ item.repeat.times }} {{ item.repeat.period }}</div>'+
@@ -236,7 +240,9 @@ function processActiveItemClick(element) {
     while(current.parentElement != null) {
         console.log(current.id)
         console.log(current.parentElement)
-        if(current.classList.contains('pf-m-primary')) {
+        if(current.classList.contains('todo-expand')) {
+            action = 'expand'
+        } else if(current.classList.contains('pf-m-primary')) {
             action = 'complete'
         } else if(current.classList.contains('pf-m-secondary')) {
             action = 'edit'
@@ -250,7 +256,9 @@ function processActiveItemClick(element) {
         current = current.parentElement
     }
 
-    if(action == 'complete') {
+    if(action == 'expand') {
+        expandItem(id)
+    } else if(action == 'complete') {
         //console.log(id+" primary!")
         completeItem(id)
         getItems()
@@ -267,13 +275,49 @@ function editItem(itemId) {
     for(var i=0; i < data.todoItems.length; i++) {
         if(data.todoItems[i].id == itemId) {
             //console.log("id: "+data.editItem.id)
-            data.editItem = data.todoItems[i]
-            data.showEditItemWizard = true
+            var item = data.todoItems[i]
+            // an update writes back every property, the ones left out of the list included
+            loadDetails(item, function() {
+                data.editItem = item
+                data.showEditItemWizard = true
+            })
+            break;
+        }
+    }
+}
+
+function expandItem(itemId) {
+    for(var i=0; i < data.todoItems.length; i++) {
+        if(data.todoItems[i].id == itemId) {
+            var item = data.todoItems[i]
+            if(item.expanded) {
+                item.expanded = false
+            } else {
+                loadDetails(item, function() {
+                    Vue.set(item, 'expanded', true)
+                })
+            }
             break;
         }
     }
 }
 
+// the properties not in LIST_FIELDS
+function loadDetails(item, done) {
+    if(item.description !== undefined) {
+        done()
+        return
+    }
+    $.getJSON('./api/v1/items/'+item.id+(window.location.search.length > 0 ? window.location.search+'&' : '?')+'fields=description,lastNotification', function(result) {
+        Vue.set(item, 'lastNotification', result.lastNotification)
+        Vue.set(item, 'description', result.description)
+        done()
+    }).fail(function(jqXHR, textStatus, errorThrown) {
+        console.error('Failed to get item '+item.id+': '+textStatus)
+        publishDangerAlert('alertdd', 'Failed to get item!', 5000)
+    })
+}
+
 function activateItem(id) {
     //console.log('/api/v1/items/'+id+'/activate')
     $.getJSON('./api/v1/items/'+id+'/activate'+window.location.search, function(result) {
@@ -320,6 +364,10 @@ function deactivateItem(id) {
 
 function processInactiveItemClick(element) {
     //console.log(element)
+    if($(element).hasClass('todo-expand')) {
+        expandItem($(element).closest('[id]').attr('id'))
+        return
+    }
     var target = element
     var id = element.parentElement.parentElement.parentElement.id
     if("I" == element.tagName) {
@@ -397,9 +445,12 @@ function completeItem(id) {
 }
 
 function getItems() {
-    //console.log("./api/v1/items")
-    $.getJSON("./api/v1/items"+window.location.search, function(result) {
-        data.todoItems = result
+    // only the items changed since the last refresh are fetched, since 0 fetches all of them
+    var search = window.location.search
+    var query = (search.length > 0 ? search+'&' : '?')+'since='+data.changeSeq+'&fields='+LIST_FIELDS
+    //console.log("./api/v1/items/changes"+query)
+    $.getJSON("./api/v1/items/changes"+query, function(result) {
+        applyChanges(result)
     }).fail(function(jqXHR, textStatus, errorThrown) {
         //console.log("Status: "+jqXHR.status)
         console.error("Failed to get items: "+textStatus)
@@ -415,10 +466,52 @@ function getItems() {
         } else {
             publishDangerAlert('alertdi', 'Failed to get items!', 5000)
             data.todoItems = []
+            data.changeSeq = 0
         }
     })
 }
 
+function applyChanges(changes) {
+    var removed = {}
+    for(var i=0; i < changes.deleted.length; ++i) {
+        removed[changes.deleted[i]] = true
+    }
+    for(var i=0; i < changes.items.length; ++i) {
+        removed[changes.items[i].id] = true
+    }
+    var items = []
+    // a reset brings the whole list, the deletions before it are not known
+    if(data.changeSeq > 0 && !changes.reset) {
+        items = data.todoItems.filter(function(todoItem) {
+            return !removed[todoItem.id]
+        })
+    }
+    items = items.concat(changes.items)
+    items.sort(compareDueDates)
+    data.todoItems = items
+    data.changeSeq = changes.seq
+}
+
+// the list order of the server: due date, due time and id, items without a due date or time last
+function compareDueDates(t1, t2) {
+    var byDate = compareMissingLast(t1.dueDate, t2.dueDate)
+    if(byDate != 0) {
+        return byDate
+    }
+    var byTime = compareMissingLast(t1.dueTime, t2.dueTime)
+    if(byTime != 0) {
+        return byTime
+    }
+    return t1.id - t2.id
+}
+
+function compareMissingLast(v1, v2) {
+    if(!v1 || !v2) {
+        return (v1 ? -1 : 0) + (v2 ? 1 : 0)
+    }
+    return v1 == v2 ? 0 : (v1 < v2 ? -1 : 1)
+}
+
 // New item wizard shit
 function validateWizardPageOne(prefix, item) {
     if(item.title === "") {
@@ -557,6 +650,7 @@ function getUser() {
         data.user = result.user;
         getVersion()
         getItems()
+        subscribeItemChanges()
     }, "json").fail(function(jqXHR, textStatus, errorThrown) {
         publishDangerAlert('alertdu', 'Failed to get user!', 5000)
         console.error("Failed to get user: "+textStatus);
@@ -564,6 +658,26 @@ function getUser() {
 }
 getUser()
 
+function subscribeItemChanges() {
+    if(typeof(EventSource) === "undefined") {
+        return
+    }
+    // the browser reconnects by itself, a refresh then fetches whatever was missed
+    var refresh = null
+    var source = new EventSource("./api/v1/items/stream"+window.location.search)
+    source.addEventListener('change', function(event) {
+        if(refresh == null) {
+            refresh = setTimeout(function() {
+                refresh = null
+                getItems()
+            }, 100)
+        }
+    })
+    source.onopen = function() {
+        getItems()
+    }
+}
+
 function getVersion() {
     $.getJSON("./api/v1/version"+window.location.search, function(result) {
         data.version = result.version;
@@ -0,0 +1,118 @@
+package net.metja.todolist.configuration;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import net.metja.todolist.database.bean.Repeat;
+import net.metja.todolist.database.bean.Todo;
+
+/**
+ * Compares the JSON and the CBOR representation of an item list, serialization and parsing time
+ * here and the payload sizes printed by the main method before the run.
+ * Not run by surefire, start it from the main method after mvn test-compile.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final TypeReference<List<Todo>> TODO_LIST = new TypeReference<List<Todo>>() {};
+
+    @Param({"100", "1000"})
+    private int items;
+
+    private ObjectMapper json;
+    private ObjectMapper cbor;
+    private List<Todo> todos;
+    private byte[] jsonBytes;
+    private byte[] cborBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        // the JSON mapper is configured like the Spring Boot default, dates as ISO strings
+        this.json = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+        this.cbor = new WireFormatConfiguration().cborHttpMessageConverter(Jackson2ObjectMapperBuilder.json()).getObjectMapper();
+        this.todos = todos(this.items);
+        this.jsonBytes = this.json.writeValueAsBytes(this.todos);
+        this.cborBytes = this.cbor.writeValueAsBytes(this.todos);
+    }
+
+    static List<Todo> todos(int count) {
+        List<Todo> todos = new ArrayList<>(count);
+        for(int id=1; id <= count; id++) {
+            Todo todo = new Todo(id, id % 3 == 1 ? -1 : id - 1, "Item "+id);
+            todo.setDescription("Description of item "+id);
+            todo.setScheduled(id % 2 == 0);
+            todo.setDueDate(LocalDate.of(2026, 1, 1).plusDays(id % 365));
+            todo.setDueTime(LocalTime.of(id % 24, 0));
+            todo.setDueTimezone(ZoneOffset.ofHours(2));
+            todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
+            todo.setLastNotification(OffsetDateTime.of(2026, 1, 1, 8, 0, 0, 0, ZoneOffset.UTC));
+            todos.add(todo);
+        }
+        return todos;
+    }
+
+    @Benchmark
+    public byte[] writeJson() throws IOException {
+        return this.json.writeValueAsBytes(this.todos);
+    }
+
+    @Benchmark
+    public byte[] writeCbor() throws IOException {
+        return this.cbor.writeValueAsBytes(this.todos);
+    }
+
+    @Benchmark
+    public List<Todo> readJson() throws IOException {
+        return this.json.readValue(this.jsonBytes, TODO_LIST);
+    }
+
+    @Benchmark
+    public List<Todo> readCbor() throws IOException {
+        return this.cbor.readValue(this.cborBytes, TODO_LIST);
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        for(String items: new String[] {"100", "1000"}) {
+            WireFormatBenchmark benchmark = new WireFormatBenchmark();
+            benchmark.items = Integer.parseInt(items);
+            benchmark.setUp();
+            System.out.println(items+" items: JSON "+benchmark.jsonBytes.length+" bytes, CBOR "+benchmark.cborBytes.length+" bytes");
+        }
+        new Runner(new OptionsBuilder().include(WireFormatBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -1,9 +1,22 @@
 package net.metja.todolist.controller;
 
 import net.metja.todolist.configuration.TestSecurityConfiguration;
+import net.metja.todolist.configuration.WireFormatConfiguration;
+import net.metja.todolist.database.ArchiveQuery;
+import net.metja.todolist.database.AsyncDatabaseManagerImpl;
 import net.metja.todolist.database.DatabaseManager;
+import net.metja.todolist.database.TodoCallback;
+import net.metja.todolist.database.TodoChanges;
+import net.metja.todolist.database.TodoFields;
+import net.metja.todolist.database.TodoPage;
+import net.metja.todolist.database.TodoQuery;
+import net.metja.todolist.database.TransitionResult;
 import net.metja.todolist.database.bean.Repeat;
 import net.metja.todolist.database.bean.Todo;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,10 +28,17 @@ import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.ResultHandler;
+import org.springframework.test.web.servlet.ResultMatcher;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
 
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
@@ -28,7 +48,11 @@ import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -39,7 +63,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(ItemController.class)
 @AutoConfigureMockMvc
-@ContextConfiguration(classes = {TestSecurityConfiguration.class, ItemController.class})
+@ContextConfiguration(classes = {TestSecurityConfiguration.class, WireFormatConfiguration.class, ItemController.class, TodoFieldsAdvice.class, AsyncDatabaseManagerImpl.class, ItemEventBroker.class})
 public class ItemControllerTest {
 
     @Autowired
@@ -58,7 +82,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("user")).willReturn(1);
         given(databaseManager.getTodos(1)).willReturn(todoList);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", hasSize(1)))
@@ -74,6 +98,50 @@ public class ItemControllerTest {
                 .andExpect(jsonPath("$[0].description", nullValue()));
     }
 
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemsAsCbor() throws Exception {
+        Todo todo = new Todo(1, -1, "Task");
+        todo.setDueDate(LocalDate.of(2020, 1, 2));
+        todo.setDueTime(LocalTime.of(12, 30));
+        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
+
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getTodos(1)).willReturn(Arrays.asList(todo));
+
+        MvcResult result = this.perform(MockMvcRequestBuilders.get("/api/v1/items")
+                .accept(MediaType.APPLICATION_CBOR_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MediaType.APPLICATION_CBOR_VALUE))
+                .andReturn();
+        JsonNode items = new ObjectMapper(new CBORFactory()).readTree(result.getResponse().getContentAsByteArray());
+        assertEquals(1, items.size(), "Items");
+        assertEquals("Task", items.get(0).get("title").asText(), "Title");
+        assertEquals("[2020,1,2]", items.get(0).get("dueDate").toString(), "Due date");
+        assertEquals("[12,30]", items.get(0).get("dueTime").toString(), "Due time");
+        assertEquals(new Repeat(1, Repeat.TimePeriod.Weeks).toCode(), items.get(0).get("repeat").asInt(), "Repeat code");
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemsRootsOnly() throws Exception {
+        Todo parent = new Todo(1, -1, "Parent");
+        Todo child = new Todo(2, 1, "Child");
+        parent.getChildren().add(child);
+        List<Todo> todoList = Arrays.asList(parent);
+
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getTodos(1, true)).willReturn(todoList);
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").param("roots", "true")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(1)))
+                .andExpect(jsonPath("$[0].children", hasSize(1)))
+                .andExpect(jsonPath("$[0].children[0].id", is(2)));
+    }
+
     @Test
     @WithUserDetails("admin")
     public void getTodoItemsAsAdmin() throws Exception {
@@ -84,7 +152,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("admin")).willReturn(1);
         given(databaseManager.getTodos(1)).willReturn(todoList);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", hasSize(1)))
@@ -109,14 +177,15 @@ public class ItemControllerTest {
         Todo t2 = new Todo(2, -1, "Task2");
         t2.setScheduled(true);
         t2.setDueDate(LocalDate.parse("2023-03-10"));
-        Todo t3 = new Todo(2, -1, "Task3");
-        Todo t4 = new Todo(2, -1, "Task4");
-        List<Todo> todoList = Arrays.asList(t3, t4, t1, t2);
+        Todo t3 = new Todo(3, -1, "Task3");
+        Todo t4 = new Todo(4, -1, "Task4");
+        // the database returns the list order, the controller keeps it
+        List<Todo> todoList = Arrays.asList(t2, t1, t3, t4);
 
         given(databaseManager.getUserList("view")).willReturn(1);
         given(databaseManager.getTodos(1)).willReturn(todoList);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", hasSize(4)))
@@ -150,12 +219,297 @@ public class ItemControllerTest {
     public void getTodoItems_UnknownUser() throws Exception {
         given(databaseManager.getUserList("unknown")).willReturn(-1);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items")
                 .with(httpBasic("unknown", "unknown"))
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isUnauthorized());
     }
 
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemsPage() throws Exception {
+        Todo todo = new Todo(2, 1, "Child");
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getTodos(eq(1), any(TodoQuery.class))).willReturn(new TodoPage(Arrays.asList(todo), "next"));
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items")
+                .param("done", "false").param("parent", "1").param("dueFrom", "2020-01-01").param("limit", "1")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "next"))
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(2)));
+        verify(databaseManager).getTodos(eq(1), argThat((TodoQuery query) -> Boolean.FALSE.equals(query.getDone())
+                && query.getScheduled() == null && Integer.valueOf(1).equals(query.getParentId())
+                && LocalDate.of(2020, 1, 1).equals(query.getDueFrom()) && query.getLimit() == 1));
+        verify(databaseManager, never()).getTodos(anyInt());
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemsPage_LastPage() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getTodos(eq(1), any(TodoQuery.class))).willReturn(new TodoPage(Arrays.asList(), null));
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").param("scheduled", "true")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"))
+                .andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemsPage_BadRequest() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").param("cursor", "not a cursor")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isBadRequest());
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").param("limit", "0")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isBadRequest());
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").param("limit", "501")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isBadRequest());
+        verify(databaseManager, never()).getTodos(anyInt(), any(TodoQuery.class));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItems_ETag() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getChangeSeq(1)).willReturn(7L);
+        given(databaseManager.getTodos(1)).willReturn(new LinkedList<>(Arrays.asList(new Todo(1, -1, "Task"))));
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-7-json\""))
+                .andExpect(jsonPath("$", hasSize(1)));
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items")
+                .accept(MediaType.APPLICATION_CBOR_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MediaType.APPLICATION_CBOR_VALUE))
+                .andExpect(header().string("ETag", "\"1-7-cbor\""));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItems_NotModified() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getChangeSeq(1)).willReturn(7L);
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").header("If-None-Match", "\"1-6-json\", W/\"1-7-json\"")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"1-7-json\""));
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").param("done", "false").header("If-None-Match", "\"1-7-json\"")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isNotModified());
+        verify(databaseManager, never()).getTodos(anyInt());
+        verify(databaseManager, never()).getTodos(anyInt(), any(TodoQuery.class));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItems_OtherRepresentationModified() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getChangeSeq(1)).willReturn(7L);
+        given(databaseManager.getTodos(1)).willReturn(new LinkedList<>(Arrays.asList(new Todo(1, -1, "Task"))));
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").header("If-None-Match", "\"1-7-json\"")
+                .accept(MediaType.APPLICATION_CBOR_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"1-7-cbor\""));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItems_UnknownChangeSeq() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getChangeSeq(1)).willReturn(-1L);
+        given(databaseManager.getTodos(1)).willReturn(new LinkedList<>());
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").header("If-None-Match", "*")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("ETag"));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void streamTodoItems() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.streamTodos(eq(1), eq(TodoFields.ALL), any(TodoCallback.class))).willAnswer(invocation -> {
+            TodoCallback callback = invocation.getArgument(2);
+            callback.process(new Todo(1, -1, "First"));
+            callback.process(new Todo(2, 1, "Second"));
+            return true;
+        });
+
+        MvcResult result = this.perform(MockMvcRequestBuilders.get("/api/v1/items").param("stream", "true")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andReturn();
+        result.getAsyncResult();
+        String body = result.getResponse().getContentAsString();
+        assertTrue(body.startsWith("[{\"id\":1,"), body);
+        assertTrue(body.contains("},{\"id\":2,\"parentId\":1,"), body);
+        assertTrue(body.endsWith("}]"), body);
+        verify(databaseManager, never()).getTodos(anyInt());
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemChanges() throws Exception {
+        TodoChanges changes = new TodoChanges(12);
+        changes.getItems().add(new Todo(2, -1, "Changed"));
+        changes.getDeleted().add(3);
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getChanges(1, 10)).willReturn(changes);
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/changes").param("since", "10")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.seq", is(12)))
+                .andExpect(jsonPath("$.items", hasSize(1)))
+                .andExpect(jsonPath("$.items[0].id", is(2)))
+                .andExpect(jsonPath("$.deleted[0]", is(3)));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemsFields() throws Exception {
+        Todo parent = new Todo(1, -1, "Parent");
+        parent.setDescription("Long notes");
+        Todo child = new Todo(2, 1, "Child");
+        parent.getChildren().add(child);
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getTodos(1)).willReturn(Arrays.asList(parent, child));
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").param("fields", "title,done")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id", is(1)))
+                .andExpect(jsonPath("$[0].parentId", is(-1)))
+                .andExpect(jsonPath("$[0].title", is("Parent")))
+                .andExpect(jsonPath("$[0].done", is(false)))
+                .andExpect(jsonPath("$[0].description").doesNotExist())
+                .andExpect(jsonPath("$[0].repeat").doesNotExist())
+                .andExpect(jsonPath("$[0].children").doesNotExist());
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").param("fields", "title,password")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemsFields_Page() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getTodos(eq(1), any(TodoQuery.class))).willReturn(new TodoPage(Arrays.asList(new Todo(1, -1, "Task")), null));
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items").param("limit", "10").param("fields", "title")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].title", is("Task")))
+                .andExpect(jsonPath("$[0].done").doesNotExist());
+        verify(databaseManager).getTodos(eq(1), argThat((TodoQuery query) -> query.getFields().getProperties().contains("title")
+                && !query.getFields().getProperties().contains("description")));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoListItem() throws Exception {
+        Todo todo = new Todo(2, -1, "Task");
+        todo.setDescription("Long notes");
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getTodo(1, 2)).willReturn(todo);
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/2").param("fields", "description")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", is(2)))
+                .andExpect(jsonPath("$.description", is("Long notes")))
+                .andExpect(jsonPath("$.title").doesNotExist());
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/3")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemChangesFields() throws Exception {
+        TodoChanges changes = new TodoChanges(12);
+        Todo todo = new Todo(2, -1, "Changed");
+        todo.setDescription("Long notes");
+        changes.getItems().add(todo);
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getChanges(1, 0)).willReturn(changes);
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/changes").param("fields", "title")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.seq", is(12)))
+                .andExpect(jsonPath("$.items[0].title", is("Changed")))
+                .andExpect(jsonPath("$.items[0].description").doesNotExist());
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemChanges_BadRequest() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/changes").param("since", "-1")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isBadRequest());
+        verify(databaseManager, never()).getChanges(anyInt(), anyLong());
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getArchivedItems() throws Exception {
+        Todo todo = new Todo(3, -1, "Archived");
+        todo.setDone(true);
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getArchivedTodos(eq(1), any(ArchiveQuery.class))).willReturn(new TodoPage(Arrays.asList(todo), "next"));
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/archive").param("limit", "1")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "next"))
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(3)));
+        verify(databaseManager).getArchivedTodos(eq(1), argThat((ArchiveQuery query) -> query.getLimit() == 1));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getArchivedItems_BadRequest() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/archive").param("cursor", "not a cursor")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isBadRequest());
+        this.perform(MockMvcRequestBuilders.get("/api/v1/archive").param("limit", "501")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isBadRequest());
+        verify(databaseManager, never()).getArchivedTodos(anyInt(), any(ArchiveQuery.class));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItems_DatabaseFailure() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.getTodos(1)).willThrow(new IllegalStateException("broken"));
+
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isInternalServerError());
+    }
+
     @Test
     @WithUserDetails("user")
     public void getTodoItems_NoList() throws Exception {
@@ -166,7 +520,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("user")).willReturn(-1);
         given(databaseManager.getTodos(1)).willReturn(todoList);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items")
                 .with(httpBasic("user", "user"))
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isNotFound());
@@ -178,7 +532,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("user")).willReturn(1);
         given(databaseManager.getTodos(1)).willReturn(null);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items")
                 .with(httpBasic("user", "user"))
                 .accept(MediaType.APPLICATION_JSON_VALUE))
             .andExpect(status().isOk())
@@ -191,7 +545,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("user")).willReturn(1);
         given(databaseManager.addTodo(eq(1), any())).willReturn(1);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
                 .content("{\"id\":1,\"parentId\":-1,\"Title\":\"Title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
@@ -200,6 +554,29 @@ public class ItemControllerTest {
                 .andExpect(jsonPath("$", is(1)));
     }
 
+    @Test
+    @WithUserDetails("user")
+    public void getTodoItemStream() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.addTodo(eq(1), any())).willReturn(4);
+
+        MvcResult stream = this.perform(MockMvcRequestBuilders.get("/api/v1/items/stream")
+                .accept(MediaType.TEXT_EVENT_STREAM_VALUE))
+                .andExpect(status().isOk())
+                .andReturn();
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
+                .content("{\"id\":1,\"parentId\":-1,\"Title\":\"Title\"}")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk());
+
+        String expected = "event:change\ndata:{\"type\":\"ADDED\",\"id\":4}";
+        for(int i=0; i < 100 && !stream.getResponse().getContentAsString().contains(expected); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(stream.getResponse().getContentAsString().contains(expected), "Event sent");
+    }
+
     @Test
     @WithUserDetails("user")
     public void failAddTodoListItemAsUser() throws Exception {
@@ -207,7 +584,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("user")).willReturn(1);
         given(databaseManager.addTodo(eq(1), any())).willReturn(-1);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
                 .content("{\"id\":1,\"parentId\":-1,\"Title\":\"Title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
@@ -221,7 +598,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("admin")).willReturn(1);
         given(databaseManager.addTodo(eq(1), any())).willReturn(1);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
                 .content("{\"id\":1,\"parentId\":-1,\"Title\":\"Title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
@@ -236,7 +613,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("unknown")).willReturn(-1);
         given(databaseManager.addTodo(eq(1), any())).willReturn(1);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
                 .content("{\"id\":1,\"parentId\":-1,\"Title\":\"Title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
@@ -250,7 +627,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("view")).willReturn(-1);
         given(databaseManager.addTodo(eq(1), any())).willReturn(1);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/add")
                 .content("{\"id\":1,\"parentId\":-1,\"Title\":\"Title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
@@ -258,13 +635,97 @@ public class ItemControllerTest {
                 .andExpect(status().is4xxClientError());
     }
 
+    @Test
+    @WithUserDetails("user")
+    public void addTodoListItemsAsCbor() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.addTodos(eq(1), anyList())).willReturn(Arrays.asList(4));
+
+        ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+        ArrayNode todos = cbor.createArrayNode();
+        todos.addObject().put("parentId", -1).put("title", "One").put("scheduled", true)
+                .put("repeat", new Repeat(2, Repeat.TimePeriod.Days).toCode())
+                .set("dueDate", cbor.createArrayNode().add(2020).add(1).add(2));
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/batch")
+                .content(cbor.writeValueAsBytes(todos))
+                .contentType(MediaType.APPLICATION_CBOR_VALUE)
+                .accept(MediaType.APPLICATION_CBOR_VALUE))
+                .andExpect(status().isOk());
+        verify(databaseManager).addTodos(eq(1), argThat(list -> list.size() == 1
+                && "One".equals(list.get(0).getTitle()) && LocalDate.of(2020, 1, 2).equals(list.get(0).getDueDate())
+                && list.get(0).getRepeat().getTimes() == 2 && list.get(0).getRepeat().getPeriod() == Repeat.TimePeriod.Days));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void addTodoListItemsAsUser() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.addTodos(eq(1), anyList())).willReturn(Arrays.asList(4, 5));
+
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/batch")
+                .content("[{\"parentId\":-1,\"title\":\"One\"},{\"parentId\":-1,\"title\":\"Two\"}]")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .characterEncoding("UTF-8")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0]", is(4)))
+                .andExpect(jsonPath("$[1]", is(5)));
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void failAddTodoListItemsAsUser() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        given(databaseManager.addTodos(eq(1), anyList())).willReturn(null);
+
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/batch")
+                .content("[{\"parentId\":-1,\"title\":\"One\"}]")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .characterEncoding("UTF-8")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isInternalServerError());
+    }
+
+    @Test
+    @WithUserDetails("user")
+    public void addTodoListItems_TooMany() throws Exception {
+        given(databaseManager.getUserList("user")).willReturn(1);
+        StringBuilder todos = new StringBuilder("[");
+        for(int i=0; i <= 500; i++) {
+            todos.append(i > 0 ? "," : "").append("{\"parentId\":-1,\"title\":\"Item ").append(i).append("\"}");
+        }
+        todos.append("]");
+
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/batch")
+                .content(todos.toString())
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .characterEncoding("UTF-8")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isPayloadTooLarge());
+        verify(databaseManager, never()).addTodos(anyInt(), anyList());
+    }
+
+    @Test
+    @WithUserDetails("view")
+    public void addTodoListItems_InappropriateRole() throws Exception {
+        given(databaseManager.getUserList("view")).willReturn(1);
+
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/batch")
+                .content("[{\"parentId\":-1,\"title\":\"One\"}]")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .characterEncoding("UTF-8")
+                .accept(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isForbidden());
+    }
+
     @Test
     @WithUserDetails("user")
     public void deleteTodoListItemAsUser() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
         given(databaseManager.deleteTodo(1, 1)).willReturn(true);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", is(true)));
@@ -276,7 +737,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("admin")).willReturn(1);
         given(databaseManager.deleteTodo(1, 1)).willReturn(true);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", is(true)));
@@ -288,7 +749,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("user")).willReturn(1);
         given(databaseManager.deleteTodo(1, 1)).willReturn(false);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isNotFound())
                 .andExpect(jsonPath("$", is(false)));
@@ -299,7 +760,7 @@ public class ItemControllerTest {
     public void deleteTodoListItem_UnknownList() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(-1);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("$", is(false)));
@@ -310,7 +771,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("unknown")).willReturn(1);
         given(databaseManager.deleteTodo(1, 1)).willReturn(true);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
                 .with(httpBasic("unknown", "unknown"))
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isUnauthorized());
@@ -322,7 +783,7 @@ public class ItemControllerTest {
         given(databaseManager.getUserList("view")).willReturn(1);
         given(databaseManager.deleteTodo(1, 1)).willReturn(true);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/delete")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isForbidden());
     }
@@ -331,25 +792,24 @@ public class ItemControllerTest {
     @WithUserDetails("user")
     public void updateTodoListItemAsUser() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(new Todo(1, -1, "Title"));
         given(databaseManager.updateTodo(eq(1), any())).willReturn(true);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
                 .content("{\"id\":1,\"parentId\":-1,\"title\":\"New title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk());
+        verify(databaseManager, never()).getTodo(anyInt(), anyInt());
     }
 
     @Test
     @WithUserDetails("admin")
     public void updateTodoListItemAsAdmin() throws Exception {
         given(databaseManager.getUserList("admin")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(new Todo(1, -1, "Title"));
         given(databaseManager.updateTodo(eq(1), any())).willReturn(true);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
                 .content("{\"id\":1,\"parentId\":-1,\"title\":\"New title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
@@ -361,10 +821,9 @@ public class ItemControllerTest {
     @WithUserDetails("view")
     public void updateTodoListItem_InappropriateRole() throws Exception {
         given(databaseManager.getUserList("view")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(new Todo(1, -1, "Title"));
         given(databaseManager.updateTodo(eq(1), any())).willReturn(true);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
                 .content("{\"id\":1,\"parentId\":-1,\"title\":\"New title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
@@ -377,7 +836,7 @@ public class ItemControllerTest {
     public void updateTodoListItem_UnknownList() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(-1);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
                 .content("{\"id\":1,\"parentId\":-1,\"title\":\"New title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
@@ -389,9 +848,9 @@ public class ItemControllerTest {
     @WithUserDetails("user")
     public void updateTodoListItem_UnknownItem() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
+        given(databaseManager.updateTodo(eq(1), any())).willReturn(false);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
                 .content("{\"id\":1,\"parentId\":-1,\"title\":\"New title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
@@ -403,9 +862,8 @@ public class ItemControllerTest {
     @WithUserDetails("user")
     public void updateTodoListItem_UnknownUser() throws Exception {
         given(databaseManager.getUserList("unknown")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
 
-        mvc.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
+        this.perform(MockMvcRequestBuilders.post("/api/v1/items/1/update")
                 .content("{\"id\":1,\"parentId\":-1,\"title\":\"New title\"}")
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .characterEncoding("UTF-8")
@@ -417,173 +875,56 @@ public class ItemControllerTest {
     @Test
     @WithUserDetails("user")
     public void markTodoListItemAsDoneAsUser() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
-
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
-                .accept(MediaType.APPLICATION_JSON_VALUE))
-                .andExpect(status().isOk())
-                .andExpect(jsonPath("$", notNullValue()))
-                .andExpect(jsonPath("$", is(true)));
-
-        assertTrue(todo.isDone(), "Status");
-    }
-
-    @Test
-    @WithUserDetails("user")
-    public void markDailyRepeatingTodoListItemAsDoneAsUser() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setScheduled(true);
-        todo.setDueDate(LocalDate.of(2019, 11, 30));
-        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Days));
-
-        given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
-
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
-                .accept(MediaType.APPLICATION_JSON_VALUE))
-                .andExpect(status().isOk())
-                .andExpect(jsonPath("$", notNullValue()))
-                .andExpect(jsonPath("$", is(true)));
-
-        assertFalse(todo.isDone(), "Status");
-        assertTrue(LocalDate.of(2019, 12, 1).toString().equalsIgnoreCase(todo.getDueDate().toString()), "Due date");
-    }
-
-    @Test
-    @WithUserDetails("user")
-    public void markWeeklyRepeatingTodoListItemAsDoneAsUser() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setScheduled(true);
-        todo.setDueDate(LocalDate.of(2019, 11, 30));
-        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
-
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
+        given(databaseManager.markTodoDone(1, 1)).willReturn(TransitionResult.UPDATED);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", notNullValue()))
                 .andExpect(jsonPath("$", is(true)));
 
-        assertFalse(todo.isDone(), "Status");
-        assertTrue(LocalDate.of(2019, 12, 7).toString().equalsIgnoreCase(todo.getDueDate().toString()), "Due date");
-    }
-
-    @Test
-    @WithUserDetails("user")
-    public void markBiWeeklyRepeatingTodoListItemAsDoneAsUser() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setScheduled(true);
-        todo.setDueDate(LocalDate.of(2019, 11, 30));
-        todo.setRepeat(new Repeat(2, Repeat.TimePeriod.Weeks));
-
-        given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
-
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
-                .accept(MediaType.APPLICATION_JSON_VALUE))
-                .andExpect(status().isOk())
-                .andExpect(jsonPath("$", notNullValue()))
-                .andExpect(jsonPath("$", is(true)));
-
-        assertFalse(todo.isDone(), "Status");
-        assertTrue(LocalDate.of(2019, 12, 14).toString().equalsIgnoreCase(todo.getDueDate().toString()), "Due date");
-    }
-
-    @Test
-    @WithUserDetails("user")
-    public void markMonthlyRepeatingTodoListItemAsDoneAsUser() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setScheduled(true);
-        todo.setDueDate(LocalDate.of(2019, 11, 30));
-        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Months));
-
-        given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
-
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
-                .accept(MediaType.APPLICATION_JSON_VALUE))
-                .andExpect(status().isOk())
-                .andExpect(jsonPath("$", notNullValue()))
-                .andExpect(jsonPath("$", is(true)));
-
-        assertFalse(todo.isDone(), "Status");
-        assertTrue(LocalDate.of(2019, 12, 30).toString().equalsIgnoreCase(todo.getDueDate().toString()), "Due date");
-    }
-
-    @Test
-    @WithUserDetails("user")
-    public void markYearlyRepeatingTodoListItemAsDoneAsUser() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setScheduled(true);
-        todo.setDueDate(LocalDate.of(2019, 11, 30));
-        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Years));
-
-        given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
-
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
-                .accept(MediaType.APPLICATION_JSON_VALUE))
-                .andExpect(status().isOk())
-                .andExpect(jsonPath("$", notNullValue()))
-                .andExpect(jsonPath("$", is(true)));
-
-        assertFalse(todo.isDone(), "Status");
-        assertTrue(LocalDate.of(2020, 11, 30).toString().equalsIgnoreCase(todo.getDueDate().toString()), "Due date");
+        verify(databaseManager).markTodoDone(1, 1);
     }
 
     @Test
     @WithUserDetails("admin")
     public void markTodoListItemAsDoneAsAdmin() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setRepeat(new Repeat(0, Repeat.TimePeriod.None));
         given(databaseManager.getUserList("admin")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
+        given(databaseManager.markTodoDone(1, 1)).willReturn(TransitionResult.UPDATED);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", notNullValue()))
                 .andExpect(jsonPath("$", is(true)));
 
-        assertTrue(todo.isDone(), "Status");
+        verify(databaseManager).markTodoDone(1, 1);
     }
 
     @Test
     @WithUserDetails("view")
     public void markTodoListItemAsDone_InappropriateRole() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setRepeat(new Repeat(0, Repeat.TimePeriod.None));
         given(databaseManager.getUserList("view")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isForbidden());
 
-        assertFalse(todo.isDone(), "Status");
+        verify(databaseManager, never()).markTodoDone(anyInt(), anyInt());
     }
 
     @Test
     @WithUserDetails("user")
     public void markTodoListItemAsDone_UnknownItem() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
+        given(databaseManager.markTodoDone(1, 1)).willReturn(TransitionResult.NOT_FOUND);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isNotFound());
+
+        verify(databaseManager).markTodoDone(1, 1);
     }
 
     @Test
@@ -591,7 +932,7 @@ public class ItemControllerTest {
     public void markTodoListItemAsDone_UnknownList() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(-1);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/done")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isBadRequest());
     }
@@ -599,50 +940,39 @@ public class ItemControllerTest {
     @Test
     @WithUserDetails("user")
     public void activateRepeatingTodoListItemAsUser() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(true);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(eq(1), eq(1))).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
+        given(databaseManager.activateTodo(1, 1)).willReturn(TransitionResult.UPDATED);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", notNullValue()))
                 .andExpect(jsonPath("$", is(true)));
 
-        assertFalse(todo.isDone(), "Status");
+        verify(databaseManager).activateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("admin")
     public void activateRepeatingTodoListItemAsAdmin() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(true);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
         given(databaseManager.getUserList("admin")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
+        given(databaseManager.activateTodo(1, 1)).willReturn(TransitionResult.UPDATED);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", notNullValue()))
                 .andExpect(jsonPath("$", is(true)));
 
-        assertFalse(todo.isDone(), "Status");
+        verify(databaseManager).activateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("user")
     public void activateRepeatingTodoListItem_UnknownUser() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .with(httpBasic("unknown", "unknown"))
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isUnauthorized());
@@ -652,26 +982,25 @@ public class ItemControllerTest {
     @WithUserDetails("user")
     public void activateRepeatingTodoListItem_UnknownItem() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
+        given(databaseManager.activateTodo(1, 1)).willReturn(TransitionResult.NOT_FOUND);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isNotFound());
+
+        verify(databaseManager).activateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("view")
     public void activateRepeatingTodoListItem_InappropriateRole() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(false);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
         given(databaseManager.getUserList("view")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isForbidden());
+
+        verify(databaseManager, never()).activateTodo(anyInt(), anyInt());
     }
 
     @Test
@@ -679,7 +1008,7 @@ public class ItemControllerTest {
     public void activateRepeatingTodoListItem_UnknownList() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(-1);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isBadRequest());
     }
@@ -687,50 +1016,39 @@ public class ItemControllerTest {
     @Test
     @WithUserDetails("user")
     public void activateNonRepeatingTodoListItemAsUser() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(true);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(0, Repeat.TimePeriod.None));
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(eq(1), eq(1))).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
+        given(databaseManager.activateTodo(1, 1)).willReturn(TransitionResult.UPDATED);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", notNullValue()))
                 .andExpect(jsonPath("$", is(true)));
 
-        assertFalse(todo.isDone(), "Status");
+        verify(databaseManager).activateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("admin")
     public void activateNonRepeatingTodoListItemAsAdmin() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(true);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(0, Repeat.TimePeriod.None));
         given(databaseManager.getUserList("admin")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
+        given(databaseManager.activateTodo(1, 1)).willReturn(TransitionResult.UPDATED);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", notNullValue()))
                 .andExpect(jsonPath("$", is(true)));
 
-        assertFalse(todo.isDone(), "Status");
+        verify(databaseManager).activateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("user")
     public void activateNonRepeatingTodoListItem_UnknownUser() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .with(httpBasic("unknown", "unknown"))
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isUnauthorized());
@@ -740,26 +1058,25 @@ public class ItemControllerTest {
     @WithUserDetails("user")
     public void activateNonRepeatingTodoListItem_UnknownItem() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
+        given(databaseManager.activateTodo(1, 1)).willReturn(TransitionResult.NOT_FOUND);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isNotFound());
+
+        verify(databaseManager).activateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("view")
     public void activateNonRepeatingTodoListItem_InappropriateRole() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(true);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(0, Repeat.TimePeriod.None));
         given(databaseManager.getUserList("view")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isForbidden());
+
+        verify(databaseManager, never()).activateTodo(anyInt(), anyInt());
     }
 
     @Test
@@ -767,7 +1084,7 @@ public class ItemControllerTest {
     public void activateNonRepeatingTodoListItem_UnknownList() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(-1);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/activate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isBadRequest());
     }
@@ -775,46 +1092,35 @@ public class ItemControllerTest {
     @Test
     @WithUserDetails("user")
     public void deactivateNonRepeatingTodoListItemAsUser() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(false);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(0, Repeat.TimePeriod.None));
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
+        given(databaseManager.deactivateTodo(1, 1)).willReturn(TransitionResult.WRONG_STATE);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isBadRequest());
 
-        assertFalse(todo.isDone(), "Status");
+        verify(databaseManager).deactivateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("admin")
     public void deactivateNonRepeatingTodoListItemAsAdmin() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(false);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(0, Repeat.TimePeriod.None));
         given(databaseManager.getUserList("admin")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
+        given(databaseManager.deactivateTodo(1, 1)).willReturn(TransitionResult.WRONG_STATE);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isBadRequest());
 
-        assertFalse(todo.isDone(), "Status");
+        verify(databaseManager).deactivateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("user")
     public void deactivateNonRepeatingTodoListItem_UnknownUser() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .with(httpBasic("unknown", "unknown"))
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isUnauthorized());
@@ -824,26 +1130,25 @@ public class ItemControllerTest {
     @WithUserDetails("user")
     public void deactivateNonRepeatingTodoListItem_UnknownItem() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
+        given(databaseManager.deactivateTodo(1, 1)).willReturn(TransitionResult.NOT_FOUND);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isNotFound());
+
+        verify(databaseManager).deactivateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("view")
     public void deactivateNonRepeatingTodoListItem_InappropriateRole() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(false);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(0, Repeat.TimePeriod.None));
         given(databaseManager.getUserList("view")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isForbidden());
+
+        verify(databaseManager, never()).deactivateTodo(anyInt(), anyInt());
     }
 
     @Test
@@ -851,7 +1156,7 @@ public class ItemControllerTest {
     public void deactivateNonRepeatingTodoListItem_UnknownList() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(-1);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isBadRequest());
     }
@@ -859,50 +1164,39 @@ public class ItemControllerTest {
     @Test
     @WithUserDetails("user")
     public void deactivateRepeatingTodoListItemAsUser() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(false);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
+        given(databaseManager.deactivateTodo(1, 1)).willReturn(TransitionResult.UPDATED);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", notNullValue()))
                 .andExpect(jsonPath("$", is(true)));
 
-        assertTrue(todo.isDone(), "Status");
+        verify(databaseManager).deactivateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("admin")
     public void deactivateRepeatingTodoListItemAsAdmin() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(false);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
         given(databaseManager.getUserList("admin")).willReturn(1);
-        given(databaseManager.getTodo(eq(1), eq(1))).willReturn(todo);
-        given(databaseManager.updateTodo(1, todo)).willReturn(true);
+        given(databaseManager.deactivateTodo(1, 1)).willReturn(TransitionResult.UPDATED);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$", notNullValue()))
                 .andExpect(jsonPath("$", is(true)));
 
-        assertTrue(todo.isDone(), "Status");
+        verify(databaseManager).deactivateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("user")
     public void deactivateRepeatingTodoListItem_UnknownUser() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .with(httpBasic("unknown", "unknown"))
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isUnauthorized());
@@ -912,26 +1206,25 @@ public class ItemControllerTest {
     @WithUserDetails("user")
     public void deactivateRepeatingTodoListItem_UnknownItem() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(null);
+        given(databaseManager.deactivateTodo(1, 1)).willReturn(TransitionResult.NOT_FOUND);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isNotFound());
+
+        verify(databaseManager).deactivateTodo(1, 1);
     }
 
     @Test
     @WithUserDetails("view")
     public void deactivateRepeatingTodoListItem_InappropriateRole() throws Exception {
-        Todo todo = new Todo(1, -1, "Title");
-        todo.setDone(false);
-        todo.setScheduled(true);
-        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
         given(databaseManager.getUserList("view")).willReturn(1);
-        given(databaseManager.getTodo(1, 1)).willReturn(todo);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isForbidden());
+
+        verify(databaseManager, never()).deactivateTodo(anyInt(), anyInt());
     }
 
     @Test
@@ -939,9 +1232,39 @@ public class ItemControllerTest {
     public void deactivateRepeatingTodoListItem_UnknownList() throws Exception {
         given(databaseManager.getUserList("user")).willReturn(-1);
 
-        mvc.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
+        this.perform(MockMvcRequestBuilders.get("/api/v1/items/1/deactivate")
                 .accept(MediaType.APPLICATION_JSON_VALUE))
                 .andExpect(status().isBadRequest());
     }
 
+    /**
+     * Completes the async handling of the request, requests rejected before the controller method
+     * finish on the first dispatch.
+     */
+    private ResultActions perform(RequestBuilder request) throws Exception {
+        MvcResult result = this.mvc.perform(request).andReturn();
+        if(result.getRequest().isAsyncStarted()) {
+            result.getAsyncResult();
+            return this.mvc.perform(asyncDispatch(result));
+        }
+        return new ResultActions() {
+            @Override
+            public ResultActions andExpect(ResultMatcher matcher) throws Exception {
+                matcher.match(result);
+                return this;
+            }
+
+            @Override
+            public ResultActions andDo(ResultHandler handler) throws Exception {
+                handler.handle(result);
+                return this;
+            }
+
+            @Override
+            public MvcResult andReturn() {
+                return result;
+            }
+        };
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package net.metja.todolist.controller;
+
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class ItemEventBrokerTest {
+
+    private ItemEventBroker broker;
+
+    @BeforeEach
+    public void setUp() {
+        this.broker = new ItemEventBroker();
+        ReflectionTestUtils.setField(this.broker, "bufferSize", 2);
+        this.broker.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.broker.shutdown();
+    }
+
+    @Test
+    public void subscribe() {
+        this.broker.subscribe(1);
+        this.broker.subscribe(1);
+        this.broker.subscribe(2);
+        assertEquals(3, this.broker.getSubscriberCount(), "Subscribers");
+    }
+
+    @Test
+    public void publish_FullBufferClosesStream() {
+        // a sender that never runs, so the events stay in the buffer
+        ExecutorService senders = mock(ExecutorService.class);
+        ReflectionTestUtils.setField(this.broker, "senders", senders);
+        this.broker.subscribe(1);
+        this.broker.subscribe(2);
+
+        this.broker.publish(1, new ItemEvent(ItemEvent.Type.ADDED, 1));
+        this.broker.publish(1, new ItemEvent(ItemEvent.Type.UPDATED, 1));
+        assertEquals(2, this.broker.getSubscriberCount(), "Buffered");
+        this.broker.publish(1, new ItemEvent(ItemEvent.Type.DELETED, 1));
+        assertEquals(1, this.broker.getSubscriberCount(), "Stream of list 1 closed");
+        verify(senders, times(1)).execute(any());
+    }
+
+}
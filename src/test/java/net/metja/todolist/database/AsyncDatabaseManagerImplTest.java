@@ -0,0 +1,122 @@
+package net.metja.todolist.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class AsyncDatabaseManagerImplTest {
+
+    private DatabaseManager databaseManager;
+    private AsyncDatabaseManagerImpl asyncManager;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        this.databaseManager = mock(DatabaseManager.class);
+        this.registry = new SimpleMeterRegistry();
+        this.asyncManager = new AsyncDatabaseManagerImpl();
+        ReflectionTestUtils.setField(this.asyncManager, "threads", 1);
+        ReflectionTestUtils.setField(this.asyncManager, "queueSize", 1);
+        this.asyncManager.setDatabaseManager(this.databaseManager);
+        this.asyncManager.setMeterRegistry(this.registry);
+        this.asyncManager.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.asyncManager.shutdown();
+    }
+
+    @Test
+    public void getUserList() throws Exception {
+        String caller = Thread.currentThread().getName();
+        String[] worker = new String[1];
+        given(this.databaseManager.getUserList("user")).willAnswer(invocation -> {
+            worker[0] = Thread.currentThread().getName();
+            return 1;
+        });
+        assertEquals(1, (int)this.asyncManager.getUserList("user").get(5, TimeUnit.SECONDS), "List ID");
+        assertNotEquals(caller, worker[0], "Thread");
+        assertTrue(worker[0].startsWith("tasklist-db-"), "Thread name "+worker[0]);
+        // counted after the task has returned, which can be after its result was handed over
+        long deadline = System.currentTimeMillis() + 5000;
+        while(this.completed() < 1.0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1.0, this.completed(), "Completed");
+    }
+
+    private double completed() {
+        return this.registry.get("executor.completed").tag("name", "database").functionCounter().count();
+    }
+
+    @Test
+    public void threadsFromPoolSizes() {
+        HikariDataSource writer = new HikariDataSource();
+        writer.setMaximumPoolSize(1);
+        HikariDataSource reader = new HikariDataSource();
+        reader.setMaximumPoolSize(4);
+        AsyncDatabaseManagerImpl sized = new AsyncDatabaseManagerImpl();
+        sized.setDatabaseManager(this.databaseManager);
+        sized.setDataSource(writer);
+        sized.setReadDataSource(new ReplicaDataSource(Arrays.asList(reader, reader)));
+        sized.init();
+        try {
+            assertEquals(9, ((ThreadPoolExecutor)ReflectionTestUtils.getField(sized, "executor")).getMaximumPoolSize(), "Threads");
+        } finally {
+            sized.shutdown();
+        }
+    }
+
+    @Test
+    public void failure() {
+        given(this.databaseManager.getTodo(1, 1)).willThrow(new IllegalStateException("broken"));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> this.asyncManager.getTodo(1, 1).get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException, "Cause");
+    }
+
+    @Test
+    public void rejectWhenFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        given(this.databaseManager.getUserList("slow")).willAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return 1;
+        });
+        given(this.databaseManager.getUserList("user")).willReturn(2);
+
+        CompletableFuture<Integer> running = this.asyncManager.getUserList("slow");
+        assertTrue(started.await(5, TimeUnit.SECONDS), "Started");
+        CompletableFuture<Integer> queued = this.asyncManager.getUserList("user");
+        CompletableFuture<Integer> rejected = this.asyncManager.getUserList("user");
+        assertTrue(rejected.isCompletedExceptionally(), "Rejected");
+        ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+        assertTrue(e.getCause() instanceof RejectedExecutionException, "Cause");
+
+        release.countDown();
+        assertEquals(1, (int)running.get(5, TimeUnit.SECONDS), "Running");
+        assertEquals(2, (int)queued.get(5, TimeUnit.SECONDS), "Queued");
+    }
+
+}
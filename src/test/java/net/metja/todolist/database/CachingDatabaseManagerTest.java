@@ -0,0 +1,239 @@
+package net.metja.todolist.database;
+
+import net.metja.todolist.database.bean.Todo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class CachingDatabaseManagerTest {
+
+    private DatabaseManagerImpl impl;
+    private CachingDatabaseManager cachingManager;
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource();
+        dataSource.setDriverClassName("org.sqlite.JDBC");
+        dataSource.setUrl("jdbc:sqlite:file::memory:");
+        DatabaseManagerImpl databaseManager = new DatabaseManagerImpl();
+        databaseManager.setDataSource(dataSource);
+        this.impl = spy(databaseManager);
+        this.registry = new SimpleMeterRegistry();
+        this.cachingManager = new CachingDatabaseManager();
+        this.cachingManager.setDelegate(this.impl);
+        this.cachingManager.setMeterRegistry(this.registry);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        // items that were there before the change log, see the V7 to V8 migration
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID, ChangeSeq) VALUES (1, 1, 1)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (1, 1, -1, 'Parent')");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (2, 1, 1, 'Child')");
+    }
+
+    @Test
+    public void getTodos_Cached() {
+        List<Todo> first = this.cachingManager.getTodos(1);
+        assertEquals(2, first.size(), "Size");
+        assertEquals(1, first.get(0).getChildren().size(), "Children");
+        first.get(0).setTitle("Changed by caller");
+        first.get(0).getChildren().clear();
+
+        List<Todo> second = this.cachingManager.getTodos(1);
+        assertEquals("Parent", second.get(0).getTitle(), "Title");
+        assertEquals(1, second.get(0).getChildren().size(), "Children");
+        assertEquals(1, this.cachingManager.getTodos(1, true).size(), "Roots");
+        verify(this.impl, times(1)).getTodos(1);
+        assertEquals(2.0, this.registry.get("cache.gets").tag("cache", "todoLists").tag("result", "hit").functionCounter().count(), "Hits");
+        assertEquals(1.0, this.registry.get("cache.gets").tag("cache", "todoLists").tag("result", "miss").functionCounter().count(), "Misses");
+        assertTrue(this.registry.get("cache.weight").tag("cache", "todoLists").gauge().value() > 0, "Weight");
+    }
+
+    @Test
+    public void getTodo_FromCachedList() {
+        this.cachingManager.getTodos(1);
+        assertEquals("Child", this.cachingManager.getTodo(1, 2).getTitle(), "Title");
+        assertNull(this.cachingManager.getTodo(1, 3), "Unknown item");
+        verify(this.impl, times(0)).getTodo(anyInt(), anyInt());
+    }
+
+    @Test
+    public void getTodo_ListBehindSeq_ReadFromDatabase() {
+        this.cachingManager.getTodos(1);
+        // a write the cache does not see, then the cached number expires
+        Todo child = this.impl.getTodo(1, 2);
+        child.setTitle("Changed");
+        assertTrue(this.impl.updateTodo(1, child), "Updated directly");
+        ((Cache<?, ?>)ReflectionTestUtils.getField(this.cachingManager, "seqs")).invalidateAll();
+
+        assertEquals("Changed", this.cachingManager.getTodo(1, 2).getTitle(), "Item");
+        assertEquals(this.impl.getChangeSeq(1), this.cachingManager.getChangeSeq(1), "Seq");
+        assertEquals("Changed", this.cachingManager.getTodos(1).get(1).getTitle(), "List");
+        verify(this.impl, times(2)).getTodos(1);
+    }
+
+    @Test
+    public void getChangeSeq_FollowsWrites() {
+        long seq = this.cachingManager.getChangeSeq(1);
+        int id = this.cachingManager.addTodo(1, new Todo(0, -1, "New"));
+        assertEquals(seq + 1, this.cachingManager.getChangeSeq(1), "After add");
+        assertTrue(this.cachingManager.deleteTodo(1, id), "Deleted");
+        assertEquals(seq + 2, this.cachingManager.getChangeSeq(1), "After delete");
+        assertEquals(seq + 2, this.impl.getChangeSeq(1), "Database");
+        verify(this.impl, times(0)).getTodos(1);
+    }
+
+    @Test
+    public void getChangeSeq_Cached() {
+        long seq = this.cachingManager.getChangeSeq(1);
+        assertEquals(seq, this.cachingManager.getChangeSeq(1), "Second");
+        assertEquals(-1, this.cachingManager.getChangeSeq(2), "Unknown list");
+        verify(this.impl, times(1)).getChangeSeq(1);
+        verify(this.impl, times(0)).getTodos(anyInt());
+        assertEquals(1.0, this.registry.get("cache.gets").tag("cache", "todoListSeqs").tag("result", "hit").functionCounter().count(), "Hits");
+    }
+
+    @Test
+    public void addTodo_WriteThrough() {
+        this.cachingManager.getTodos(1);
+        int id = this.cachingManager.addTodo(1, new Todo(0, 1, "Second child"));
+
+        List<Todo> todos = this.cachingManager.getTodos(1);
+        assertEquals(3, todos.size(), "Size");
+        assertEquals(id, todos.get(2).getId(), "ID");
+        assertEquals("Second child", todos.get(2).getTitle(), "Title");
+        assertEquals(2, todos.get(0).getChildren().size(), "Children");
+        verify(this.impl, times(1)).getTodos(1);
+    }
+
+    @Test
+    public void updateTodo_WriteThrough() {
+        this.cachingManager.getTodos(1);
+        Todo todo = this.cachingManager.getTodo(1, 2);
+        todo.setDone(true);
+        assertTrue(this.cachingManager.updateTodo(1, todo), "Updated");
+
+        assertTrue(this.cachingManager.getTodos(1).get(1).isDone(), "Done");
+        assertTrue(this.jdbcTemplate.queryForObject("SELECT Done FROM TodoItems WHERE ID=2", Boolean.class), "Done in database");
+        verify(this.impl, times(1)).getTodos(1);
+    }
+
+    @Test
+    public void updateTodo_KeepsListOrder() {
+        this.cachingManager.getTodos(1);
+        Todo child = this.cachingManager.getTodo(1, 2);
+        child.setDueDate(LocalDate.of(2020, 1, 1));
+        child.setScheduled(true);
+        assertTrue(this.cachingManager.updateTodo(1, child), "Updated");
+        int id = this.cachingManager.addTodo(1, new Todo(0, -1, "New"));
+
+        List<Todo> cached = this.cachingManager.getTodos(1);
+        List<Todo> stored = this.impl.getTodos(1);
+        assertEquals(Arrays.asList(2, 1, id), cached.stream().map(Todo::getId).collect(Collectors.toList()), "Cached order");
+        assertEquals(stored.stream().map(Todo::getId).collect(Collectors.toList()), cached.stream().map(Todo::getId).collect(Collectors.toList()), "Same as stored");
+    }
+
+    @Test
+    public void updateTodo_AfterMissedWrite_CatchesUp() {
+        this.cachingManager.getTodos(1);
+        // a write the cache does not see
+        assertEquals(3, this.impl.addTodo(1, new Todo(0, -1, "Unseen")), "Added directly");
+        Todo child = this.cachingManager.getTodo(1, 2);
+        child.setTitle("Changed");
+        assertTrue(this.cachingManager.updateTodo(1, child), "Updated");
+
+        List<Todo> todos = this.cachingManager.getTodos(1);
+        assertEquals(Arrays.asList("Parent", "Changed", "Unseen"), todos.stream().map(Todo::getTitle).collect(Collectors.toList()), "Titles");
+        assertEquals(this.impl.getChangeSeq(1), this.cachingManager.getChangeSeq(1), "Seq");
+        verify(this.impl, times(1)).getTodos(1);
+    }
+
+    @Test
+    public void updateTodo_ReadBackOutOfOrder() {
+        // write A commits, the list is loaded with it, then write B commits before A is read back
+        Todo parent = this.impl.getTodo(1, 1);
+        parent.setTitle("A");
+        assertTrue(this.impl.updateTodo(1, parent), "A");
+        this.cachingManager.getTodos(1);
+        Todo child = this.impl.getTodo(1, 2);
+        child.setTitle("B");
+        assertTrue(this.impl.updateTodo(1, child), "B");
+        // A read back through the cache, then B
+        assertTrue(this.cachingManager.updateTodo(1, parent), "A again");
+        assertTrue(this.cachingManager.updateTodo(1, child), "B again");
+
+        assertEquals(Arrays.asList("A", "B"), this.cachingManager.getTodos(1).stream().map(Todo::getTitle).collect(Collectors.toList()), "Titles");
+        assertEquals("B", this.cachingManager.getTodo(1, 2).getTitle(), "Item");
+        verify(this.impl, times(1)).getTodos(1);
+    }
+
+    @Test
+    public void addTodo_NeverWrittenList_Reloads() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (2,'UserTwo')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (2, 2)");
+        assertTrue(this.cachingManager.getTodos(2).isEmpty(), "Empty");
+        this.cachingManager.addTodo(2, new Todo(0, -1, "First"));
+
+        assertEquals(1, this.cachingManager.getTodos(2).size(), "Size");
+        verify(this.impl, times(2)).getTodos(2);
+    }
+
+    @Test
+    public void updateTodo_UnknownItem() {
+        this.cachingManager.getTodos(1);
+        assertFalse(this.cachingManager.updateTodo(1, new Todo(3, -1, "Unknown")), "Updated");
+        assertEquals(2, this.cachingManager.getTodos(1).size(), "Size");
+    }
+
+    @Test
+    public void deleteTodo_WriteThrough() {
+        this.cachingManager.getTodos(1);
+        assertTrue(this.cachingManager.deleteTodo(1, 2), "Deleted");
+
+        List<Todo> todos = this.cachingManager.getTodos(1);
+        assertEquals(1, todos.size(), "Size");
+        assertEquals(0, todos.get(0).getChildren().size(), "Children");
+        verify(this.impl, times(1)).getTodos(1);
+    }
+
+    @Test
+    public void markTodoDone_WriteThrough() {
+        this.cachingManager.getTodos(1);
+        assertEquals(TransitionResult.UPDATED, this.cachingManager.markTodoDone(1, 2), "Result");
+        assertTrue(this.cachingManager.getTodo(1, 2).isDone(), "Done");
+        assertEquals(TransitionResult.UPDATED, this.cachingManager.activateTodo(1, 2), "Result");
+        assertFalse(this.cachingManager.getTodos(1).get(1).isDone(), "Active");
+        verify(this.impl, times(1)).getTodos(1);
+    }
+
+    @Test
+    public void addTodos_Invalidates() {
+        this.cachingManager.getTodos(1);
+        this.cachingManager.addTodos(1, Arrays.asList(new Todo(0, -1, "One"), new Todo(0, -1, "Two")));
+
+        assertEquals(4, this.cachingManager.getTodos(1).size(), "Size");
+        verify(this.impl, times(2)).getTodos(1);
+    }
+
+}
@@ -7,16 +7,37 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.SQLiteConfig;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.nio.file.Path;
+import java.sql.Connection;
 import java.sql.ResultSet;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.OffsetDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -43,6 +64,8 @@ public class DatabaseManagerImplTest {
         this.jdbcTemplate.execute(DatabaseManagerImpl.CREATE_USER_ACCOUNTS_TABLE);
         this.jdbcTemplate.execute(DatabaseManagerImpl.CREATE_PERSISTENT_LOGINS_TABLE);
         this.jdbcTemplate.execute(DatabaseManagerImpl.CREATE_TODO_ITEMS_TABLE);
+        this.jdbcTemplate.execute(DatabaseManagerImpl.CREATE_ARCHIVED_TODO_ITEMS_TABLE);
+        this.jdbcTemplate.execute(DatabaseManagerImpl.CREATE_TODO_ITEM_CHANGES_TABLE);
         this.jdbcTemplate.execute(DatabaseManagerImpl.CREATE_TODO_LISTS_TABLE);
     }
 
@@ -89,7 +112,7 @@ public class DatabaseManagerImplTest {
         todo.setDueTime(LocalTime.of(12, 0, 0));
         todo.setDueTimezone(ZoneOffset.of("+02:30"));
         todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
-        OffsetDateTime lastNotification = OffsetDateTime.now();
+        OffsetDateTime lastNotification = OffsetDateTime.now().truncatedTo(ChronoUnit.MILLIS);
         todo.setLastNotification(lastNotification);
 
         int id = this.impl.addTodo(1, todo);
@@ -108,14 +131,16 @@ public class DatabaseManagerImplTest {
         assertEquals(Repeat.TimePeriod.Weeks, result.getRepeat().getPeriod(), "Repeating");
         assertEquals(1, result.getRepeat().getTimes(), "Repeating");
         assertNotNull(result.getLastNotification(), "LastNotification");
-        assertEquals(lastNotification.toString(), result.getLastNotification().toString(), "LastNotification");
+        assertEquals(lastNotification.toInstant(), result.getLastNotification().toInstant(), "LastNotification");
     }
 
     @Test
     public void readTodo_AllData() {
         this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
         this.jdbcTemplate.execute("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
-        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Description, Done, Scheduled, DueDate, DueTime, DueTimezone, Repeating, LastNotification) VALUES (1, 1, -1, \"Parent\", \"Description\", 0, 1, '2019-11-23', '14:56', '+02:00', 'No', '2020-03-26T16:26:00+02:00')");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Description, Done, Scheduled, DueDay, DueSecond, DueOffset, RepeatCode, LastNotifiedAt) VALUES (1, 1, -1, \"Parent\", \"Description\", 0, 1, ?, ?, ?, ?, ?)",
+                LocalDate.of(2019, 11, 23).toEpochDay(), LocalTime.of(14, 56).toSecondOfDay(), 7200, new Repeat(0, Repeat.TimePeriod.None).toCode(),
+                OffsetDateTime.parse("2020-03-26T16:26:00+02:00").toInstant().toEpochMilli());
 
         Todo todo = this.impl.getTodo(1, 1);
         assertNotNull(todo, "Todo");
@@ -130,7 +155,7 @@ public class DatabaseManagerImplTest {
         assertEquals(ZoneOffset.of("+02:00"), todo.getDueTimezone(), "DueTimezone");
         assertEquals(Repeat.TimePeriod.None, todo.getRepeat().getPeriod(), "Repeating");
         assertNotNull(todo.getLastNotification(), "LastNotification");
-        assertEquals("2020-03-26T16:26+02:00", todo.getLastNotification().toString(), "LastNotification");
+        assertEquals(OffsetDateTime.parse("2020-03-26T16:26:00+02:00").toInstant(), todo.getLastNotification().toInstant(), "LastNotification");
     }
 
 
@@ -138,7 +163,9 @@ public class DatabaseManagerImplTest {
     public void readTodo_AllData_MonthlyRepeat() {
         this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
         this.jdbcTemplate.execute("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
-        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Description, Done, Scheduled, DueDate, DueTime, DueTimezone, Repeating, LastNotification) VALUES (1, 1, -1, \"Parent\", \"Description\", 0, 1, '2019-11-23', '14:56', '+02:00', 'Every 1 Months', '2020-03-26T16:26:00+02:00')");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Description, Done, Scheduled, DueDay, DueSecond, DueOffset, RepeatCode, LastNotifiedAt) VALUES (1, 1, -1, \"Parent\", \"Description\", 0, 1, ?, ?, ?, ?, ?)",
+                LocalDate.of(2019, 11, 23).toEpochDay(), LocalTime.of(14, 56).toSecondOfDay(), 7200, new Repeat(1, Repeat.TimePeriod.Months).toCode(),
+                OffsetDateTime.parse("2020-03-26T16:26:00+02:00").toInstant().toEpochMilli());
 
         Todo todo = this.impl.getTodo(1, 1);
         assertNotNull(todo, "Todo");
@@ -154,7 +181,7 @@ public class DatabaseManagerImplTest {
         assertEquals(Repeat.TimePeriod.Months, todo.getRepeat().getPeriod(), "Repeating");
         assertEquals(1, todo.getRepeat().getTimes(), "Repeating");
         assertNotNull(todo.getLastNotification(), "LastNotification");
-        assertEquals("2020-03-26T16:26+02:00", todo.getLastNotification().toString(), "LastNotification");
+        assertEquals(OffsetDateTime.parse("2020-03-26T16:26:00+02:00").toInstant(), todo.getLastNotification().toInstant(), "LastNotification");
     }
 
     @Test
@@ -189,6 +216,138 @@ public class DatabaseManagerImplTest {
         assertEquals("Title", "Title", result.getTitle());
     }
 
+    @Test
+    public void addTodo_UnknownList() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.execute("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+
+        int id = this.impl.addTodo(2, new Todo(1, -1, "Title"));
+        assertEquals(-1, id, "ID");
+        assertEquals(0, (int)this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TodoItems", Integer.class), "Items");
+    }
+
+    @Test
+    public void addTodo_ReservedIdBlocks() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.execute("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+
+        assertEquals(1, this.impl.addTodo(1, new Todo(1, -1, "One")), "First ID");
+        assertEquals(2, this.impl.addTodo(1, new Todo(1, -1, "Two")), "Second ID");
+        assertEquals(20, (int)this.jdbcTemplate.queryForObject("SELECT LastItemID FROM TodoLists WHERE ID=1", Integer.class), "Reserved up to");
+
+        DatabaseManagerImpl other = new DatabaseManagerImpl();
+        other.setDataSource(this.jdbcTemplate.getDataSource());
+        assertEquals(21, other.addTodo(1, new Todo(1, -1, "Other instance")), "Other instance ID");
+        assertEquals(3, this.impl.addTodo(1, new Todo(1, -1, "Three")), "Third ID");
+    }
+
+    @Test
+    public void addTodo_ConcurrentLists(@TempDir Path dir) throws Exception {
+        // several connections writing at once like the default pool, the shared SingleConnectionDataSource is not thread safe
+        SQLiteConfig sqliteConfig = new SQLiteConfig();
+        sqliteConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        sqliteConfig.setBusyTimeout(5000);
+        HikariConfig config = new HikariConfig();
+        config.setDriverClassName("org.sqlite.JDBC");
+        config.setJdbcUrl("jdbc:sqlite:"+dir.resolve("concurrent.db"));
+        config.setDataSourceProperties(sqliteConfig.toProperties());
+        config.setMaximumPoolSize(10);
+        HikariDataSource dataSource = new HikariDataSource(config);
+        DatabaseManagerImpl pooledImpl = new DatabaseManagerImpl();
+        pooledImpl.setDataSource(dataSource);
+        JdbcTemplate pooledTemplate = new JdbcTemplate(dataSource);
+        pooledTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        pooledTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (2,'UserTwo')");
+        pooledTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        pooledTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (2, 2)");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> results = new LinkedList<>();
+        for(int i=0; i < 100; i++) {
+            final int listId = (i % 2) + 1;
+            results.add(executor.submit(() -> pooledImpl.addTodo(listId, new Todo(1, -1, "Title"))));
+        }
+        for(Future<Integer> result: results) {
+            assertTrue(result.get() > 0, "ID");
+        }
+        executor.shutdown();
+        assertEquals(50, (int)pooledTemplate.queryForObject("SELECT COUNT(DISTINCT ID) FROM TodoItems WHERE ListID=1", Integer.class), "List 1 items");
+        assertEquals(50, (int)pooledTemplate.queryForObject("SELECT COUNT(DISTINCT ID) FROM TodoItems WHERE ListID=2", Integer.class), "List 2 items");
+        dataSource.close();
+    }
+
+    @Test
+    public void addTodo_GroupCommit(@TempDir Path dir) throws Exception {
+        HikariConfig config = new HikariConfig();
+        config.setDriverClassName("org.sqlite.JDBC");
+        config.setJdbcUrl("jdbc:sqlite:"+dir.resolve("group.db"));
+        config.setMaximumPoolSize(1);
+        HikariDataSource dataSource = new HikariDataSource(config);
+        DatabaseManagerImpl groupImpl = new DatabaseManagerImpl();
+        ReflectionTestUtils.setField(groupImpl, "groupCommit", true);
+        groupImpl.setDataSource(dataSource);
+        JdbcTemplate pooledTemplate = new JdbcTemplate(dataSource);
+        pooledTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        pooledTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> results = new LinkedList<>();
+        for(int i=0; i < 20; i++) {
+            results.add(executor.submit(() -> groupImpl.addTodo(1, new Todo(0, -1, "Title"))));
+        }
+        for(Future<Integer> result: results) {
+            assertTrue(result.get() > 0, "ID");
+        }
+        executor.shutdown();
+        assertEquals(20, (int)pooledTemplate.queryForObject("SELECT COUNT(DISTINCT ID) FROM TodoItems WHERE ListID=1", Integer.class), "Items");
+
+        Todo todo = groupImpl.getTodo(1, 1);
+        todo.setTitle("Updated");
+        assertTrue(groupImpl.updateTodo(1, todo), "Updated");
+        assertFalse(groupImpl.updateTodo(1, new Todo(99, -1, "Unknown")), "Unknown updated");
+        assertEquals(TransitionResult.UPDATED, groupImpl.markTodoDone(1, 1), "Done");
+        assertEquals(TransitionResult.NOT_FOUND, groupImpl.activateTodo(1, 99), "Unknown activated");
+        assertTrue(groupImpl.deleteTodo(1, 2), "Deleted");
+        assertFalse(groupImpl.deleteTodo(1, 2), "Deleted twice");
+        assertEquals("Updated", groupImpl.getTodo(1, 1).getTitle(), "Title");
+        assertTrue(groupImpl.getTodo(1, 1).isDone(), "Done");
+        groupImpl.shutdown();
+        dataSource.close();
+    }
+
+    @Test
+    public void addTodos() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.execute("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (1, 1, -1, \"Existing\")");
+        List<Todo> todos = new LinkedList<>();
+        for(int i=0; i < 50; i++) {
+            Todo todo = new Todo(0, 1, "Child "+i);
+            todo.setScheduled(true);
+            todo.setDueDate(LocalDate.of(2019, 4, 21).plusDays(i));
+            todos.add(todo);
+        }
+
+        List<Integer> ids = this.impl.addTodos(1, todos);
+        assertNotNull(ids, "IDs");
+        assertEquals(50, ids.size(), "Size");
+        for(int i=0; i < 50; i++) {
+            assertEquals(i+2, (int)ids.get(i), "ID "+i);
+        }
+        Todo result = this.jdbcTemplate.queryForObject("SELECT * FROM TodoItems WHERE ID=51 AND ListID=1", this::mapTodoItem);
+        assertEquals("Child 49", result.getTitle(), "Title");
+        assertEquals(1, result.getParentId(), "ParentID");
+        assertEquals(LocalDate.of(2019, 6, 9), result.getDueDate(), "DueDate");
+        assertEquals(52, this.impl.addTodo(1, new Todo(0, -1, "After batch")), "Next ID");
+    }
+
+    @Test
+    public void addTodos_UnknownList() {
+        List<Integer> ids = this.impl.addTodos(2, Arrays.asList(new Todo(0, -1, "One"), new Todo(0, -1, "Two")));
+        assertNull(ids, "IDs");
+        assertEquals(0, (int)this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TodoItems", Integer.class), "Items");
+    }
+
     @Test
     public void getTodos() {
         this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
@@ -218,6 +377,184 @@ public class DatabaseManagerImplTest {
         assertFalse(todos.get(1).isDone(), "Done");
     }
 
+    @Test
+    public void getTodos_ListOrder() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, DueDay, DueSecond) VALUES (1, 1, -1, 'No due date', NULL, NULL)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, DueDay, DueSecond) VALUES (2, 1, -1, 'Day only', ?, NULL)", LocalDate.of(2020, 1, 1).toEpochDay());
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, DueDay, DueSecond) VALUES (3, 1, 2, 'Morning', ?, 28800)", LocalDate.of(2020, 1, 1).toEpochDay());
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, DueDay, DueSecond) VALUES (4, 1, 2, 'Also morning', ?, 28800)", LocalDate.of(2020, 1, 1).toEpochDay());
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, DueDay, DueSecond) VALUES (5, 1, -1, 'Earlier', ?, NULL)", LocalDate.of(2019, 12, 31).toEpochDay());
+
+        List<Todo> todos = this.impl.getTodos(1);
+        assertEquals(Arrays.asList(5, 3, 4, 2, 1), todos.stream().map(Todo::getId).collect(Collectors.toList()), "List order");
+        List<Todo> sorted = new ArrayList<>(todos);
+        sorted.sort(TodoQuery.LIST_ORDER);
+        assertEquals(todos, sorted, "Same order as the comparator");
+        assertEquals(Arrays.asList(3, 4), todos.get(3).getChildren().stream().map(Todo::getId).collect(Collectors.toList()), "Children order");
+    }
+
+    @Test
+    public void getTodos_RootsOnly() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (1, 1, 3, \"Child\")");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (2, 1, 1, \"Grandchild\")");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (3, 1, -1, \"Parent\")");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (4, 1, 9, \"Orphan\")");
+
+        List<Todo> todos = this.impl.getTodos(1, true);
+        assertNotNull(todos, "Todos");
+        assertEquals(2, todos.size(), "Size");
+        assertEquals(3, todos.get(0).getId(), "Root ID");
+        assertEquals(1, todos.get(0).getChildren().size(), "Root children");
+        assertEquals(1, todos.get(0).getChildren().get(0).getId(), "Child ID");
+        assertEquals(1, todos.get(0).getChildren().get(0).getChildren().size(), "Child children");
+        assertEquals(2, todos.get(0).getChildren().get(0).getChildren().get(0).getId(), "Grandchild ID");
+        assertEquals(4, todos.get(1).getId(), "Orphan ID");
+        assertEquals(4, this.impl.getTodos(1, false).size(), "Flat size");
+    }
+
+    @Test
+    public void getTodos_Query() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Done, Scheduled, DueDay) VALUES (1, 1, -1, 'Done', 1, 1, ?)", LocalDate.of(2020, 1, 1).toEpochDay());
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Scheduled, DueDay) VALUES (2, 1, -1, 'Open', 1, ?)", LocalDate.of(2020, 1, 2).toEpochDay());
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Scheduled, DueDay) VALUES (3, 1, 2, 'Child', 0, ?)", LocalDate.of(2020, 2, 1).toEpochDay());
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (4, 1, 2, 'No due date')");
+
+        TodoQuery query = new TodoQuery();
+        query.setDone(false);
+        assertEquals(Arrays.asList(2, 3, 4), ids(this.impl.getTodos(1, query)), "Open");
+        query.setScheduled(true);
+        assertEquals(Arrays.asList(2), ids(this.impl.getTodos(1, query)), "Open and scheduled");
+
+        query = new TodoQuery();
+        query.setDueFrom(LocalDate.of(2020, 1, 2));
+        assertEquals(Arrays.asList(2, 3), ids(this.impl.getTodos(1, query)), "Due from");
+        query.setDueTo(LocalDate.of(2020, 1, 31));
+        assertEquals(Arrays.asList(2), ids(this.impl.getTodos(1, query)), "Due between");
+
+        query = new TodoQuery();
+        query.setParentId(2);
+        assertEquals(Arrays.asList(3, 4), ids(this.impl.getTodos(1, query)), "Parent");
+        assertTrue(this.impl.getTodos(2, query).getItems().isEmpty(), "Unknown list");
+    }
+
+    @Test
+    public void getTodos_QueryPages() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        final String INSERT = "INSERT INTO TodoItems (ID, ListID, ParentID, Title, DueDay, DueSecond) VALUES (?, 1, -1, 'Item', ?, ?)";
+        long day = LocalDate.of(2020, 1, 1).toEpochDay();
+        this.jdbcTemplate.update(INSERT, 1, null, null);
+        this.jdbcTemplate.update(INSERT, 2, day + 1, null);
+        this.jdbcTemplate.update(INSERT, 3, day + 1, 3600);
+        this.jdbcTemplate.update(INSERT, 4, day, 7200);
+        this.jdbcTemplate.update(INSERT, 5, day, 7200);
+        this.jdbcTemplate.update(INSERT, 6, null, null);
+
+        TodoQuery query = new TodoQuery();
+        query.setLimit(2);
+        List<Integer> ids = new ArrayList<>();
+        int pages = 0;
+        TodoPage page;
+        do {
+            page = this.impl.getTodos(1, query);
+            assertTrue(page.getItems().size() <= 2, "Page size");
+            ids.addAll(ids(page));
+            query.setCursor(page.getNextCursor());
+            pages++;
+        } while(page.getNextCursor() != null);
+        assertEquals(Arrays.asList(4, 5, 3, 2, 1, 6), ids, "Order");
+        assertEquals(3, pages, "Pages");
+    }
+
+    @Test
+    public void getTodos_QueryFields() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        final String INSERT = "INSERT INTO TodoItems (ID, ListID, ParentID, Title, Description, Done, DueDay) VALUES (?, 1, -1, ?, 'Long notes', 1, ?)";
+        this.jdbcTemplate.update(INSERT, 1, "First", LocalDate.of(2020, 1, 1).toEpochDay());
+        this.jdbcTemplate.update(INSERT, 2, "Second", LocalDate.of(2020, 1, 2).toEpochDay());
+
+        TodoQuery query = new TodoQuery();
+        query.setLimit(1);
+        query.setFields(TodoFields.parse("title"));
+        TodoPage page = this.impl.getTodos(1, query);
+        Todo todo = page.getItems().get(0);
+        assertEquals("First", todo.getTitle(), "Title");
+        assertNull(todo.getDescription(), "Description not read");
+        assertFalse(todo.isDone(), "Done not read");
+        query.setCursor(page.getNextCursor());
+        assertEquals(Arrays.asList(2), ids(this.impl.getTodos(1, query)), "Cursor without the due date field");
+    }
+
+    @Test
+    public void todoFields() {
+        assertTrue(TodoFields.parse(null).isAll(), "All");
+        assertEquals(new LinkedHashSet<>(Arrays.asList("id", "parentId", "title", "children")), TodoFields.parse("title, children").getProperties(), "Properties");
+        assertEquals("ID, ParentID, Title, NULL, NULL, NULL, DueDay, DueSecond, NULL, NULL, NULL, NULL", TodoFields.parse("title").columns(), "Columns");
+        assertThrows(IllegalArgumentException.class, () -> TodoFields.parse("title,password"), "Unknown field");
+        assertThrows(IllegalArgumentException.class, () -> TodoFields.parse("title,doneAt"), "Internal field");
+    }
+
+    @Test
+    public void getTodos_QueryInvalidCursor() {
+        TodoQuery query = new TodoQuery();
+        assertThrows(IllegalArgumentException.class, () -> query.setCursor("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> query.setCursor("MToy"));
+    }
+
+    private static List<Integer> ids(final TodoPage page) {
+        List<Integer> ids = new ArrayList<>();
+        for(Todo todo: page.getItems()) {
+            ids.add(todo.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void getTodos_WALReaderDuringWrite(@TempDir Path dir) throws Exception {
+        SQLiteConfig writerConfig = new SQLiteConfig();
+        writerConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        SingleConnectionDataSource writer = new SingleConnectionDataSource();
+        writer.setDriverClassName("org.sqlite.JDBC");
+        writer.setUrl("jdbc:sqlite:"+dir.resolve("wal.db"));
+        writer.setConnectionProperties(writerConfig.toProperties());
+        DatabaseManagerImpl walImpl = new DatabaseManagerImpl();
+        walImpl.setDataSource(writer);
+        JdbcTemplate writerTemplate = new JdbcTemplate(writer);
+        writerTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        writerTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        writerTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (1, 1, -1, \"Committed\")");
+
+        SQLiteConfig readerConfig = new SQLiteConfig();
+        readerConfig.setReadOnly(true);
+        SingleConnectionDataSource reader = new SingleConnectionDataSource();
+        reader.setDriverClassName("org.sqlite.JDBC");
+        reader.setUrl("jdbc:sqlite:"+dir.resolve("wal.db"));
+        reader.setConnectionProperties(readerConfig.toProperties());
+        walImpl.setReadDataSource(reader);
+
+        Connection connection = writer.getConnection();
+        connection.setAutoCommit(false);
+        connection.createStatement().executeUpdate("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (2, 1, -1, 'Uncommitted')");
+        List<Todo> todos = walImpl.getTodos(1);
+        assertNotNull(todos, "Todos during write");
+        assertEquals(1, todos.size(), "Size during write");
+        assertEquals("Committed", todos.get(0).getTitle(), "Title");
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        assertEquals(2, walImpl.getTodos(1).size(), "Size after commit");
+        assertEquals(1, walImpl.getUserList("UserOne"), "List ID");
+        reader.destroy();
+        writer.destroy();
+    }
+
     @Test
     public void getTodos_UnknownID() {
         this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
@@ -254,7 +591,7 @@ public class DatabaseManagerImplTest {
         this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (1, 1, -1, \"Parent\")");
         this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (2, 1, 1, \"Child\")");
 
-        OffsetDateTime now = OffsetDateTime.now();
+        OffsetDateTime now = OffsetDateTime.now().truncatedTo(ChronoUnit.MILLIS);
         Todo todo = new Todo(2, -1, "Task2");
         todo.setLastNotification(now);
         boolean result = this.impl.updateTodo(1, todo);
@@ -264,7 +601,7 @@ public class DatabaseManagerImplTest {
         assertNotNull(todoUpd, "Todo");
         assertEquals(-1, todoUpd.getParentId(), "ParentID");
         assertEquals("Task2", todoUpd.getTitle(), "Title");
-        assertEquals(now, todoUpd.getLastNotification(), "Last updated");
+        assertEquals(now.toInstant(), todoUpd.getLastNotification().toInstant(), "Last updated");
     }
 
     @Test
@@ -302,6 +639,12 @@ public class DatabaseManagerImplTest {
         assertEquals(2, (int)this.jdbcTemplate.queryForObject("SELECT UserID FROM TodoLists WHERE ID=?", Integer.class, 2), "User");
     }
 
+    @Test
+    public void addList_UnknownUser() {
+        int id = this.impl.addList("User");
+        assertEquals(-1, id, "ID");
+    }
+
     @Test
     public void addList_UsernameClash() {
         this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'User')");
@@ -325,6 +668,29 @@ public class DatabaseManagerImplTest {
         assertEquals(-1, id, "ID");
     }
 
+    @Test
+    public void getUserList_Cached() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        this.impl.setMeterRegistry(registry);
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+
+        assertEquals(1, this.impl.getUserList("UserOne"), "ID");
+        this.jdbcTemplate.update("DELETE FROM TodoLists");
+        assertEquals(1, this.impl.getUserList("UserOne"), "Cached ID");
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "userLists").tag("result", "hit").functionCounter().count(), "Hits");
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "userLists").tag("result", "miss").functionCounter().count(), "Misses");
+    }
+
+    @Test
+    public void getUserList_AfterAddList() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+
+        assertEquals(-1, this.impl.getUserList("UserOne"), "ID before list");
+        int id = this.impl.addList("UserOne");
+        assertEquals(id, this.impl.getUserList("UserOne"), "ID after list");
+    }
+
     @Test
     public void deleteTodo() {
         EmptyResultDataAccessException thrown = Assertions.assertThrows(EmptyResultDataAccessException.class, () -> {
@@ -397,6 +763,248 @@ public class DatabaseManagerImplTest {
         assertNull(todo, "Todo");
     }
 
+    @Test
+    public void markTodoDone() {
+        this.insertTransitionItem(false, false, null, null);
+        assertEquals(TransitionResult.UPDATED, this.impl.markTodoDone(1, 1), "Result");
+        assertTrue(this.impl.getTodo(1, 1).isDone(), "Done");
+        assertEquals(TransitionResult.WRONG_STATE, this.impl.markTodoDone(1, 1), "Already done");
+        assertEquals(TransitionResult.NOT_FOUND, this.impl.markTodoDone(1, 2), "Unknown item");
+        assertEquals(TransitionResult.NOT_FOUND, this.impl.markTodoDone(2, 1), "Unknown list");
+    }
+
+    @Test
+    public void markTodoDone_Repeating() {
+        this.assertRepeatAdvance(new Repeat(1, Repeat.TimePeriod.Days), LocalDate.of(2019, 12, 1));
+        this.assertRepeatAdvance(new Repeat(1, Repeat.TimePeriod.Weeks), LocalDate.of(2019, 12, 7));
+        this.assertRepeatAdvance(new Repeat(2, Repeat.TimePeriod.Weeks), LocalDate.of(2019, 12, 14));
+        this.assertRepeatAdvance(new Repeat(1, Repeat.TimePeriod.Months), LocalDate.of(2019, 12, 30));
+        this.assertRepeatAdvance(new Repeat(1, Repeat.TimePeriod.Years), LocalDate.of(2020, 11, 30));
+    }
+
+    @Test
+    public void markTodoDone_RepeatingWithoutDueDate() {
+        this.insertTransitionItem(false, true, null, new Repeat(1, Repeat.TimePeriod.Days));
+        assertEquals(TransitionResult.WRONG_STATE, this.impl.markTodoDone(1, 1), "Result");
+        assertFalse(this.impl.getTodo(1, 1).isDone(), "Done");
+    }
+
+    @Test
+    public void activateTodo() {
+        this.insertTransitionItem(true, true, LocalDate.of(2019, 11, 30), new Repeat(1, Repeat.TimePeriod.Weeks));
+        assertEquals(TransitionResult.UPDATED, this.impl.activateTodo(1, 1), "Result");
+        assertFalse(this.impl.getTodo(1, 1).isDone(), "Done");
+        assertEquals(LocalDate.of(2019, 11, 23).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                (long)this.jdbcTemplate.queryForObject("SELECT NextAlertAt FROM TodoItems WHERE ListID=1 AND ID=1", Long.class), "Next alert");
+        assertEquals(TransitionResult.WRONG_STATE, this.impl.activateTodo(1, 1), "Already active");
+        assertEquals(TransitionResult.NOT_FOUND, this.impl.activateTodo(1, 2), "Unknown item");
+    }
+
+    @Test
+    public void deactivateTodo() {
+        this.insertTransitionItem(false, true, LocalDate.of(2019, 11, 30), new Repeat(1, Repeat.TimePeriod.Weeks));
+        assertEquals(TransitionResult.UPDATED, this.impl.deactivateTodo(1, 1), "Result");
+        assertTrue(this.impl.getTodo(1, 1).isDone(), "Done");
+        assertEquals(LocalDate.of(2019, 11, 30), this.impl.getTodo(1, 1).getDueDate(), "Due date");
+        assertEquals(TransitionResult.WRONG_STATE, this.impl.deactivateTodo(1, 1), "Already inactive");
+        assertEquals(TransitionResult.NOT_FOUND, this.impl.deactivateTodo(1, 2), "Unknown item");
+    }
+
+    @Test
+    public void deactivateTodo_NonRepeating() {
+        this.insertTransitionItem(false, true, LocalDate.of(2019, 11, 30), new Repeat(0, Repeat.TimePeriod.None));
+        assertEquals(TransitionResult.WRONG_STATE, this.impl.deactivateTodo(1, 1), "Result");
+        assertFalse(this.impl.getTodo(1, 1).isDone(), "Done");
+    }
+
+    @Test
+    public void markTodoDone_SetsDoneAt() {
+        this.insertTransitionItem(false, false, null, null);
+        assertNull(this.impl.getTodo(1, 1).getDoneAt(), "Open item");
+        long before = System.currentTimeMillis();
+        assertEquals(TransitionResult.UPDATED, this.impl.markTodoDone(1, 1), "Done");
+        OffsetDateTime doneAt = this.impl.getTodo(1, 1).getDoneAt();
+        assertNotNull(doneAt, "DoneAt");
+        assertTrue(doneAt.toInstant().toEpochMilli() >= before, "DoneAt time");
+
+        Todo todo = this.impl.getTodo(1, 1);
+        todo.setTitle("Renamed");
+        assertTrue(this.impl.updateTodo(1, todo), "Update");
+        assertEquals(doneAt, this.impl.getTodo(1, 1).getDoneAt(), "DoneAt kept on update");
+
+        assertEquals(TransitionResult.UPDATED, this.impl.activateTodo(1, 1), "Activated");
+        assertNull(this.impl.getTodo(1, 1).getDoneAt(), "DoneAt cleared");
+    }
+
+    @Test
+    public void archiveTodos() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        final String INSERT = "INSERT INTO TodoItems (ID, ListID, ParentID, Title, Done, Scheduled, RepeatCode, DoneAt) VALUES (?, 1, ?, ?, ?, 0, ?, ?)";
+        this.jdbcTemplate.update(INSERT, 1, -1, "Old", true, null, 1000L);
+        this.jdbcTemplate.update(INSERT, 2, -1, "Recent", true, null, 5000L);
+        this.jdbcTemplate.update(INSERT, 3, -1, "Open", false, null, null);
+        this.jdbcTemplate.update(INSERT, 4, -1, "Repeating", true, new Repeat(1, Repeat.TimePeriod.Days).toCode(), 1000L);
+        this.jdbcTemplate.update(INSERT, 5, -1, "Parent with open child", true, null, 1000L);
+        this.jdbcTemplate.update(INSERT, 6, 5, "Open child", false, null, null);
+        this.jdbcTemplate.update(INSERT, 7, -1, "Parent", true, null, 1000L);
+        this.jdbcTemplate.update(INSERT, 8, 7, "Done child", true, null, 1000L);
+
+        assertEquals(3, this.impl.archiveTodos(Instant.ofEpochMilli(2000), 1), "Archived");
+        assertEquals(Arrays.asList(2, 3, 4, 5, 6), this.jdbcTemplate.queryForList("SELECT ID FROM TodoItems ORDER BY ID", Integer.class), "Remaining");
+
+        ArchiveQuery query = new ArchiveQuery();
+        TodoPage page = this.impl.getArchivedTodos(1, query);
+        assertEquals(Arrays.asList(8, 7, 1), ids(page), "Archived items");
+        assertEquals("Old", page.getItems().get(2).getTitle(), "Title");
+        assertEquals(1000L, page.getItems().get(2).getDoneAt().toInstant().toEpochMilli(), "DoneAt");
+        assertNull(page.getNextCursor(), "Next cursor");
+
+        assertEquals(0, this.impl.archiveTodos(Instant.ofEpochMilli(2000), 10), "Nothing left");
+    }
+
+    @Test
+    public void getArchivedTodos_Pages() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        final String INSERT = "INSERT INTO ArchivedTodoItems (ID, ListID, ParentID, Title, Done, Scheduled, DoneAt) VALUES (?, ?, -1, 'Title', 1, 0, ?)";
+        this.jdbcTemplate.update(INSERT, 1, 1, 3000L);
+        this.jdbcTemplate.update(INSERT, 2, 1, 1000L);
+        this.jdbcTemplate.update(INSERT, 3, 1, 3000L);
+        this.jdbcTemplate.update(INSERT, 4, 1, 2000L);
+        this.jdbcTemplate.update(INSERT, 1, 2, 4000L);
+
+        ArchiveQuery query = new ArchiveQuery();
+        query.setLimit(3);
+        TodoPage first = this.impl.getArchivedTodos(1, query);
+        assertEquals(Arrays.asList(3, 1, 4), ids(first), "First page");
+        assertNotNull(first.getNextCursor(), "Next cursor");
+
+        query.setCursor(first.getNextCursor());
+        TodoPage second = this.impl.getArchivedTodos(1, query);
+        assertEquals(Arrays.asList(2), ids(second), "Second page");
+        assertNull(second.getNextCursor(), "Last page");
+    }
+
+    @Test
+    public void streamTodos() throws Exception {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, DueDay) VALUES (1, 1, -1, 'No due date', NULL)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, DueDay) VALUES (2, 1, -1, 'Later', ?)", LocalDate.of(2020, 2, 1).toEpochDay());
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, DueDay) VALUES (3, 1, 2, 'Sooner', ?)", LocalDate.of(2020, 1, 1).toEpochDay());
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, DueDay) VALUES (4, 2, -1, 'Other list', NULL)");
+
+        ReflectionTestUtils.setField(this.impl, "streamChunkSize", 2);
+        List<Integer> ids = new ArrayList<>();
+        List<Boolean> inTransaction = new ArrayList<>();
+        assertTrue(this.impl.streamTodos(1, TodoFields.ALL, todo -> {
+            ids.add(todo.getId());
+            inTransaction.add(TransactionSynchronizationManager.isActualTransactionActive());
+        }), "Streamed");
+        assertEquals(Arrays.asList(3, 2, 1), ids, "Due date order across chunks");
+        assertEquals(Arrays.asList(false, false, false), inTransaction, "Handed over outside of the reads");
+
+        java.io.IOException failure = assertThrows(java.io.IOException.class, () -> this.impl.streamTodos(1, TodoFields.ALL, todo -> {
+            throw new java.io.IOException("Client gone");
+        }));
+        assertEquals("Client gone", failure.getMessage(), "Callback failure");
+    }
+
+    @Test
+    public void getChanges() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        int first = this.impl.addTodo(1, new Todo(0, -1, "First"));
+        int second = this.impl.addTodo(1, new Todo(0, -1, "Second"));
+        this.impl.addTodos(1, Arrays.asList(new Todo(0, -1, "Third"), new Todo(0, -1, "Fourth")));
+
+        TodoChanges all = this.impl.getChanges(1, 0);
+        assertEquals(3, all.getSeq(), "Seq");
+        assertEquals(4, all.getItems().size(), "Items");
+        assertTrue(all.getDeleted().isEmpty(), "Deleted");
+
+        Todo todo = this.impl.getTodo(1, first);
+        todo.setTitle("Renamed");
+        assertTrue(this.impl.updateTodo(1, todo), "Update");
+        assertEquals(TransitionResult.UPDATED, this.impl.markTodoDone(1, second), "Done");
+        assertTrue(this.impl.deleteTodo(1, second), "Delete");
+
+        TodoChanges changes = this.impl.getChanges(1, all.getSeq());
+        assertEquals(6, changes.getSeq(), "Seq");
+        assertEquals(1, changes.getItems().size(), "Changed items");
+        assertEquals("Renamed", changes.getItems().get(0).getTitle(), "Title");
+        assertEquals(Arrays.asList(second), changes.getDeleted(), "Deleted");
+
+        TodoChanges none = this.impl.getChanges(1, changes.getSeq());
+        assertEquals(6, none.getSeq(), "Unchanged seq");
+        assertTrue(none.getItems().isEmpty() && none.getDeleted().isEmpty(), "No changes");
+        assertEquals(3, this.impl.getChanges(1, 0).getItems().size(), "Items without tombstones");
+    }
+
+    @Test
+    public void archiveTodos_LogsTombstones() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        Todo todo = new Todo(0, -1, "Done");
+        todo.setDone(true);
+        int id = this.impl.addTodo(1, todo);
+        long seq = this.impl.getChanges(1, 0).getSeq();
+
+        assertEquals(1, this.impl.archiveTodos(Instant.now().plusSeconds(60), 10), "Archived");
+        assertEquals(Arrays.asList(id), this.impl.getChanges(1, seq).getDeleted(), "Tombstone");
+    }
+
+    @Test
+    public void archiveTodos_PrunesTombstones() {
+        ReflectionTestUtils.setField(this.impl, "changeLogRetain", 2L);
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        int kept = this.impl.addTodo(1, new Todo(0, -1, "Kept"));
+        int deleted = this.impl.addTodo(1, new Todo(0, -1, "Deleted"));
+        long before = this.impl.getChanges(1, 0).getSeq();
+        assertTrue(this.impl.deleteTodo(1, deleted), "Delete");
+        long resumable = this.impl.getChangeSeq(1);
+        this.impl.addTodo(1, new Todo(0, -1, "Later"));
+        this.impl.addTodo(1, new Todo(0, -1, "Latest"));
+
+        assertEquals(0, this.impl.archiveTodos(Instant.now(), 10), "Nothing to archive");
+        assertEquals(0, (int)this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TodoItemChanges WHERE ItemID=?", Integer.class, deleted), "Tombstone pruned");
+        assertEquals(3, (int)this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TodoItemChanges", Integer.class), "Items kept");
+
+        TodoChanges reset = this.impl.getChanges(1, before);
+        assertTrue(reset.isReset(), "Reset before the pruned tombstone");
+        assertEquals(3, reset.getItems().size(), "Whole list");
+        assertTrue(reset.getDeleted().isEmpty(), "No deletions");
+        assertEquals(this.impl.getChangeSeq(1), reset.getSeq(), "Seq");
+        assertTrue(reset.getItems().stream().anyMatch(todo -> todo.getId() == kept), "Kept item");
+
+        TodoChanges resumed = this.impl.getChanges(1, resumable);
+        assertFalse(resumed.isReset(), "Resumed after the pruned tombstone");
+        assertEquals(2, resumed.getItems().size(), "Later items");
+
+        this.jdbcTemplate.update("DELETE FROM TodoItemChanges");
+        TodoChanges empty = this.impl.getChanges(1, before);
+        assertTrue(empty.isReset() && empty.getItems().isEmpty(), "Reset without changes");
+        assertEquals(resumable, empty.getSeq(), "Continues from the pruned seq");
+    }
+
+    private void insertTransitionItem(final boolean done, final boolean scheduled, final LocalDate dueDate, final Repeat repeat) {
+        this.jdbcTemplate.update("DELETE FROM TodoItems");
+        this.jdbcTemplate.update("INSERT OR IGNORE INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.update("INSERT OR IGNORE INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Done, Scheduled, DueDay, RepeatCode) VALUES (1, 1, -1, 'Title', ?, ?, ?, ?)",
+                done, scheduled, dueDate != null ? dueDate.toEpochDay() : null, repeat != null ? repeat.toCode() : null);
+    }
+
+    private void assertRepeatAdvance(final Repeat repeat, final LocalDate expected) {
+        this.insertTransitionItem(false, true, LocalDate.of(2019, 11, 30), repeat);
+        assertEquals(TransitionResult.UPDATED, this.impl.markTodoDone(1, 1), "Result "+repeat);
+        Todo todo = this.impl.getTodo(1, 1);
+        assertFalse(todo.isDone(), "Done "+repeat);
+        assertEquals(expected, todo.getDueDate(), "Due date "+repeat);
+    }
+
     @Test
     public void getUsers() {
         this.jdbcTemplate.execute("INSERT INTO UserAccounts (ID, Username, Password, Roles, Email) VALUES (1, 'user', 'user', 'admin,user', 'test@example.com')");
@@ -423,20 +1031,20 @@ public class DatabaseManagerImplTest {
         }
         todo.setDone(rs.getBoolean("Done"));
         todo.setScheduled(rs.getBoolean("Scheduled"));
-        if(rs.getString("DueDate") != null) {
-            todo.setDueDate(LocalDate.parse(rs.getString("DueDate")));
+        if(rs.getObject("DueDay") != null) {
+            todo.setDueDate(LocalDate.ofEpochDay(rs.getLong("DueDay")));
         }
-        if(rs.getString("DueTime") != null) {
-            todo.setDueTime(LocalTime.parse(rs.getString("DueTime")));
+        if(rs.getObject("DueSecond") != null) {
+            todo.setDueTime(LocalTime.ofSecondOfDay(rs.getInt("DueSecond")));
         }
-        if(rs.getString("DueTimezone") != null) {
-            todo.setDueTimezone(ZoneOffset.of(rs.getString("DueTimezone")));
+        if(rs.getObject("DueOffset") != null) {
+            todo.setDueTimezone(ZoneOffset.ofTotalSeconds(rs.getInt("DueOffset")));
         }
-        if(rs.getString("Repeating") != null) {
-            todo.setRepeat(Repeat.parse(rs.getString("Repeating")));
+        if(rs.getObject("RepeatCode") != null) {
+            todo.setRepeat(Repeat.fromCode(rs.getInt("RepeatCode")));
         }
-        if(rs.getString("LastNotification") != null) {
-            todo.setLastNotification(OffsetDateTime.parse(rs.getString("LastNotification")));
+        if(rs.getObject("LastNotifiedAt") != null) {
+            todo.setLastNotification(OffsetDateTime.ofInstant(Instant.ofEpochMilli(rs.getLong("LastNotifiedAt")), ZoneId.systemDefault()));
         }
         return todo;
     }
@@ -469,22 +1077,290 @@ public class DatabaseManagerImplTest {
         this.impl.migrateDatabaseToLatestVersion();
 
         final String INSERT_USER = "INSERT INTO UserAccounts (ID, Username, Password, Roles, Email) VALUES (?, ?, ?, ?, ?)";
-        final String INSERT_TODO_ITEM = "INSERT INTO TodoItems (ID, ListID, ParentID, Title, Description, Done, Scheduled, LastNotification) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-        final String SELECT_LAST_NOTIFICATION = "SELECT LastNotification FROM TodoItems WHERE ID=?";
+        final String INSERT_TODO_ITEM = "INSERT INTO TodoItems (ID, ListID, ParentID, Title, Description, Done, Scheduled, LastNotifiedAt) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        final String SELECT_LAST_NOTIFICATION = "SELECT LastNotifiedAt FROM TodoItems WHERE ID=?";
         final String SELECT_EMAIL = "SELECT Email FROM UserAccounts WHERE ID=?";
 
-        assertEquals(2, (int)this.jdbcTemplate.queryForObject(SELECT_VERSION, Integer.class), "Version number");
+        assertEquals(11, (int)this.jdbcTemplate.queryForObject(SELECT_VERSION, Integer.class), "Version number");
+        assertEquals(0, (int)this.jdbcTemplate.queryForObject("SELECT COUNT(LastItemID) FROM TodoLists", Integer.class), "LastItemID column");
+        assertIndexExists("UserAccountsUsernameIdx");
+        assertIndexExists("TodoListsUserIdx");
+        assertIndexExists("TodoItemsListIdx");
+        assertIndexMissing("TodoItemsOpenScheduledIdx");
+        assertIndexExists("TodoItemsNextAlertIdx");
+        assertIndexExists("TodoItemsListDueIdx");
+        assertIndexExists("TodoItemsDoneAtIdx");
+        assertIndexExists("ArchivedTodoItemsListIdx");
+        assertIndexExists("TodoItemChangesSeqIdx");
         assertEquals(1, this.jdbcTemplate.update(INSERT_USER, 1, "user", "pwd", "ADMIN, USER", "test@example.com"), "User insert");
-        assertEquals(1, this.jdbcTemplate.update(INSERT_TODO_ITEM, 1, 1, -1, "Title", "Description", 0, 0, "2020-03-26T16:10:00+0200"), "Todo item insert");
+        assertEquals(1, this.jdbcTemplate.update(INSERT_TODO_ITEM, 1, 1, -1, "Title", "Description", 0, 0, 1585231800000L), "Todo item insert");
         assertEquals("test@example.com", this.jdbcTemplate.queryForObject(SELECT_EMAIL, String.class, 1), "Email");
-        assertEquals("2020-03-26T16:10:00+0200", this.jdbcTemplate.queryForObject(SELECT_LAST_NOTIFICATION, String.class, 1), "Last notification");
+        assertEquals(1585231800000L, (long)this.jdbcTemplate.queryForObject(SELECT_LAST_NOTIFICATION, Long.class, 1), "Last notification");
+    }
+
+    @Test
+    public void migrateV4toV5() {
+        final String CREATE_TODO_LISTS_TABLE_V4 = "CREATE TABLE IF NOT EXISTS TodoLists (ID INTEGER, UserID INTEGER, LastItemID INTEGER DEFAULT 0, FOREIGN KEY (UserID) REFERENCES UserAccounts(ID), PRIMARY KEY(ID))";
+        final String CREATE_TODO_ITEMS_TABLE_V4 = "CREATE TABLE IF NOT EXISTS TodoItems (ID INTEGER, ListID INTEGER, ParentID INTEGER, Title TEXT, Description TEXT, Done BOOLEAN, Scheduled BOOLEAN, DueDate TEXT, DueTime TEXT, DueTimezone TEXT, Repeating TEXT, LastNotification TEXT, FOREIGN KEY (ListID) REFERENCES TodoLists(ID), PRIMARY KEY (ID, ListID))";
+        final String CREATE_TODO_ITEMS_OPEN_SCHEDULED_INDEX_V4 = "CREATE INDEX IF NOT EXISTS TodoItemsOpenScheduledIdx ON TodoItems (DueDate, ListID) WHERE Scheduled = TRUE AND Done = FALSE";
+
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource();
+        dataSource.setDriverClassName("org.sqlite.JDBC");
+        dataSource.setUrl("jdbc:sqlite:file::memory:");
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.execute(DatabaseManagerImpl.CREATE_SCHEMA_VERSION_TABLE);
+        this.jdbcTemplate.execute(DatabaseManagerImpl.CREATE_USER_ACCOUNTS_TABLE);
+        this.jdbcTemplate.execute(CREATE_TODO_LISTS_TABLE_V4);
+        this.jdbcTemplate.execute(CREATE_TODO_ITEMS_TABLE_V4);
+        this.jdbcTemplate.execute(CREATE_TODO_ITEMS_OPEN_SCHEDULED_INDEX_V4);
+        this.jdbcTemplate.update("INSERT INTO Settings (Version) VALUES (4)");
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'Test')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Done, Scheduled, DueDate, DueTime, DueTimezone, Repeating, LastNotification) VALUES (1, 1, -1, 'Full', 0, 1, '2019-11-23', '14:56', '+02:00', 'Every 2 Weeks', '2020-03-26T16:26:00+02:00')");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Done, Scheduled, Repeating, LastNotification) VALUES (2, 1, -1, 'Empty', 0, 0, 'No', 'not a timestamp')");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title, Done, Scheduled, DueDate, DueTimezone) VALUES (3, 1, -1, 'Done', 1, 1, '2020-01-10', 'Z')");
+
+        this.impl = new DatabaseManagerImpl();
+        this.impl.setDataSource(dataSource);
+        assertTrue(this.impl.migrateDatabaseToLatestVersion(), "Migrated");
+
+        assertEquals(11, (int)this.jdbcTemplate.queryForObject("SELECT Version FROM Settings", Integer.class), "Version number");
+        List<String> columns = this.jdbcTemplate.query("PRAGMA table_info(TodoItems)", (rs, rowNum) -> rs.getString("name"));
+        assertFalse(columns.contains("DueDate"), "DueDate dropped");
+        assertFalse(columns.contains("LastNotification"), "LastNotification dropped");
+        assertTrue(columns.contains("DoneAt"), "DoneAt added");
+        assertEquals(3, this.impl.getChanges(1, 0).getItems().size(), "Items in change log");
+        assertIndexMissing("TodoItemsOpenScheduledIdx");
+        assertIndexExists("TodoItemsNextAlertIdx");
+        final String SELECT_NEXT_ALERT = "SELECT NextAlertAt FROM TodoItems WHERE ID=?";
+        assertEquals(OffsetDateTime.parse("2020-03-27T00:00:00+02:00").toInstant().toEpochMilli(), (long)this.jdbcTemplate.queryForObject(SELECT_NEXT_ALERT, Long.class, 1), "Next alert of overdue item");
+        assertNull(this.jdbcTemplate.queryForObject(SELECT_NEXT_ALERT, Long.class, 2), "No alert without schedule");
+        assertEquals(Instant.parse("2020-01-03T00:00:00Z").toEpochMilli(), (long)this.jdbcTemplate.queryForObject(SELECT_NEXT_ALERT, Long.class, 3), "Next alert of done item");
+
+        Todo full = this.impl.getTodo(1, 1);
+        assertEquals(LocalDate.of(2019, 11, 23), full.getDueDate(), "DueDate");
+        assertEquals(LocalTime.of(14, 56), full.getDueTime(), "DueTime");
+        assertEquals(ZoneOffset.of("+02:00"), full.getDueTimezone(), "DueTimezone");
+        assertEquals(2, full.getRepeat().getTimes(), "Repeat times");
+        assertEquals(Repeat.TimePeriod.Weeks, full.getRepeat().getPeriod(), "Repeat period");
+        assertEquals(OffsetDateTime.parse("2020-03-26T16:26:00+02:00").toInstant(), full.getLastNotification().toInstant(), "LastNotification");
+
+        Todo empty = this.impl.getTodo(1, 2);
+        assertNull(empty.getDueDate(), "DueDate");
+        assertNull(empty.getDueTime(), "DueTime");
+        assertNull(empty.getDueTimezone(), "DueTimezone");
+        assertEquals(Repeat.TimePeriod.None, empty.getRepeat().getPeriod(), "Repeat period");
+        assertNull(empty.getLastNotification(), "LastNotification");
+    }
+
+    @Test
+    public void withoutRepeat_ReadsBackAsNone() {
+        this.jdbcTemplate.execute("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        Todo todo = new Todo(0, -1, "Once");
+        int id = this.impl.addTodo(1, todo);
+        assertEquals(Repeat.TimePeriod.None, this.impl.getTodo(1, id).getRepeat().getPeriod(), "Added");
+        todo.setId(id);
+        todo.setRepeat(null);
+        assertTrue(this.impl.updateTodo(1, todo), "Updated");
+        assertEquals(Repeat.TimePeriod.None, this.impl.getTodo(1, id).getRepeat().getPeriod(), "Updated");
+        assertEquals(Repeat.TimePeriod.None, this.impl.addTodos(1, Arrays.asList(new Todo(0, -1, "Batch"))).stream()
+                .map(added -> this.impl.getTodo(1, added).getRepeat().getPeriod()).findFirst().orElse(null), "Added in a batch");
+    }
+
+    @Test
+    public void migrateV9toV10() {
+        // TodoLists of V10 had no PrunedSeq yet
+        this.jdbcTemplate.execute("ALTER TABLE TodoLists DROP COLUMN PrunedSeq");
+        this.jdbcTemplate.update("INSERT INTO Settings (Version) VALUES (9)");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID, LastItemID) VALUES (1, 1, 0)");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID, LastItemID) VALUES (2, 2, 40)");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (3, 1, -1, 'Open')");
+        this.jdbcTemplate.update("INSERT INTO ArchivedTodoItems (ID, ListID, ParentID, Title) VALUES (7, 1, -1, 'Archived')");
+        this.jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (5, 2, -1, 'Behind')");
+
+        assertTrue(this.impl.migrateDatabaseToLatestVersion(), "Migrated");
+
+        assertEquals(11, (int)this.jdbcTemplate.queryForObject("SELECT Version FROM Settings", Integer.class), "Version number");
+        assertEquals(8, this.impl.addTodo(1, new Todo(0, -1, "New")), "Next id after the archived item");
+        assertEquals(40, (int)this.jdbcTemplate.queryForObject("SELECT LastItemID FROM TodoLists WHERE ID=2", Integer.class), "Reserved ids kept");
+        assertEquals(0, (int)this.jdbcTemplate.queryForObject("SELECT PrunedSeq FROM TodoLists WHERE ID=2", Integer.class), "PrunedSeq added");
     }
 
     @Test
     public void checkDatabaseVersion() {
         final String SELECT_VERSION = "SELECT Version FROM Settings";
         this.impl.checkDatabaseVersion();
-        assertEquals(2, (int)this.jdbcTemplate.queryForObject(SELECT_VERSION, Integer.class), "Version");
+        assertEquals(11, (int)this.jdbcTemplate.queryForObject(SELECT_VERSION, Integer.class), "Version");
+        assertIndexExists("UserAccountsUsernameIdx");
+        assertIndexMissing("TodoItemsOpenScheduledIdx");
+        assertIndexExists("TodoItemsNextAlertIdx");
+        assertIndexExists("TodoItemsListDueIdx");
+        assertIndexExists("TodoItemsDoneAtIdx");
+        assertIndexExists("ArchivedTodoItemsListIdx");
+        assertIndexExists("TodoItemChangesSeqIdx");
+    }
+
+    @Test
+    public void streamNotificationCandidates() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username,Email) VALUES (1,'UserOne','one@example.com')");
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (2,'UserTwo')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (2, 2)");
+        final String INSERT = "INSERT INTO TodoItems (ID, ListID, ParentID, Title, Scheduled, Done, NextAlertAt) VALUES (?, ?, -1, ?, ?, ?, ?)";
+        Instant now = Instant.parse("2020-01-01T12:00:00Z");
+        this.jdbcTemplate.update(INSERT, 1, 1, "Missed", true, false, now.minusSeconds(30*86400).toEpochMilli());
+        this.jdbcTemplate.update(INSERT, 2, 1, "Now", true, false, now.toEpochMilli());
+        this.jdbcTemplate.update(INSERT, 3, 1, "Later", true, false, now.plusSeconds(60).toEpochMilli());
+        this.jdbcTemplate.update(INSERT, 4, 1, "Done", true, true, now.toEpochMilli());
+        this.jdbcTemplate.update(INSERT, 5, 1, "Not scheduled", false, false, null);
+        this.jdbcTemplate.update(INSERT, 1, 2, "Other user", true, false, now.toEpochMilli());
+
+        List<String> found = new ArrayList<>();
+        List<Boolean> readOnly = new ArrayList<>();
+        assertTrue(this.impl.streamNotificationCandidates(now, candidate -> {
+            found.add(candidate.getListId()+":"+candidate.getTodo().getTitle()+":"+candidate.getUser().getUsername()+":"+candidate.getUser().getEmail());
+            readOnly.add(TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+        }), "Scanned");
+        found.sort(null);
+        assertEquals(Arrays.asList("1:Missed:UserOne:one@example.com", "1:Now:UserOne:one@example.com", "2:Other user:UserTwo:null"), found, "Candidates");
+        assertEquals(Arrays.asList(true, true, true), readOnly, "In a read-only transaction");
+    }
+
+    @Test
+    public void notificationScanUsesNextAlertIndex() {
+        this.impl.checkDatabaseVersion();
+        List<String> plan = this.jdbcTemplate.query("EXPLAIN QUERY PLAN SELECT t.ID, u.Email FROM TodoItems t JOIN TodoLists l ON l.ID=t.ListID LEFT JOIN UserAccounts u ON u.ID=l.UserID WHERE t.NextAlertAt <= ? AND t.Done = FALSE",
+                (rs, rowNum) -> rs.getString("detail"), Instant.parse("2020-01-01T00:00:00Z").toEpochMilli());
+        assertTrue(plan.stream().anyMatch(detail -> detail.contains("TodoItemsNextAlertIdx")), "Plan: "+plan);
+        assertTrue(plan.stream().noneMatch(detail -> detail.startsWith("SCAN")), "Plan: "+plan);
+    }
+
+    @Test
+    public void nextAlertFollowsWrites() {
+        final String SELECT_NEXT_ALERT = "SELECT NextAlertAt FROM TodoItems WHERE ListID=1 AND ID=?";
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        Todo todo = new Todo(0, -1, "Weekly");
+        todo.setScheduled(true);
+        todo.setDueDate(LocalDate.of(2020, 1, 10));
+        todo.setDueTimezone(ZoneOffset.UTC);
+        todo.setRepeat(new Repeat(1, Repeat.TimePeriod.Weeks));
+        int id = this.impl.addTodo(1, todo);
+        assertEquals(Instant.parse("2020-01-03T00:00:00Z").toEpochMilli(), (long)this.jdbcTemplate.queryForObject(SELECT_NEXT_ALERT, Long.class, id), "Week before");
+
+        todo.setId(id);
+        todo.setLastNotification(OffsetDateTime.parse("2020-01-03T08:00:00Z"));
+        assertTrue(this.impl.updateTodo(1, todo), "Notified");
+        assertEquals(Instant.parse("2020-01-09T00:00:00Z").toEpochMilli(), (long)this.jdbcTemplate.queryForObject(SELECT_NEXT_ALERT, Long.class, id), "Day before");
+
+        assertEquals(TransitionResult.UPDATED, this.impl.markTodoDone(1, id), "Advanced");
+        assertEquals(Instant.parse("2020-01-10T08:00:00Z").toEpochMilli(), (long)this.jdbcTemplate.queryForObject(SELECT_NEXT_ALERT, Long.class, id), "Week before the next repeat");
+
+        todo.setScheduled(false);
+        assertTrue(this.impl.updateTodo(1, todo), "Unscheduled");
+        assertNull(this.jdbcTemplate.queryForObject(SELECT_NEXT_ALERT, Long.class, id), "No alert");
+    }
+
+    @Test
+    public void markNotified_OnlyWhileUnchanged() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username,Email) VALUES (1,'UserOne','one@example.com')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        Todo todo = new Todo(0, -1, "Due");
+        todo.setScheduled(true);
+        todo.setDueDate(LocalDate.of(2020, 1, 10));
+        todo.setDueTimezone(ZoneOffset.UTC);
+        int id = this.impl.addTodo(1, todo);
+        Instant now = Instant.parse("2020-01-03T08:00:00Z");
+        List<NotificationCandidate> candidates = new ArrayList<>();
+        assertTrue(this.impl.streamNotificationCandidates(now, candidates::add), "Scanned");
+        assertEquals(1, candidates.size(), "Candidates");
+        assertEquals(Instant.parse("2020-01-03T00:00:00Z"), candidates.get(0).getAlertAt(), "Scanned alert");
+
+        // edited after the scan
+        Todo edited = this.impl.getTodo(1, id);
+        edited.setTitle("Edited");
+        edited.setDueDate(LocalDate.of(2020, 1, 20));
+        assertTrue(this.impl.updateTodo(1, edited), "Edited");
+        assertFalse(this.impl.markNotified(candidates.get(0), OffsetDateTime.ofInstant(now, ZoneOffset.UTC)), "Stale candidate");
+        assertNull(this.impl.getTodo(1, id).getLastNotification(), "Not notified");
+        assertEquals(LocalDate.of(2020, 1, 20), this.impl.getTodo(1, id).getDueDate(), "Edit kept");
+
+        candidates.clear();
+        now = Instant.parse("2020-01-13T08:00:00Z");
+        assertTrue(this.impl.streamNotificationCandidates(now, candidates::add), "Scanned again");
+        long seq = this.impl.getChangeSeq(1);
+        assertTrue(this.impl.markNotified(candidates.get(0), OffsetDateTime.ofInstant(now, ZoneOffset.UTC)), "Marked");
+        Todo notified = this.impl.getTodo(1, id);
+        assertEquals("Edited", notified.getTitle(), "Title kept");
+        assertEquals(now, notified.getLastNotification().toInstant(), "Last notification");
+        assertEquals(Instant.parse("2020-01-19T00:00:00Z").toEpochMilli(), (long)this.jdbcTemplate.queryForObject("SELECT NextAlertAt FROM TodoItems WHERE ListID=1 AND ID=?", Long.class, id), "Next alert");
+        assertEquals(seq + 1, this.impl.getChangeSeq(1), "Change logged");
+        assertFalse(this.impl.markNotified(candidates.get(0), OffsetDateTime.ofInstant(now, ZoneOffset.UTC)), "Marked twice");
+    }
+
+    @Test
+    public void rescheduleAlert_OnlyWhileUnchanged() {
+        this.jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username,Email) VALUES (1,'UserOne','one@example.com')");
+        this.jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        Todo todo = new Todo(0, -1, "Due");
+        todo.setScheduled(true);
+        todo.setDueDate(LocalDate.of(2020, 1, 10));
+        todo.setDueTimezone(ZoneOffset.UTC);
+        int id = this.impl.addTodo(1, todo);
+        Instant now = Instant.parse("2020-01-03T08:00:00Z");
+        List<NotificationCandidate> candidates = new ArrayList<>();
+        assertTrue(this.impl.streamNotificationCandidates(now, candidates::add), "Scanned");
+        assertEquals(1, candidates.size(), "Candidates");
+
+        long seq = this.impl.getChangeSeq(1);
+        Instant next = Instant.parse("2020-01-05T00:00:00Z");
+        assertTrue(this.impl.rescheduleAlert(candidates.get(0), next), "Rescheduled");
+        assertEquals(next.toEpochMilli(), (long)this.jdbcTemplate.queryForObject("SELECT NextAlertAt FROM TodoItems WHERE ListID=1 AND ID=?", Long.class, id), "Next alert");
+        assertEquals(seq, this.impl.getChangeSeq(1), "No change logged");
+        assertFalse(this.impl.rescheduleAlert(candidates.get(0), null), "Stale candidate");
+
+        candidates.clear();
+        assertTrue(this.impl.streamNotificationCandidates(now, candidates::add), "Scanned again");
+        assertTrue(candidates.isEmpty(), "Not due: "+candidates.size());
+        assertTrue(this.impl.streamNotificationCandidates(next, candidates::add), "Scanned when due");
+        assertTrue(this.impl.rescheduleAlert(candidates.get(0), null), "Cleared");
+        assertNull(this.jdbcTemplate.queryForObject("SELECT NextAlertAt FROM TodoItems WHERE ListID=1 AND ID=?", Long.class, id), "No alert");
+    }
+
+    @Test
+    public void alertSchedule() {
+        Todo todo = new Todo(1, -1, "Due");
+        assertNull(AlertSchedule.nextAlert(todo), "Not scheduled");
+        todo.setScheduled(true);
+        todo.setDueDate(LocalDate.of(2020, 1, 10));
+        todo.setDueTimezone(ZoneOffset.ofHours(2));
+        assertEquals(OffsetDateTime.parse("2020-01-03T00:00:00+02:00").toInstant(), AlertSchedule.nextAlert(todo), "Week before in due time zone");
+        todo.setLastNotification(OffsetDateTime.parse("2019-12-20T10:00:00+02:00"));
+        assertEquals(OffsetDateTime.parse("2020-01-03T00:00:00+02:00").toInstant(), AlertSchedule.nextAlert(todo), "Notified long ago");
+        todo.setLastNotification(OffsetDateTime.parse("2019-12-30T10:00:00+02:00"));
+        assertEquals(OffsetDateTime.parse("2020-01-06T10:00:00+02:00").toInstant(), AlertSchedule.nextAlert(todo), "A week after the last one");
+        todo.setLastNotification(OffsetDateTime.parse("2020-01-05T10:00:00+02:00"));
+        assertEquals(OffsetDateTime.parse("2020-01-09T00:00:00+02:00").toInstant(), AlertSchedule.nextAlert(todo), "Day before");
+        todo.setLastNotification(OffsetDateTime.parse("2020-01-12T23:00:00+00:00"));
+        assertEquals(OffsetDateTime.parse("2020-01-14T00:00:00+02:00").toInstant(), AlertSchedule.nextAlert(todo), "Daily while overdue");
+    }
+
+    @Test
+    public void pagedQueryUsesListDueIndex() {
+        this.impl.checkDatabaseVersion();
+        List<String> plan = this.jdbcTemplate.query("EXPLAIN QUERY PLAN SELECT ID FROM TodoItems WHERE ListID=? AND ("+DatabaseManagerImpl.DUE_DAY_KEY+", "+DatabaseManagerImpl.DUE_SECOND_KEY+", ID) > (?, ?, ?) ORDER BY "+DatabaseManagerImpl.DUE_DAY_KEY+", "+DatabaseManagerImpl.DUE_SECOND_KEY+", ID LIMIT 10",
+                (rs, rowNum) -> rs.getString("detail"), 1, 0, 0, 0);
+        assertTrue(plan.stream().anyMatch(detail -> detail.contains("TodoItemsListDueIdx")), "Plan: "+plan);
+        assertTrue(plan.stream().noneMatch(detail -> detail.contains("TEMP B-TREE")), "Plan: "+plan);
+    }
+
+    private void assertIndexExists(final String name) {
+        final String SELECT_INDEX = "SELECT COUNT(*) FROM sqlite_master WHERE type='index' AND name=?";
+        assertEquals(1, (int)this.jdbcTemplate.queryForObject(SELECT_INDEX, Integer.class, name), "Index "+name);
+    }
+
+    private void assertIndexMissing(final String name) {
+        final String SELECT_INDEX = "SELECT COUNT(*) FROM sqlite_master WHERE type='index' AND name=?";
+        assertEquals(0, (int)this.jdbcTemplate.queryForObject(SELECT_INDEX, Integer.class, name), "Index "+name);
     }
 
 }
@@ -0,0 +1,145 @@
+package net.metja.todolist.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class GroupCommitWriterTest {
+
+    private static final String INSERT = "INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (?, 1, -1, 'Title')";
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private GroupCommitWriter writer;
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp(@TempDir Path dir) {
+        HikariConfig config = new HikariConfig();
+        config.setDriverClassName("org.sqlite.JDBC");
+        config.setJdbcUrl("jdbc:sqlite:"+dir.resolve("group.db"));
+        config.setMaximumPoolSize(1);
+        this.dataSource = new HikariDataSource(config);
+        this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+        this.jdbcTemplate.execute(DatabaseManagerImpl.CREATE_TODO_ITEMS_TABLE);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(this.dataSource));
+        this.executor = Executors.newFixedThreadPool(16);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.executor.shutdownNow();
+        if(this.writer != null) {
+            this.writer.shutdown();
+        }
+        this.dataSource.close();
+    }
+
+    @Test
+    public void concurrentWritesShareCommits() throws Exception {
+        this.writer = new GroupCommitWriter(this.jdbcTemplate, this.transactionTemplate, 8, 50);
+        List<Future<Integer>> results = this.submitInserts(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16);
+        for(Future<Integer> result: results) {
+            assertEquals(1, (int)result.get(), "Rows");
+        }
+        assertEquals(16, (int)this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TodoItems", Integer.class), "Items");
+        assertTrue(this.writer.getCommits() < 16, "Commits "+this.writer.getCommits());
+    }
+
+    @Test
+    public void failedWriteDoesNotFailBatch() throws Exception {
+        this.jdbcTemplate.update(INSERT, 2);
+        this.writer = new GroupCommitWriter(this.jdbcTemplate, this.transactionTemplate, 3, 500);
+        List<Future<Integer>> results = this.submitInserts(1, 2, 3);
+
+        assertEquals(1, (int)results.get(0).get(), "First");
+        ExecutionException e = assertThrows(ExecutionException.class, () -> results.get(1).get());
+        assertTrue(e.getCause() instanceof DataAccessException, "Cause "+e.getCause());
+        assertEquals(1, (int)results.get(2).get(), "Third");
+        assertEquals(1, this.writer.getCommits(), "Commits");
+        assertEquals(3, (int)this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TodoItems", Integer.class), "Items");
+    }
+
+    @Test
+    public void writeAfterShutdown() {
+        this.writer = new GroupCommitWriter(this.jdbcTemplate, this.transactionTemplate, 8, 1);
+        this.writer.shutdown();
+        assertThrows(DataAccessException.class, () -> this.writer.write(jdbc -> jdbc.update(INSERT, 1)));
+    }
+
+    @Test
+    public void shutdownCommitsQueuedWrites() throws Exception {
+        this.writer = new GroupCommitWriter(this.jdbcTemplate, this.transactionTemplate, 8, 60000);
+        List<Future<Integer>> results = this.submitInserts(1, 2, 3);
+        // queued, and waiting far longer than this for more writes
+        Thread.sleep(200);
+        this.writer.shutdown();
+        for(Future<Integer> result: results) {
+            assertEquals(1, (int)result.get(5, TimeUnit.SECONDS), "Rows");
+        }
+        assertEquals(1, this.writer.getCommits(), "Commits");
+        assertEquals(3, (int)this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TodoItems", Integer.class), "Items");
+    }
+
+    @Test
+    public void writesRacingShutdownComplete() throws Exception {
+        this.writer = new GroupCommitWriter(this.jdbcTemplate, this.transactionTemplate, 4, 1);
+        // one insert for each thread of the executor, so all of them start
+        List<Future<Integer>> results = this.submitInserts(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16);
+        this.writer.shutdown();
+        int committed = 0;
+        for(Future<Integer> result: results) {
+            try {
+                assertEquals(1, (int)result.get(5, TimeUnit.SECONDS), "Rows");
+                committed++;
+            } catch(ExecutionException e) {
+                assertTrue(e.getCause() instanceof DataAccessException, "Cause "+e.getCause());
+            }
+        }
+        assertEquals(committed, (int)this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM TodoItems", Integer.class), "Items");
+    }
+
+    /**
+     * Starts all inserts at the same time so that they end up in the same batches.
+     */
+    private List<Future<Integer>> submitInserts(int... ids) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(ids.length);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for(int id: ids) {
+            results.add(this.executor.submit(() -> {
+                ready.countDown();
+                start.await();
+                return this.writer.write(jdbc -> jdbc.update(INSERT, id));
+            }));
+        }
+        ready.await();
+        start.countDown();
+        return results;
+    }
+
+}
@@ -0,0 +1,107 @@
+package net.metja.todolist.database;
+
+import net.metja.todolist.database.bean.Todo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Primary and replicas are separate sqlite files here, the replicas do not get the writes of the
+ * primary so every read shows where it was routed.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class ReplicaRoutingTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<HikariDataSource> dataSources = new ArrayList<>();
+    private DatabaseManagerImpl impl;
+    private ReplicaDataSource replicas;
+
+    @BeforeEach
+    public void setUp() {
+        HikariDataSource primary = this.database("primary", "Primary");
+        HikariDataSource replicaOne = this.database("replica-1", "Replica one");
+        HikariDataSource replicaTwo = this.database("replica-2", "Replica two");
+        this.replicas = new ReplicaDataSource(Arrays.asList(replicaOne, replicaTwo));
+        this.impl = new DatabaseManagerImpl();
+        ReflectionTestUtils.setField(this.impl, "readReplicaPin", 300L);
+        this.impl.setDataSource(primary);
+        this.impl.setReadDataSource(this.replicas);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.dataSources.forEach(HikariDataSource::close);
+    }
+
+    private HikariDataSource database(final String name, final String title) {
+        HikariConfig config = new HikariConfig();
+        config.setDriverClassName("org.sqlite.JDBC");
+        config.setJdbcUrl("jdbc:sqlite:"+this.dir.resolve(name+".db"));
+        config.setMaximumPoolSize(1);
+        HikariDataSource dataSource = new HikariDataSource(config);
+        this.dataSources.add(dataSource);
+        DatabaseManagerImpl schema = new DatabaseManagerImpl();
+        schema.setDataSource(dataSource);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("INSERT INTO UserAccounts (ID,Username,Roles) VALUES (1,'UserOne','USER')");
+        jdbcTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        jdbcTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (1, 1, -1, ?)", title);
+        return dataSource;
+    }
+
+    private String title() {
+        return this.impl.getTodo(1, 1).getTitle();
+    }
+
+    @Test
+    public void readsAlternateBetweenReplicas() {
+        List<String> titles = Arrays.asList(this.title(), this.title(), this.title(), this.title());
+        assertEquals(2, titles.stream().filter("Replica one"::equals).count(), "Replica one: "+titles);
+        assertEquals(2, titles.stream().filter("Replica two"::equals).count(), "Replica two: "+titles);
+        assertEquals(1, this.impl.getUserList("UserOne"), "User list");
+        assertEquals(1, this.impl.getUsers().size(), "Users");
+    }
+
+    @Test
+    public void readYourWrites() throws Exception {
+        assertTrue(this.impl.addTodo(1, new Todo(0, -1, "New")) > 0, "Added");
+        assertEquals("Primary", this.title(), "Title after write");
+        assertEquals(2, this.impl.getTodos(1).size(), "Size after write");
+
+        Thread.sleep(600);
+        assertTrue(this.title().startsWith("Replica"), "Title after pin expired");
+        assertEquals(1, this.impl.getTodos(1).size(), "Size after pin expired");
+    }
+
+    @Test
+    public void pinIsPerList() {
+        this.impl.updateTodo(2, new Todo(1, -1, "Other list"));
+        assertTrue(this.title().startsWith("Replica"), "Title of unwritten list");
+    }
+
+    @Test
+    public void unavailableReplicaIsSkipped() {
+        this.dataSources.get(1).close();
+        for(int i=0; i < 4; i++) {
+            assertEquals("Replica two", this.title(), "Title");
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package net.metja.todolist.database;
+
+import net.metja.todolist.database.bean.Todo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+public class ShardedDatabaseManagerTest {
+
+    @TempDir
+    Path dir;
+
+    private DatabaseManagerImpl main;
+    private JdbcTemplate mainTemplate;
+    private ShardedDatabaseManager sharded;
+
+    @BeforeEach
+    public void setUp() {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource();
+        dataSource.setDriverClassName("org.sqlite.JDBC");
+        dataSource.setUrl("jdbc:sqlite:file::memory:");
+        this.main = new DatabaseManagerImpl();
+        this.main.setDataSource(dataSource);
+        this.mainTemplate = new JdbcTemplate(dataSource);
+        this.mainTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (1,'UserOne')");
+        this.mainTemplate.update("INSERT INTO UserAccounts (ID,Username) VALUES (2,'UserTwo')");
+        this.mainTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (1, 1)");
+        this.mainTemplate.update("INSERT INTO TodoLists (ID, UserID) VALUES (2, 2)");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if(this.sharded != null) {
+            this.sharded.shutdown();
+        }
+    }
+
+    private void createSharded(final String mode, final int openMax) {
+        this.sharded = new ShardedDatabaseManager();
+        ReflectionTestUtils.setField(this.sharded, "mode", mode);
+        ReflectionTestUtils.setField(this.sharded, "directory", this.dir.toString());
+        ReflectionTestUtils.setField(this.sharded, "shardCount", 4);
+        ReflectionTestUtils.setField(this.sharded, "openMax", (long)openMax);
+        this.sharded.setMain(this.main);
+    }
+
+    @Test
+    public void listPerFile() {
+        this.createSharded("list", 8);
+        assertEquals(1, this.sharded.getUserList("UserOne"), "List of user one");
+        assertTrue(this.sharded.getTodos(1).isEmpty(), "Unwritten list");
+        assertEquals(-1, this.sharded.getChangeSeq(1), "Not added by reads");
+        assertEquals(1, this.sharded.addTodo(1, new Todo(0, -1, "One")), "ID in list 1");
+        assertEquals(1, this.sharded.addTodo(2, new Todo(0, -1, "Two")), "ID in list 2");
+        assertEquals(2, this.sharded.addTodo(1, new Todo(0, 1, "One child")), "Second ID in list 1");
+
+        assertEquals(2, this.sharded.getTodos(1).size(), "List 1 size");
+        assertEquals("Two", this.sharded.getTodo(2, 1).getTitle(), "List 2 title");
+        assertTrue(Files.exists(this.dir.resolve("list-1.db")), "List 1 file");
+        assertTrue(Files.exists(this.dir.resolve("list-2.db")), "List 2 file");
+        assertEquals(0, (int)this.mainTemplate.queryForObject("SELECT COUNT(*) FROM TodoItems", Integer.class), "Items in main database");
+
+        Todo todo = this.sharded.getTodo(1, 2);
+        todo.setTitle("Changed");
+        assertTrue(this.sharded.updateTodo(1, todo), "Updated");
+        assertEquals(TransitionResult.UPDATED, this.sharded.markTodoDone(1, 2), "Done");
+        assertTrue(this.sharded.deleteTodo(2, 1), "Deleted");
+        assertTrue(this.sharded.getTodos(2).isEmpty(), "List 2 empty");
+        assertEquals("Changed", this.sharded.getTodo(1, 2).getTitle(), "Title");
+    }
+
+    @Test
+    public void refusesMainDatabaseWithItems() {
+        this.mainTemplate.update("INSERT INTO TodoItems (ID, ListID, ParentID, Title) VALUES (1, 2, -1, 'Main')");
+        assertThrows(IllegalStateException.class, () -> this.createSharded("list", 8), "Items");
+        this.mainTemplate.update("DELETE FROM TodoItems");
+        this.mainTemplate.update("INSERT INTO ArchivedTodoItems (ID, ListID, ParentID, Title) VALUES (1, 2, -1, 'Archived')");
+        assertThrows(IllegalStateException.class, () -> this.createSharded("list", 8), "Archived items");
+        this.sharded = null;
+    }
+
+    @Test
+    public void streamNotificationCandidates() {
+        this.createSharded("list", 8);
+        Todo one = new Todo(0, -1, "One");
+        one.setScheduled(true);
+        one.setDueDate(LocalDate.of(2020, 1, 2));
+        assertEquals(1, this.sharded.addTodo(1, one), "Added to list 1");
+        Todo two = new Todo(0, -1, "Two");
+        two.setScheduled(true);
+        two.setDueDate(LocalDate.of(2020, 1, 2));
+        assertEquals(1, this.sharded.addTodo(2, two), "Added to list 2");
+
+        Map<String, String> owners = new HashMap<>();
+        assertTrue(this.sharded.streamNotificationCandidates(Instant.parse("2020-01-01T00:00:00Z"),
+                candidate -> owners.put(candidate.getTodo().getTitle(), candidate.getUser().getUsername())), "Scanned");
+        assertEquals("UserOne", owners.get("One"), "Owner of list 1");
+        assertEquals("UserTwo", owners.get("Two"), "Owner of list 2");
+        assertEquals(2, owners.size(), "Candidates");
+    }
+
+    @Test
+    public void markNotified_WritesBackToSource() {
+        Instant now = Instant.parse("2020-01-01T00:00:00Z");
+        this.createSharded("list", 8);
+        for(int listId=1; listId <= 2; listId++) {
+            Todo todo = new Todo(0, -1, "List "+listId);
+            todo.setScheduled(true);
+            todo.setDueDate(LocalDate.of(2020, 1, 2));
+            assertEquals(1, this.sharded.addTodo(listId, todo), "Added to list "+listId);
+        }
+
+        List<NotificationCandidate> candidates = new ArrayList<>();
+        assertTrue(this.sharded.streamNotificationCandidates(now, candidates::add), "Scanned");
+        assertEquals(2, candidates.size(), "Candidates");
+        OffsetDateTime notifiedAt = OffsetDateTime.parse("2020-01-01T00:00:00Z");
+        for(NotificationCandidate candidate: candidates) {
+            assertTrue(this.sharded.markNotified(candidate, notifiedAt), "Marked "+candidate.getTodo().getTitle());
+        }
+        assertNotNull(this.sharded.getTodo(1, 1).getLastNotification(), "List 1 item notified");
+        assertNotNull(this.sharded.getTodo(2, 1).getLastNotification(), "List 2 item notified");
+
+        candidates.clear();
+        assertTrue(this.sharded.streamNotificationCandidates(now, candidates::add), "Scanned again");
+        assertTrue(candidates.isEmpty(), "Nothing due: "+candidates.size());
+    }
+
+    @Test
+    public void streamNotificationCandidates_SkipsShardsWithoutDueItems() throws Exception {
+        this.createSharded("list", 8);
+        Todo later = new Todo(0, -1, "Later");
+        later.setScheduled(true);
+        later.setDueDate(LocalDate.of(2020, 2, 1));
+        later.setDueTimezone(ZoneOffset.UTC);
+        assertEquals(1, this.sharded.addTodo(1, later), "Added");
+        assertEquals(1, this.sharded.addTodo(2, new Todo(0, -1, "Unscheduled")), "Added to list 2");
+        assertEquals(Instant.parse("2020-01-25T00:00:00Z").toEpochMilli(), (long)this.mainTemplate.queryForObject("SELECT NextAlertAt FROM ShardAlerts WHERE Shard='list-1'", Long.class), "Next alert of list 1");
+        assertNull(this.mainTemplate.queryForObject("SELECT NextAlertAt FROM ShardAlerts WHERE Shard='list-2'", Long.class), "No alert in list 2");
+
+        // written past the manager, so only a scan of the file would see it
+        this.sharded.shutdown();
+        SingleConnectionDataSource shardSource = new SingleConnectionDataSource("jdbc:sqlite:"+this.dir.resolve("list-2.db"), true);
+        new JdbcTemplate(shardSource).update("UPDATE TodoItems SET Scheduled=1, NextAlertAt=? WHERE ID=1", Instant.parse("2020-01-01T00:00:00Z").toEpochMilli());
+        shardSource.destroy();
+
+        this.createSharded("list", 8);
+        List<String> found = new ArrayList<>();
+        assertTrue(this.sharded.streamNotificationCandidates(Instant.parse("2020-01-10T00:00:00Z"), candidate -> found.add(candidate.getTodo().getTitle())), "Scanned");
+        assertTrue(found.isEmpty(), "Skipped: "+found);
+        assertTrue(this.sharded.streamNotificationCandidates(Instant.parse("2020-01-25T00:00:00Z"), candidate -> found.add(candidate.getTodo().getTitle())), "Scanned when due");
+        assertEquals(Arrays.asList("Later"), found, "Due");
+    }
+
+    @Test
+    public void hashedFiles() {
+        this.createSharded("hash", 8);
+        for(int listId=1; listId <= 40; listId++) {
+            String name = this.sharded.shardName(listId);
+            assertTrue(name.matches("shard-[0-3]"), "Shard name "+name);
+            assertEquals(name, this.sharded.shardName(listId), "Stable name");
+        }
+        assertEquals(1, this.sharded.addTodo(1, new Todo(0, -1, "One")), "ID");
+        assertEquals("One", this.sharded.getTodos(1).get(0).getTitle(), "Title");
+        assertTrue(Files.exists(this.dir.resolve(this.sharded.shardName(1)+".db")), "Shard file");
+    }
+
+    @Test
+    public void evictedShardsReopen() {
+        this.createSharded("list", 1);
+        for(int round=0; round < 3; round++) {
+            assertTrue(this.sharded.addTodo(1, new Todo(0, -1, "One "+round)) > 0, "Added to list 1");
+            assertTrue(this.sharded.addTodo(2, new Todo(0, -1, "Two "+round)) > 0, "Added to list 2");
+        }
+        assertEquals(3, this.sharded.getTodos(1).size(), "List 1 size");
+        assertEquals(3, this.sharded.getTodos(2).size(), "List 2 size");
+    }
+
+}
@@ -0,0 +1,88 @@
+package net.metja.todolist.database;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.metja.todolist.database.bean.Todo;
+
+/**
+ * Compares the old nested loop parent lookup with {@link DatabaseManagerImpl#linkChildren(List)}.
+ * Not run by surefire, start it from the main method after mvn test-compile.
+ *
+ * @author Janne Metso @copy; 2026
+ * @since 2026-10-18
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TodoHierarchyBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    private int items;
+
+    private List<Todo> todos;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        // every third item is a root, the rest hang under the closest root before them
+        this.todos = new ArrayList<>(this.items);
+        int parent = -1;
+        for(int id=1; id <= this.items; id++) {
+            if(id % 3 == 1) {
+                this.todos.add(new Todo(id, -1, "Root "+id));
+                parent = id;
+            } else {
+                this.todos.add(new Todo(id, parent, "Child "+id));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Todo> nestedLoop() {
+        for(Todo todo: this.todos) {
+            if(todo.getParentId() > 0) {
+                for(Todo parent: this.todos) {
+                    if(parent.getId() == todo.getParentId()) {
+                        if(parent.getChildren() == null) {
+                            parent.setChildren(new LinkedList<>());
+                        }
+                        parent.getChildren().add(todo);
+                        break;
+                    }
+                }
+            }
+        }
+        return this.todos;
+    }
+
+    @Benchmark
+    public List<Todo> idIndex() {
+        return DatabaseManagerImpl.linkChildren(this.todos);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TodoHierarchyBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -1,12 +1,18 @@
 package net.metja.todolist.notification;
 
+import net.metja.todolist.database.AlertSchedule;
 import net.metja.todolist.database.DatabaseManager;
+import net.metja.todolist.database.NotificationCandidate;
+import net.metja.todolist.database.NotificationCandidateCallback;
 import net.metja.todolist.database.bean.Todo;
 import net.metja.todolist.database.bean.UserAccount;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import javax.mail.MessagingException;
+
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.OffsetDateTime;
@@ -46,6 +52,22 @@ class NotificationManagerTest {
         this.userAccounts = null;
     }
 
+    private void givenCandidates(DatabaseManager databaseManager, List<Todo> todos) {
+        when(databaseManager.streamNotificationCandidates(any(Instant.class), any())).thenAnswer(invocation -> {
+            Instant now = invocation.getArgument(0);
+            NotificationCandidateCallback callback = invocation.getArgument(1);
+            // the database returns the open items whose next alert is due
+            for(Todo todo: todos) {
+                Instant nextAlert = AlertSchedule.nextAlert(todo);
+                if(!todo.isDone() && nextAlert != null && !nextAlert.isAfter(now)) {
+                    callback.process(new NotificationCandidate(this.userAccounts.get(0), 1, todo, nextAlert));
+                }
+            }
+            return true;
+        });
+        when(databaseManager.markNotified(any(NotificationCandidate.class), any(OffsetDateTime.class))).thenReturn(true);
+    }
+
     @Test
     public void testUnscheduledTodo() {
         List<Todo> todos = new LinkedList<>();
@@ -53,10 +75,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
 
@@ -84,10 +103,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
         AtomicBoolean pass = new AtomicBoolean(false);
@@ -121,10 +137,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
         AtomicBoolean pass = new AtomicBoolean(false);
@@ -158,10 +171,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
         AtomicBoolean pass = new AtomicBoolean(false);
@@ -196,10 +206,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
         AtomicBoolean pass = new AtomicBoolean(false);
@@ -229,10 +236,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
         AtomicBoolean pass = new AtomicBoolean(false);
@@ -268,10 +272,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
 
@@ -300,10 +301,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
 
@@ -331,10 +329,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
         AtomicBoolean pass = new AtomicBoolean(false);
@@ -361,10 +356,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
 
@@ -391,10 +383,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
         AtomicBoolean pass = new AtomicBoolean(false);
@@ -432,10 +421,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
 
@@ -463,10 +449,7 @@ class NotificationManagerTest {
         todos.add(todo);
 
         DatabaseManager databaseManager = mock(DatabaseManager.class);
-        when(databaseManager.getUsers()).thenReturn(userAccounts);
-        when(databaseManager.getUserList("user")).thenReturn(1);
-        when(databaseManager.getTodos(1)).thenReturn(todos);
-        when(databaseManager.updateTodo(1, todo)).thenReturn(true);
+        givenCandidates(databaseManager, todos);
 
         AtomicInteger sentNotifications = new AtomicInteger();
         AtomicBoolean pass = new AtomicBoolean(false);
@@ -491,4 +474,81 @@ class NotificationManagerTest {
         assertTrue(pass.get(), "Notification content");
     }
 
+    @Test
+    public void testTaskNotDueRescheduled() {
+        Todo todo = new Todo(4, -1, "Twelve");
+        todo.setScheduled(true);
+        todo.setDueDate(LocalDate.now(ZoneOffset.UTC).plusDays(10));
+        todo.setDueTimezone(ZoneOffset.UTC);
+        Instant alertAt = Instant.now().minusSeconds(60);
+
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        // read as due, as after a change of the server time zone
+        when(databaseManager.streamNotificationCandidates(any(Instant.class), any())).thenAnswer(invocation -> {
+            NotificationCandidateCallback callback = invocation.getArgument(1);
+            callback.process(new NotificationCandidate(this.userAccounts.get(0), 1, todo, alertAt));
+            return true;
+        });
+        when(databaseManager.rescheduleAlert(any(NotificationCandidate.class), any())).thenReturn(true);
+
+        AtomicInteger sentNotifications = new AtomicInteger();
+        this.notificationManager.setEmailClient((subject, text, user1) -> sentNotifications.getAndIncrement());
+        this.notificationManager.setDatabaseManager(databaseManager);
+        this.notificationManager.checkNotifications();
+
+        assertEquals(0, sentNotifications.get(), "Notifications");
+        verify(databaseManager).rescheduleAlert(any(NotificationCandidate.class), eq(todo.getDueDate().minusDays(7).atStartOfDay(ZoneOffset.UTC).toInstant()));
+        verify(databaseManager, never()).markNotified(any(NotificationCandidate.class), any(OffsetDateTime.class));
+    }
+
+    @Test
+    public void testNotificationNotSent() {
+        List<Todo> todos = new LinkedList<>();
+        Todo todo = new Todo(5, -1, "Thirteen");
+        todo.setScheduled(true);
+        todo.setDueDate(LocalDate.now().minus(1, ChronoUnit.DAYS));
+        todos.add(todo);
+
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        givenCandidates(databaseManager, todos);
+
+        this.notificationManager.setEmailClient((subject, text, user1) -> {
+            throw new MessagingException("Mail server down");
+        });
+        this.notificationManager.setDatabaseManager(databaseManager);
+        this.notificationManager.checkNotifications();
+
+        verify(databaseManager, never()).markNotified(any(NotificationCandidate.class), any(OffsetDateTime.class));
+    }
+
+    @Test
+    public void testTaskChangedSinceScan() {
+        List<Todo> todos = new LinkedList<>();
+        Todo todo = new Todo(3, -1, "Eleven");
+        todo.setScheduled(true);
+        todo.setDueDate(LocalDate.now().minus(1, ChronoUnit.DAYS));
+        todos.add(todo);
+
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        givenCandidates(databaseManager, todos);
+        when(databaseManager.markNotified(any(NotificationCandidate.class), any(OffsetDateTime.class))).thenReturn(false);
+
+        AtomicInteger sentNotifications = new AtomicInteger();
+
+        this.notificationManager.setEmailClient((subject, text, user1) -> sentNotifications.getAndIncrement());
+        this.notificationManager.setDatabaseManager(databaseManager);
+        this.notificationManager.init();
+
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        // sent before it is marked, the edit made since the scan is not overwritten
+        assertEquals(1, sentNotifications.get(), "Notifications");
+        verify(databaseManager, atLeastOnce()).markNotified(any(NotificationCandidate.class), any(OffsetDateTime.class));
+        verify(databaseManager, never()).updateTodo(anyInt(), any(Todo.class));
+    }
+
 }